@@ -3,8 +3,25 @@ import {v4 as uuidv4} from 'uuid';
 const talkButton = document.getElementById("remo-textbox-ptt");
 const textBox = document.getElementById("remo-textbox-field");
 
+let lastQueryId = null;
+
 textBox.focus();
 talkButton.addEventListener("click", pttButtonClicked);
+textBox.addEventListener("keydown", textBoxKeyDown);
+
+//Escape stops the answer being written
+function textBoxKeyDown(keyEvent){
+    if(keyEvent.key !== "Escape" || !lastQueryId){
+        return;
+    }
+    const event = new CustomEvent("user-cancelled", {
+        detail: {
+            message_type: "cancel-message",
+            queryId: lastQueryId
+        },
+    });
+    document.dispatchEvent(event);
+}
 
 
 function pttButtonClicked(userEvent){
@@ -14,9 +31,10 @@ function pttButtonClicked(userEvent){
         console.debug("Nothing to send.");
         return;
     }
+    lastQueryId = uuidv4();
     const event = new CustomEvent("user-talked", {
         detail: {
-            queryId: uuidv4(),
+            queryId: lastQueryId,
             message: text,
             timestamp: Date.now()
         },
@@ -41,14 +59,8 @@ function handleUserMessageReceived(event) {
     messageContainer.innerHTML = text;
 }
 
-function handleChatResponseReceived(event){
-    console.info(event);
+function getResponseContainer(queryId){
     const conversationContainer = document.getElementById('remo-conversation');
-    const message = event.detail.message;
-    const queryId = message.queryId;
-    const isComplete = message.isComplete;
-    const tokens = message.tokens;
-
     let messageContainer = document.getElementById('response-'+queryId);
     if(!messageContainer){
         messageContainer = document.createElement("div");
@@ -56,7 +68,39 @@ function handleChatResponseReceived(event){
         messageContainer.id = 'response-'+queryId;
         conversationContainer.appendChild(messageContainer);
     }
+    return messageContainer;
+}
+
+function handleQueueStatusReceived(event){
+    const message = event.detail.message;
+    const messageContainer = getResponseContainer(message.queryId);
+    let status = messageContainer.querySelector(".queue-status");
+    if(!status){
+        status = document.createElement("span");
+        status.classList.add("queue-status");
+        messageContainer.appendChild(status);
+    }
+    if(message.rejected){
+        status.textContent = "Too many questions are waiting, please try again in a moment.";
+    }
+    else if(message.etaSeconds){
+        status.textContent = "Waiting for my turn (" + (message.position + 1) + " in line, about " + message.etaSeconds + "s)...";
+    }
+    else{
+        status.textContent = "Waiting for my turn (" + (message.position + 1) + " in line)...";
+    }
+}
+
+function handleChatResponseReceived(event){
+    console.info(event);
+    const message = event.detail.message;
+    const queryId = message.queryId;
+    const isComplete = message.isComplete;
+    const tokens = message.tokens;
+
+    const messageContainer = getResponseContainer(queryId);
     if(tokens){
+        messageContainer.querySelector(".queue-status")?.remove();
         messageContainer.innerHTML += tokens;
     }
     if(isComplete){
@@ -69,4 +113,5 @@ function handleChatResponseReceived(event){
 }
 
 document.addEventListener("response-tokens-received", handleChatResponseReceived);
+document.addEventListener("queue-status-received", handleQueueStatusReceived);
 document.addEventListener("user-talked", handleUserMessageReceived);
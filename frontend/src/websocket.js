@@ -39,4 +39,5 @@ function handleUserMessage(event){
 }
 
 document.addEventListener("user-talked", handleUserMessage);
+document.addEventListener("user-cancelled", handleUserMessage);
 
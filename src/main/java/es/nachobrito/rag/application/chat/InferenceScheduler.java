@@ -0,0 +1,347 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.application.chat;
+
+import es.nachobrito.rag.domain.rag.RagQuery;
+import es.nachobrito.rag.domain.rag.RagService;
+import es.nachobrito.rag.domain.rag.RagTokens;
+import io.micronaut.context.annotation.Property;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admission control in front of {@link RagService#chat}: at most {@code remo.inference.concurrency}
+ * generations run at a time, and the rest wait in a bounded queue.
+ *
+ * <p>The queue is fair between sessions: each session has its own FIFO queue, and sessions take
+ * turns, so one client sending many messages does not delay everybody else. A query is rejected
+ * right away when {@code remo.inference.queue-capacity} queries are already waiting, or its session
+ * already has {@code remo.inference.max-queued-per-session} of them. Waiting queries are told their
+ * position, and an estimate of when they will start, every time it changes.
+ *
+ * <p>A query can be cancelled while it waits, which drops it, or while it runs, which interrupts
+ * the inference thread so the generation stops and the slot goes to the next query.
+ *
+ * @author nacho
+ */
+@Singleton
+public class InferenceScheduler {
+  private static final Logger log = LoggerFactory.getLogger(InferenceScheduler.class);
+  // weight of the last generation in the service time estimate
+  private static final double SMOOTHING = 0.2;
+
+  private final RagService ragService;
+  private final int concurrency;
+  private final int queueCapacity;
+  private final int maxQueuedPerSession;
+  private final ExecutorService executor;
+
+  // sessions with waiting queries, in turn order
+  private final LinkedHashMap<String, ArrayDeque<Request>> sessions = new LinkedHashMap<>();
+  private final List<Request> active = new ArrayList<>();
+  private int queued;
+  private int running;
+  private double serviceNanos = -1;
+
+  public InferenceScheduler(
+      RagService ragService,
+      @Property(name = "remo.inference.concurrency", defaultValue = "1") int concurrency,
+      @Property(name = "remo.inference.queue-capacity", defaultValue = "32") int queueCapacity,
+      @Property(name = "remo.inference.max-queued-per-session", defaultValue = "4")
+          int maxQueuedPerSession) {
+    if (concurrency < 1 || queueCapacity < 0 || maxQueuedPerSession < 1) {
+      throw new IllegalArgumentException(
+          "concurrency and queued queries per session must be positive");
+    }
+    this.ragService = ragService;
+    this.concurrency = concurrency;
+    this.queueCapacity = queueCapacity;
+    this.maxQueuedPerSession = maxQueuedPerSession;
+    this.executor =
+        Executors.newFixedThreadPool(
+            concurrency, Thread.ofPlatform().daemon().name("inference-", 1).factory());
+  }
+
+  /**
+   * Queues a query, or rejects it if the queue or the session's share of it is full.
+   *
+   * @param tokens receives the response, from an inference thread
+   * @param positions receives the position of the query while it waits
+   * @return whether the query was accepted
+   */
+  public boolean submit(
+      String sessionId,
+      RagQuery query,
+      Consumer<RagTokens> tokens,
+      Consumer<QueuePosition> positions) {
+    List<Notification> notifications;
+    synchronized (this) {
+      var session = sessions.get(sessionId);
+      var sessionQueued = session == null ? 0 : session.size();
+      var idle = running < concurrency && queued == 0;
+      if (!idle && (queued >= queueCapacity || sessionQueued >= maxQueuedPerSession)) {
+        log.info(
+            "Rejecting query {} from session {}: {} queued, {} from this session",
+            query.uuid(),
+            sessionId,
+            queued,
+            sessionQueued);
+        return false;
+      }
+      sessions
+          .computeIfAbsent(sessionId, id -> new ArrayDeque<>())
+          .add(new Request(sessionId, query, tokens, positions));
+      queued++;
+      dispatch();
+      notifications = positions();
+    }
+    notifications.forEach(Notification::send);
+    return true;
+  }
+
+  /** Starts waiting queries while there are free slots, taking one from each session in turn. */
+  private void dispatch() {
+    while (running < concurrency && queued > 0) {
+      var next = sessions.entrySet().iterator().next();
+      var sessionId = next.getKey();
+      var session = sessions.remove(sessionId);
+      var request = session.poll();
+      if (!session.isEmpty()) {
+        sessions.put(sessionId, session);
+      }
+      queued--;
+      running++;
+      active.add(request);
+      executor.execute(() -> run(request));
+    }
+  }
+
+  private void run(Request request) {
+    var start = System.nanoTime();
+    try {
+      synchronized (this) {
+        if (request.cancelled) {
+          return;
+        }
+        request.thread = Thread.currentThread();
+      }
+      ragService.chat(request.query(), request.tokens());
+    } catch (RuntimeException e) {
+      log.error("Generation failed for query {}", request.query().uuid(), e);
+    } finally {
+      List<Notification> notifications;
+      synchronized (this) {
+        request.thread = null;
+        active.remove(request);
+        var elapsed = System.nanoTime() - start;
+        serviceNanos =
+            serviceNanos < 0 ? elapsed : SMOOTHING * elapsed + (1 - SMOOTHING) * serviceNanos;
+        running--;
+        dispatch();
+        notifications = positions();
+      }
+      // a cancel that came after the generation ended must not reach the next task
+      Thread.interrupted();
+      complete(request);
+      notifications.forEach(Notification::send);
+    }
+  }
+
+  /**
+   * Cancels a query of a session.
+   *
+   * @return whether the query was waiting or running
+   */
+  public boolean cancel(String sessionId, UUID queryUuid) {
+    return cancel(
+            request ->
+                request.sessionId().equals(sessionId) && request.query().uuid().equals(queryUuid))
+        > 0;
+  }
+
+  /**
+   * Cancels every query of a session, when it is gone or only its last query matters.
+   *
+   * @return the number of queries cancelled
+   */
+  public int cancelSession(String sessionId) {
+    return cancel(request -> request.sessionId().equals(sessionId));
+  }
+
+  private int cancel(Predicate<Request> selected) {
+    var dropped = new ArrayList<Request>();
+    var interrupted = 0;
+    List<Notification> notifications;
+    synchronized (this) {
+      for (var entries = sessions.values().iterator(); entries.hasNext(); ) {
+        var session = entries.next();
+        for (var requests = session.iterator(); requests.hasNext(); ) {
+          var request = requests.next();
+          if (selected.test(request)) {
+            requests.remove();
+            dropped.add(request);
+          }
+        }
+        if (session.isEmpty()) {
+          entries.remove();
+        }
+      }
+      queued -= dropped.size();
+      for (var request : active) {
+        if (!request.cancelled && selected.test(request)) {
+          request.cancelled = true;
+          interrupted++;
+          if (request.thread != null) {
+            request.thread.interrupt();
+          }
+        }
+      }
+      notifications = positions();
+    }
+    if (!dropped.isEmpty() || interrupted > 0) {
+      log.info("Cancelled {} waiting and {} running queries", dropped.size(), interrupted);
+    }
+    dropped.forEach(InferenceScheduler::complete);
+    notifications.forEach(Notification::send);
+    return dropped.size() + interrupted;
+  }
+
+  /** Tells the client the response is over, whether or not the generation succeeded. */
+  private static void complete(Request request) {
+    try {
+      request.tokens().accept(RagTokens.completeResponse(request.query().uuid()));
+    } catch (RuntimeException e) {
+      log.warn("Could not complete the response to query {}", request.query().uuid(), e);
+    }
+  }
+
+  /**
+   * Position of every waiting query, in the order they will start: the first query of every session
+   * in turn order, then the second one of every session, and so on. Only the positions that changed
+   * are notified.
+   */
+  private List<Notification> positions() {
+    var notifications = new ArrayList<Notification>();
+    var cursors = new ArrayList<Iterator<Request>>(sessions.size());
+    sessions.values().forEach(session -> cursors.add(session.iterator()));
+    var position = 0;
+    while (!cursors.isEmpty()) {
+      for (var turns = cursors.iterator(); turns.hasNext(); ) {
+        var cursor = turns.next();
+        if (!cursor.hasNext()) {
+          turns.remove();
+          continue;
+        }
+        var request = cursor.next();
+        if (request.position != position) {
+          request.position = position;
+          notifications.add(
+              new Notification(
+                  request.positions(),
+                  new QueuePosition(request.query().uuid(), position, eta(position))));
+        }
+        position++;
+      }
+    }
+    return notifications;
+  }
+
+  /** Every running slot frees up after about one service time. */
+  private Duration eta(int position) {
+    if (serviceNanos < 0) {
+      return null;
+    }
+    return Duration.ofNanos((long) (serviceNanos * (position / concurrency + 1)));
+  }
+
+  /** Number of queries waiting to start. */
+  public synchronized int queued() {
+    return queued;
+  }
+
+  /** Number of generations running. */
+  public synchronized int running() {
+    return running;
+  }
+
+  @PreDestroy
+  void close() {
+    executor.shutdownNow();
+  }
+
+  private static final class Request {
+    private final String sessionId;
+    private final RagQuery query;
+    private final Consumer<RagTokens> tokens;
+    private final Consumer<QueuePosition> positions;
+    // guarded by the scheduler: last position notified, and the thread running the query
+    private int position = -1;
+    private boolean cancelled;
+    private Thread thread;
+
+    Request(
+        String sessionId,
+        RagQuery query,
+        Consumer<RagTokens> tokens,
+        Consumer<QueuePosition> positions) {
+      this.sessionId = sessionId;
+      this.query = query;
+      this.tokens = tokens;
+      this.positions = positions;
+    }
+
+    String sessionId() {
+      return sessionId;
+    }
+
+    RagQuery query() {
+      return query;
+    }
+
+    Consumer<RagTokens> tokens() {
+      return tokens;
+    }
+
+    Consumer<QueuePosition> positions() {
+      return positions;
+    }
+  }
+
+  /** A position to send once the scheduler's lock is released. */
+  private record Notification(Consumer<QueuePosition> consumer, QueuePosition position) {
+    void send() {
+      try {
+        consumer.accept(position);
+      } catch (RuntimeException e) {
+        log.warn("Could not send the queue position of query {}", position.queryUuid(), e);
+      }
+    }
+  }
+}
@@ -0,0 +1,29 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.application.chat;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Where a query waits in the {@link InferenceScheduler}: {@code position} queries will start before
+ * it. {@code eta} estimates when it will start, or is {@code null} until a generation has finished
+ * and there is a service time to estimate from.
+ *
+ * @author nacho
+ */
+public record QueuePosition(UUID queryUuid, int position, Duration eta) {}
@@ -0,0 +1,134 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.application.chat;
+
+import es.nachobrito.rag.domain.rag.RagTokens;
+import io.micronaut.context.annotation.Property;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Groups the tokens of a response into fewer, larger messages: after the first token, which is sent
+ * right away so the user sees the answer start, tokens are buffered until {@code
+ * remo.stream.flush-interval} has passed or {@code remo.stream.flush-bytes} have accumulated. The
+ * completion marker flushes whatever is buffered and is then passed on. An interval of zero turns
+ * coalescing off.
+ *
+ * @author nacho
+ */
+@Singleton
+public class TokenCoalescer {
+  private final Duration interval;
+  private final int maxBytes;
+  private final ScheduledExecutorService timer =
+      Executors.newSingleThreadScheduledExecutor(
+          Thread.ofPlatform().daemon().name("token-flush").factory());
+
+  public TokenCoalescer(
+      @Property(name = "remo.stream.flush-interval", defaultValue = "50ms") Duration interval,
+      @Property(name = "remo.stream.flush-bytes", defaultValue = "256") int maxBytes) {
+    if (interval.isNegative() || maxBytes < 1) {
+      throw new IllegalArgumentException("flush interval and bytes must be positive");
+    }
+    this.interval = interval;
+    this.maxBytes = maxBytes;
+  }
+
+  /** Wraps the consumer of one response; the result must not be shared between responses. */
+  public Consumer<RagTokens> coalesce(Consumer<RagTokens> downstream) {
+    return interval.isZero() ? downstream : new Buffer(downstream);
+  }
+
+  @PreDestroy
+  void close() {
+    timer.shutdownNow();
+  }
+
+  private final class Buffer implements Consumer<RagTokens> {
+    private final Consumer<RagTokens> downstream;
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingBytes;
+    private UUID queryUuid;
+    private boolean started;
+    private ScheduledFuture<?> scheduled;
+
+    private Buffer(Consumer<RagTokens> downstream) {
+      this.downstream = downstream;
+    }
+
+    @Override
+    public synchronized void accept(RagTokens tokens) {
+      if (tokens.isComplete()) {
+        flush();
+        downstream.accept(tokens);
+        return;
+      }
+      if (!started) {
+        started = true;
+        downstream.accept(tokens);
+        return;
+      }
+      queryUuid = tokens.queryUuid();
+      pending.append(tokens.tokens());
+      pendingBytes += utf8Length(tokens.tokens());
+      if (pendingBytes >= maxBytes) {
+        flush();
+      } else if (scheduled == null) {
+        scheduled = timer.schedule(this::flush, interval.toNanos(), TimeUnit.NANOSECONDS);
+      }
+    }
+
+    private synchronized void flush() {
+      if (scheduled != null) {
+        scheduled.cancel(false);
+        scheduled = null;
+      }
+      if (pending.isEmpty()) {
+        return;
+      }
+      downstream.accept(RagTokens.partialResponse(queryUuid, pending.toString()));
+      pending.setLength(0);
+      pendingBytes = 0;
+    }
+  }
+
+  private static int utf8Length(String text) {
+    var length = 0;
+    for (int i = 0; i < text.length(); i++) {
+      var c = text.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c)) {
+        // the pair is one 4-byte code point
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+}
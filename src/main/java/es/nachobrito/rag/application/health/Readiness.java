@@ -0,0 +1,125 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.application.health;
+
+import io.micronaut.context.annotation.Property;
+import jakarta.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Whether the application is ready to take traffic: it starts as {@link Status#STARTING} and
+ * becomes {@link Status#UP} once every warm-up task and every startup step announced with {@link
+ * #expect}, such as the initial ingest, has finished, or {@link Status#DOWN} if one of them failed.
+ * Without a warm-up phase ({@code remo.warmup.enabled=false}) only the startup steps are waited
+ * for.
+ *
+ * @author nacho
+ */
+@Singleton
+public class Readiness {
+  private static final Logger log = LoggerFactory.getLogger(Readiness.class);
+
+  public enum Status {
+    STARTING,
+    UP,
+    DOWN
+  }
+
+  private final Map<String, String> details = Collections.synchronizedMap(new LinkedHashMap<>());
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+  private volatile boolean warmingUp;
+  private volatile boolean failed;
+
+  public Readiness(
+      @Property(name = "remo.warmup.enabled", defaultValue = "true") boolean warmUpEnabled) {
+    this.warmingUp = warmUpEnabled;
+  }
+
+  public Status status() {
+    if (failed) {
+      return Status.DOWN;
+    }
+    return warmingUp || !pending.isEmpty() ? Status.STARTING : Status.UP;
+  }
+
+  /** Keeps the application from being up until the named step has been run with {@link #run}. */
+  public void expect(String name) {
+    pending.add(name);
+  }
+
+  /** Runs a startup step announced with {@link #expect}; if it fails, the application is down. */
+  public void run(String name, Runnable step) {
+    try {
+      runTask(name, step);
+    } catch (RuntimeException e) {
+      failed = true;
+      throw e;
+    } finally {
+      pending.remove(name);
+      log.info("Startup step {} finished, status {}", name, status());
+    }
+  }
+
+  /** Outcome of every warm-up task that has finished, by name. */
+  public Map<String, String> details() {
+    synchronized (details) {
+      return Map.copyOf(details);
+    }
+  }
+
+  /** Runs every task on a thread of its own and waits for all of them. */
+  public void warmUp(Map<String, Runnable> tasks) {
+    var start = System.nanoTime();
+    var results = new ArrayList<CompletableFuture<Void>>();
+    try (var executor =
+        Executors.newThreadPerTaskExecutor(Thread.ofPlatform().name("warm-up-", 1).factory())) {
+      tasks.forEach(
+          (name, task) ->
+              results.add(CompletableFuture.runAsync(() -> runTask(name, task), executor)));
+    }
+    if (results.stream().anyMatch(CompletableFuture::isCompletedExceptionally)) {
+      failed = true;
+    }
+    warmingUp = false;
+    log.info(
+        "Warm-up finished in {} ms, status {}: {}",
+        (System.nanoTime() - start) / 1_000_000,
+        status(),
+        details());
+  }
+
+  private void runTask(String name, Runnable task) {
+    var start = System.nanoTime();
+    try {
+      task.run();
+      details.put(name, "ready in %d ms".formatted((System.nanoTime() - start) / 1_000_000));
+    } catch (RuntimeException e) {
+      log.error("Startup task {} failed", name, e);
+      details.put(name, "failed: " + e.getMessage());
+      throw e;
+    }
+  }
+}
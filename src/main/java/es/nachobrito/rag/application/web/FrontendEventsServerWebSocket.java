@@ -16,18 +16,32 @@
 
 package es.nachobrito.rag.application.web;
 
+import es.nachobrito.rag.application.chat.InferenceScheduler;
+import es.nachobrito.rag.application.chat.TokenCoalescer;
+import es.nachobrito.rag.application.web.model.CancelMessage;
+import es.nachobrito.rag.application.web.model.QueueStatus;
 import es.nachobrito.rag.application.web.model.ResponseTokens;
 import es.nachobrito.rag.application.web.model.UserMessage;
 import es.nachobrito.rag.domain.rag.RagQuery;
-import es.nachobrito.rag.domain.rag.RagService;
+import es.nachobrito.rag.domain.rag.RagTokens;
+import io.micronaut.context.annotation.Property;
+import io.micronaut.json.JsonMapper;
+import io.micronaut.json.tree.JsonNode;
 import io.micronaut.websocket.WebSocketBroadcaster;
 import io.micronaut.websocket.WebSocketSession;
+import io.micronaut.websocket.annotation.OnClose;
 import io.micronaut.websocket.annotation.OnMessage;
 import io.micronaut.websocket.annotation.ServerWebSocket;
+import java.io.IOException;
+import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Receives {@link UserMessage}s and {@link CancelMessage}s, told apart by their {@code
+ * message_type}. Closing the socket cancels the queries of the session and, unless {@code
+ * remo.chat.supersede-previous} is off, a new question cancels the previous one.
+ *
  * @author nacho
  */
 @ServerWebSocket("/ws/events")
@@ -36,11 +50,22 @@ public class FrontendEventsServerWebSocket {
   private static final Logger LOG = LoggerFactory.getLogger(FrontendEventsServerWebSocket.class);
 
   private final WebSocketBroadcaster broadcaster;
-  private final RagService ragService;
+  private final InferenceScheduler inferenceScheduler;
+  private final TokenCoalescer tokenCoalescer;
+  private final JsonMapper jsonMapper;
+  private final boolean supersede;
 
-  public FrontendEventsServerWebSocket(WebSocketBroadcaster broadcaster, RagService ragService) {
+  public FrontendEventsServerWebSocket(
+      WebSocketBroadcaster broadcaster,
+      InferenceScheduler inferenceScheduler,
+      TokenCoalescer tokenCoalescer,
+      JsonMapper jsonMapper,
+      @Property(name = "remo.chat.supersede-previous", defaultValue = "true") boolean supersede) {
     this.broadcaster = broadcaster;
-    this.ragService = ragService;
+    this.inferenceScheduler = inferenceScheduler;
+    this.tokenCoalescer = tokenCoalescer;
+    this.jsonMapper = jsonMapper;
+    this.supersede = supersede;
   }
 
   //  @OnOpen
@@ -51,17 +76,45 @@ public class FrontendEventsServerWebSocket {
   //  }
 
   @OnMessage
-  public void onMessage(UserMessage userMessage, WebSocketSession session) {
-    log("onMessage: %s".formatted(userMessage), session);
-    queryRagService(session, userMessage);
+  public void onMessage(String message, WebSocketSession session) {
+    try {
+      var json = jsonMapper.readValue(message, JsonNode.class);
+      var type = json.get("message_type");
+      if (type != null && type.isString() && CancelMessage.TYPE.equals(type.getStringValue())) {
+        var cancel = jsonMapper.readValueFromTree(json, CancelMessage.class);
+        log("onCancel: %s".formatted(cancel), session);
+        inferenceScheduler.cancel(session.getId(), UUID.fromString(cancel.queryId()));
+        return;
+      }
+      var userMessage = jsonMapper.readValueFromTree(json, UserMessage.class);
+      log("onMessage: %s".formatted(userMessage), session);
+      if (supersede) {
+        inferenceScheduler.cancelSession(session.getId());
+      }
+      queryRagService(session, userMessage);
+    } catch (IOException | IllegalArgumentException e) {
+      LOG.warn("Ignoring malformed message for session {}: {}", session.getId(), e.getMessage());
+    }
+  }
+
+  @OnClose
+  public void onClose(WebSocketSession session) {
+    log("onClose", session);
+    inferenceScheduler.cancelSession(session.getId());
   }
 
   private void queryRagService(WebSocketSession session, UserMessage userMessage) {
-    ragService.chat(
-        RagQuery.of(userMessage.queryId(), userMessage.message()),
-        tokens -> {
-          session.sendAsync(ResponseTokens.of(tokens));
-        });
+    var query = RagQuery.of(userMessage.queryId(), userMessage.message(), userMessage.filters());
+    var accepted =
+        inferenceScheduler.submit(
+            session.getId(),
+            query,
+            tokenCoalescer.coalesce(tokens -> session.sendAsync(ResponseTokens.of(tokens))),
+            position -> session.sendAsync(QueueStatus.of(position)));
+    if (!accepted) {
+      session.sendAsync(QueueStatus.rejected(query.uuid()));
+      session.sendAsync(ResponseTokens.of(RagTokens.completeResponse(query.uuid())));
+    }
   }
 
   private void log(String event, WebSocketSession session) {
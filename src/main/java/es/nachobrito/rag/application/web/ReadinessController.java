@@ -0,0 +1,48 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.application.web;
+
+import es.nachobrito.rag.application.health.Readiness;
+import es.nachobrito.rag.application.web.model.ReadinessStatus;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Get;
+
+/**
+ * Readiness probe for load balancers: 200 once warm-up has finished, 503 before that or if it
+ * failed.
+ *
+ * @author nacho
+ */
+@Controller("/health")
+public class ReadinessController {
+  private final Readiness readiness;
+
+  public ReadinessController(Readiness readiness) {
+    this.readiness = readiness;
+  }
+
+  @Get("/readiness")
+  HttpResponse<ReadinessStatus> readiness() {
+    var status = readiness.status();
+    var body = new ReadinessStatus(status.name(), readiness.details());
+    return status == Readiness.Status.UP
+        ? HttpResponse.ok(body)
+        : HttpResponse.<ReadinessStatus>status(HttpStatus.SERVICE_UNAVAILABLE).body(body);
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.application.web.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import es.nachobrito.rag.application.chat.QueuePosition;
+import io.micronaut.core.annotation.Nullable;
+import io.micronaut.serde.annotation.Serdeable;
+import java.util.UUID;
+
+/**
+ * Tells the client that its query is waiting for a free generation slot, or that it was rejected
+ * because too many queries are waiting.
+ *
+ * @author nacho
+ */
+@Serdeable
+public record QueueStatus(
+    @JsonProperty("queryId") UUID queryUuid,
+    @JsonProperty("position") int position,
+    @JsonProperty("etaSeconds") @Nullable Long etaSeconds,
+    @JsonProperty("rejected") boolean rejected)
+    implements Message {
+  public static QueueStatus of(QueuePosition position) {
+    var eta = position.eta() == null ? null : Math.max(1, position.eta().toSeconds());
+    return new QueueStatus(position.queryUuid(), position.position(), eta, false);
+  }
+
+  public static QueueStatus rejected(UUID queryUuid) {
+    return new QueueStatus(queryUuid, -1, null, true);
+  }
+}
@@ -17,7 +17,9 @@
 package es.nachobrito.rag.application.web.model;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.micronaut.core.annotation.Nullable;
 import io.micronaut.serde.annotation.Serdeable;
+import java.util.Map;
 
 /**
  * @author nacho
@@ -26,4 +28,5 @@ import io.micronaut.serde.annotation.Serdeable;
 public record UserMessage(
     @JsonProperty("queryId") String queryId,
     @JsonProperty("message") String message,
-    long timestamp) {}
+    long timestamp,
+    @JsonProperty("filters") @Nullable Map<String, String> filters) {}
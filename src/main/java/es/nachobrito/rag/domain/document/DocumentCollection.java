@@ -23,4 +23,9 @@ import java.util.stream.Stream;
  */
 public interface DocumentCollection {
   Stream<Document> stream();
+
+  /** A stream that may be consumed in parallel, for collections that can split their source. */
+  default Stream<Document> parallelStream() {
+    return stream();
+  }
 }
@@ -27,4 +27,8 @@ public class DocumentLoadException extends RuntimeException {
   public DocumentLoadException(String message) {
     super(message);
   }
+
+  public DocumentLoadException(String message, Exception exception) {
+    super(message, exception);
+  }
 }
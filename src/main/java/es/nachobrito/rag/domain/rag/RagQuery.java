@@ -16,17 +16,33 @@
 
 package es.nachobrito.rag.domain.rag;
 
+import java.util.Map;
 import java.util.UUID;
 
 /**
+ * A question for the {@link RagService}. {@code filters} restricts retrieval to the documents whose
+ * metadata has the given value for every key, e.g. {@code crop=wheat}.
+ *
  * @author nacho
  */
-public record RagQuery(UUID uuid, String text) {
+public record RagQuery(UUID uuid, String text, Map<String, String> filters) {
+
+  public RagQuery {
+    filters = filters == null ? Map.of() : Map.copyOf(filters);
+  }
+
+  public RagQuery(UUID uuid, String text) {
+    this(uuid, text, Map.of());
+  }
 
   public static RagQuery of(String uuid, String text) {
     return new RagQuery(UUID.fromString(uuid), text);
   }
 
+  public static RagQuery of(String uuid, String text, Map<String, String> filters) {
+    return new RagQuery(UUID.fromString(uuid), text, filters);
+  }
+
   public static RagQuery of(String text) {
     return new RagQuery(UUID.randomUUID(), text);
   }
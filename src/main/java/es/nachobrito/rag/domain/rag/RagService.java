@@ -28,8 +28,18 @@ public interface RagService {
 
   void chat(RagQuery query, Consumer<RagTokens> ragTokensConsumer);
 
-  default void ingest(DocumentCollection documentCollection) {
-    documentCollection.stream().forEach(this::ingest);
+  default IngestionReport ingest(DocumentCollection documentCollection) {
+    try (var documents = documentCollection.stream()) {
+      var count =
+          documents
+              .mapToLong(
+                  document -> {
+                    ingest(document);
+                    return 1;
+                  })
+              .sum();
+      return new IngestionReport(count, 0, 0);
+    }
   }
 
   void serialize();
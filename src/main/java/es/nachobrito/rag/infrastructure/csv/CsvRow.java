@@ -0,0 +1,73 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.csv;
+
+import es.nachobrito.rag.domain.document.DocumentLoadException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * One record of a {@link MappedCsvDocumentCollection}, as byte ranges into the mapped file. A
+ * column is only decoded to a {@link String} when it is asked for, and the instance is reused for
+ * every record a spliterator reads, so unused columns cost no allocation.
+ *
+ * @author nacho
+ */
+public final class CsvRow {
+  private final MemorySegment data;
+  private long[] starts = new long[8];
+  private long[] ends = new long[8];
+  private boolean[] escaped = new boolean[8];
+  private int size;
+
+  CsvRow(MemorySegment data) {
+    this.data = data;
+  }
+
+  /** Number of columns in the record. */
+  public int size() {
+    return size;
+  }
+
+  /** The unquoted, unescaped value of a column. */
+  public String get(int column) {
+    if (column >= size) {
+      throw new DocumentLoadException("Invalid number of columns in CSV file!");
+    }
+    var bytes = data.asSlice(starts[column], ends[column] - starts[column]);
+    var value = new String(bytes.toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    return escaped[column] ? value.replace("\"\"", "\"") : value;
+  }
+
+  void clear() {
+    size = 0;
+  }
+
+  void add(long start, long end, boolean escapedQuotes) {
+    if (size == starts.length) {
+      starts = Arrays.copyOf(starts, size * 2);
+      ends = Arrays.copyOf(ends, size * 2);
+      escaped = Arrays.copyOf(escaped, size * 2);
+    }
+    starts[size] = start;
+    ends[size] = end;
+    escaped[size] = escapedQuotes;
+    size++;
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.csv;
+
+import es.nachobrito.rag.domain.document.Document;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Parses the records of a byte range of a mapped CSV file (RFC 4180: comma separated, fields
+ * optionally quoted, quotes escaped by doubling them, quoted fields may span lines).
+ *
+ * <p>A range always starts at a record boundary, so the parity of the quotes seen since its start
+ * tells whether a position is inside a quoted field. {@link #trySplit()} uses that to cut the range
+ * at the first line break past its middle that is not inside quotes.
+ *
+ * @author nacho
+ */
+class CsvSpliterator implements Spliterator<Document> {
+  private static final byte QUOTE = '"';
+  private static final byte COMMA = ',';
+  private static final byte LF = '\n';
+  private static final byte CR = '\r';
+
+  private final MemorySegment data;
+  private final Function<CsvRow, Document> mapper;
+  private final long minSplitSize;
+  private final CsvRow row;
+  private long position;
+  private final long end;
+
+  CsvSpliterator(
+      MemorySegment data,
+      long position,
+      long end,
+      Function<CsvRow, Document> mapper,
+      long minSplitSize) {
+    this.data = data;
+    this.position = position;
+    this.end = end;
+    this.mapper = mapper;
+    this.minSplitSize = minSplitSize;
+    this.row = new CsvRow(data);
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super Document> action) {
+    while (position < end) {
+      position = read(data, position, end, row);
+      if (row.size() > 0) {
+        action.accept(mapper.apply(row));
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Spliterator<Document> trySplit() {
+    if (end - position < minSplitSize) {
+      return null;
+    }
+    var middle = position + (end - position) / 2;
+    var inQuotes = false;
+    for (long i = position; i < middle; i++) {
+      if (byteAt(i) == QUOTE) {
+        inQuotes = !inQuotes;
+      }
+    }
+    for (long i = middle; i < end; i++) {
+      var b = byteAt(i);
+      if (b == QUOTE) {
+        inQuotes = !inQuotes;
+      } else if (b == LF && !inQuotes) {
+        if (i + 1 >= end) {
+          return null;
+        }
+        var prefix = new CsvSpliterator(data, position, i + 1, mapper, minSplitSize);
+        position = i + 1;
+        return prefix;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public long estimateSize() {
+    return end - position;
+  }
+
+  @Override
+  public int characteristics() {
+    return ORDERED | NONNULL | IMMUTABLE;
+  }
+
+  private byte byteAt(long offset) {
+    return data.get(ValueLayout.JAVA_BYTE, offset);
+  }
+
+  /**
+   * Reads the record that starts at {@code position} into {@code row}; an empty line leaves it with
+   * no columns.
+   *
+   * @return where the next record starts
+   */
+  static long read(MemorySegment data, long position, long end, CsvRow row) {
+    row.clear();
+    var i = position;
+    if (i < end && isLineEnd(data, i, end)) {
+      return skipLineEnd(data, i, end);
+    }
+    while (true) {
+      if (i < end && data.get(ValueLayout.JAVA_BYTE, i) == QUOTE) {
+        var start = ++i;
+        var escaped = false;
+        while (i < end) {
+          var b = data.get(ValueLayout.JAVA_BYTE, i);
+          if (b == QUOTE) {
+            if (i + 1 < end && data.get(ValueLayout.JAVA_BYTE, i + 1) == QUOTE) {
+              escaped = true;
+              i += 2;
+              continue;
+            }
+            break;
+          }
+          i++;
+        }
+        row.add(start, i, escaped);
+        // skip the closing quote and anything up to the separator
+        while (i < end && data.get(ValueLayout.JAVA_BYTE, i) != COMMA && !isLineEnd(data, i, end)) {
+          i++;
+        }
+      } else {
+        var start = i;
+        while (i < end && data.get(ValueLayout.JAVA_BYTE, i) != COMMA && !isLineEnd(data, i, end)) {
+          i++;
+        }
+        row.add(start, i, false);
+      }
+      if (i >= end) {
+        return end;
+      }
+      if (data.get(ValueLayout.JAVA_BYTE, i) == COMMA) {
+        i++;
+      } else {
+        return skipLineEnd(data, i, end);
+      }
+    }
+  }
+
+  private static boolean isLineEnd(MemorySegment data, long i, long end) {
+    var b = data.get(ValueLayout.JAVA_BYTE, i);
+    return b == LF || (b == CR && (i + 1 >= end || data.get(ValueLayout.JAVA_BYTE, i + 1) == LF));
+  }
+
+  private static long skipLineEnd(MemorySegment data, long i, long end) {
+    return data.get(ValueLayout.JAVA_BYTE, i) == CR ? Math.min(i + 2, end) : i + 1;
+  }
+}
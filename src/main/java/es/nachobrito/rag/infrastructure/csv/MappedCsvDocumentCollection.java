@@ -0,0 +1,164 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.csv;
+
+import es.nachobrito.rag.domain.document.Document;
+import es.nachobrito.rag.domain.document.DocumentCollection;
+import es.nachobrito.rag.domain.document.DocumentLoadException;
+import es.nachobrito.rag.domain.document.StringDocument;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A CSV file read through a memory mapping, one document per record after the header.
+ *
+ * <p>Its stream splits the file at record boundaries (line breaks inside quoted fields are not
+ * boundaries), so {@link #parallelStream()} parses it on every core. Each record is handed to the
+ * mapper as a reusable {@link CsvRow} that only decodes the columns the mapper reads.
+ *
+ * <p>A mapped file must not be truncated or rewritten in place while a stream reads it: the pages
+ * that are gone make the JVM fail with an {@code InternalError}, or crash. {@link #copying()} reads
+ * files that may change, such as a watched data file, into memory with plain channel reads instead.
+ *
+ * @author nacho
+ */
+public class MappedCsvDocumentCollection implements DocumentCollection {
+  static final long MIN_SPLIT_SIZE = 1 << 16;
+  private static final long READ_CHUNK_SIZE = 1 << 24;
+
+  private final Path file;
+  private final Function<CsvRow, Document> mapper;
+  private final int maxDocuments;
+  private final long minSplitSize;
+  private final boolean copy;
+
+  public MappedCsvDocumentCollection(
+      Path file, Function<CsvRow, Document> mapper, int maxDocuments) {
+    this(file, mapper, maxDocuments, MIN_SPLIT_SIZE);
+  }
+
+  MappedCsvDocumentCollection(
+      Path file, Function<CsvRow, Document> mapper, int maxDocuments, long minSplitSize) {
+    this(file, mapper, maxDocuments, minSplitSize, false);
+  }
+
+  private MappedCsvDocumentCollection(
+      Path file,
+      Function<CsvRow, Document> mapper,
+      int maxDocuments,
+      long minSplitSize,
+      boolean copy) {
+    this.file = file;
+    this.mapper = mapper;
+    this.maxDocuments = maxDocuments;
+    this.minSplitSize = minSplitSize;
+    this.copy = copy;
+  }
+
+  /**
+   * The same collection, reading a copy of the file on every stream instead of mapping it, so the
+   * file can be rewritten while it is read. A copy taken in the middle of a rewrite may mix both
+   * versions; a watcher that reloads the file once the writes stop reads it again anyway.
+   */
+  public MappedCsvDocumentCollection copying() {
+    return new MappedCsvDocumentCollection(file, mapper, maxDocuments, minSplitSize, true);
+  }
+
+  /** Question and answer columns, like {@code CSVFaqDocumentCollection}. */
+  public static MappedCsvDocumentCollection faq(Path file, int questionColumn, int answerColumn) {
+    return new MappedCsvDocumentCollection(
+        file,
+        row -> {
+          var question = row.get(questionColumn);
+          return new StringDocument(question, question, Map.of("answer", row.get(answerColumn)));
+        },
+        -1);
+  }
+
+  /** Id and text columns, like {@code CSVDocumentCollection}. */
+  public static MappedCsvDocumentCollection documents(Path file, int idColumn, int textColumn) {
+    return new MappedCsvDocumentCollection(
+        file, row -> new StringDocument(row.get(idColumn), row.get(textColumn)), -1);
+  }
+
+  @Override
+  public Stream<Document> stream() {
+    var data = copy ? read() : map();
+    var start = skipBom(data);
+    if (start >= data.byteSize()) {
+      throw new DocumentLoadException("Document is empty!");
+    }
+    // discard first row
+    start = CsvSpliterator.read(data, start, data.byteSize(), new CsvRow(data));
+    var spliterator = new CsvSpliterator(data, start, data.byteSize(), mapper, minSplitSize);
+    var stream = StreamSupport.stream(spliterator, false);
+    return maxDocuments > 0 ? stream.limit(maxDocuments) : stream;
+  }
+
+  @Override
+  public Stream<Document> parallelStream() {
+    return stream().parallel();
+  }
+
+  /** The mapping is released when the last spliterator over it becomes unreachable. */
+  private MemorySegment map() {
+    try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto());
+    } catch (IOException e) {
+      throw new DocumentLoadException(e);
+    }
+  }
+
+  /** Reads the file off-heap through the channel; released when it becomes unreachable. */
+  private MemorySegment read() {
+    try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      var data = Arena.ofAuto().allocate(channel.size());
+      var position = 0L;
+      while (position < data.byteSize()) {
+        var chunk = data.asSlice(position, Math.min(data.byteSize() - position, READ_CHUNK_SIZE));
+        var read = channel.read(chunk.asByteBuffer());
+        if (read < 0) {
+          // truncated since we asked for its size
+          break;
+        }
+        position += read;
+      }
+      return data.asSlice(0, position);
+    } catch (IOException e) {
+      throw new DocumentLoadException(e);
+    }
+  }
+
+  private static long skipBom(MemorySegment data) {
+    if (data.byteSize() >= 3
+        && data.get(ValueLayout.JAVA_BYTE, 0) == (byte) 0xEF
+        && data.get(ValueLayout.JAVA_BYTE, 1) == (byte) 0xBB
+        && data.get(ValueLayout.JAVA_BYTE, 2) == (byte) 0xBF) {
+      return 3;
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.filesystem;
+
+import es.nachobrito.rag.domain.document.Document;
+import es.nachobrito.rag.domain.document.DocumentCollection;
+import es.nachobrito.rag.domain.document.DocumentLoadException;
+import es.nachobrito.rag.domain.document.StringDocument;
+import es.nachobrito.rag.infrastructure.csv.MappedCsvDocumentCollection;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Every text, markdown and CSV file under a directory, read concurrently on virtual threads.
+ *
+ * <p>A text or markdown file is one document, identified by its path relative to the root. Every
+ * record of a CSV file is one document, read by {@code csvReader} and identified by the relative
+ * path and the record id. All of them carry the relative path and the last modification time of
+ * their file as metadata.
+ *
+ * <p>At most {@code concurrency} files are read at a time. Documents are streamed as soon as they
+ * are read, in no particular order, through a bounded queue: a slow consumer blocks the readers
+ * instead of the whole directory being buffered in memory. Closing the stream stops the readers.
+ *
+ * @author nacho
+ */
+public class DirectoryDocumentCollection implements DocumentCollection {
+  public static final String PATH = "path";
+  public static final String MODIFIED = "modified";
+  static final int QUEUE_CAPACITY = 1024;
+  private static final Set<String> TEXT_EXTENSIONS = Set.of("txt", "md", "markdown");
+
+  private final Path root;
+  private final int concurrency;
+  private final Function<Path, DocumentCollection> csvReader;
+  private final int queueCapacity;
+
+  public DirectoryDocumentCollection(
+      Path root, int concurrency, Function<Path, DocumentCollection> csvReader) {
+    this(root, concurrency, csvReader, QUEUE_CAPACITY);
+  }
+
+  DirectoryDocumentCollection(
+      Path root, int concurrency, Function<Path, DocumentCollection> csvReader, int queueCapacity) {
+    if (concurrency < 1 || queueCapacity < 1) {
+      throw new IllegalArgumentException("concurrency and queue capacity must be positive");
+    }
+    this.root = root;
+    this.concurrency = concurrency;
+    this.csvReader = csvReader;
+    this.queueCapacity = queueCapacity;
+  }
+
+  /** CSV files with question and answer columns, like the default data file. */
+  public static DirectoryDocumentCollection faq(Path root, int concurrency) {
+    return new DirectoryDocumentCollection(
+        root, concurrency, file -> MappedCsvDocumentCollection.faq(file, 0, 1));
+  }
+
+  @Override
+  public Stream<Document> stream() {
+    if (!Files.isDirectory(root)) {
+      throw new DocumentLoadException("%s is not a directory".formatted(root));
+    }
+    BlockingQueue<Item> queue = new ArrayBlockingQueue<>(queueCapacity);
+    var walker = Thread.ofVirtual().name("document-walker").start(() -> walk(queue));
+    return StreamSupport.stream(new QueueSpliterator(queue), false).onClose(walker::interrupt);
+  }
+
+  /** Submits a reader per file, then waits for all of them and marks the end of the stream. */
+  private void walk(BlockingQueue<Item> queue) {
+    var permits = new Semaphore(concurrency);
+    try {
+      try (var executor = Executors.newVirtualThreadPerTaskExecutor();
+          var files = Files.walk(root)) {
+        var iterator = files.filter(DirectoryDocumentCollection::isSupported).iterator();
+        while (iterator.hasNext()) {
+          var file = iterator.next();
+          permits.acquire();
+          executor.execute(
+              () -> {
+                try {
+                  read(file, queue);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                } catch (IOException | RuntimeException e) {
+                  fail(queue, e, file);
+                } finally {
+                  permits.release();
+                }
+              });
+        }
+      }
+      queue.put(Item.END);
+    } catch (InterruptedException e) {
+      // the stream was closed
+    } catch (IOException | UncheckedIOException e) {
+      fail(queue, e, root);
+    }
+  }
+
+  private void read(Path file, BlockingQueue<Item> queue) throws IOException, InterruptedException {
+    var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    var path = root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+    var fileMetadata =
+        Map.of(PATH, path, MODIFIED, attributes.lastModifiedTime().toInstant().toString());
+    if (!extension(file).equals("csv")) {
+      queue.put(Item.of(new StringDocument(path, Files.readString(file), fileMetadata)));
+      return;
+    }
+    try (var records = csvReader.apply(file).stream()) {
+      var iterator = records.iterator();
+      while (iterator.hasNext()) {
+        var record = iterator.next();
+        var metadata = new HashMap<>(record.getMetadata());
+        metadata.putAll(fileMetadata);
+        queue.put(
+            Item.of(
+                new StringDocument(
+                    path + "#" + record.getId(), record.getTextContent(), Map.copyOf(metadata))));
+      }
+    }
+  }
+
+  private static void fail(BlockingQueue<Item> queue, Exception error, Path file) {
+    var failure = new DocumentLoadException("Could not read %s".formatted(file), error);
+    try {
+      queue.put(new Item(null, failure));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static boolean isSupported(Path file) {
+    var extension = extension(file);
+    return Files.isRegularFile(file)
+        && (extension.equals("csv") || TEXT_EXTENSIONS.contains(extension));
+  }
+
+  private static String extension(Path file) {
+    var name = file.getFileName().toString();
+    var dot = name.lastIndexOf('.');
+    return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+  }
+
+  /** Queue element: a document, the failure of a reader, or the end of the stream. */
+  private record Item(Document document, DocumentLoadException failure) {
+    static final Item END = new Item(null, null);
+
+    static Item of(Document document) {
+      return new Item(document, null);
+    }
+  }
+
+  private static final class QueueSpliterator extends Spliterators.AbstractSpliterator<Document> {
+    private final BlockingQueue<Item> queue;
+    private boolean finished;
+
+    QueueSpliterator(BlockingQueue<Item> queue) {
+      super(Long.MAX_VALUE, Spliterator.NONNULL);
+      this.queue = queue;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Document> action) {
+      if (finished) {
+        return false;
+      }
+      Item item;
+      try {
+        item = queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new DocumentLoadException(e);
+      }
+      if (item.failure() != null) {
+        finished = true;
+        throw item.failure();
+      }
+      if (item == Item.END) {
+        finished = true;
+        return false;
+      }
+      action.accept(item.document());
+      return true;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.jlama;
+
+/**
+ * A language model seen one token at a time, so the {@link LocalChatModel} can stop a generation
+ * between tokens. Safe to start sequences from several threads at once; each sequence is only used
+ * by the thread that started it.
+ *
+ * @author nacho
+ */
+interface Decoder extends AutoCloseable {
+
+  /**
+   * Processes the prompt and returns a sequence positioned after it.
+   *
+   * @param sharedPrefix length of the start of the prompt that other prompts may share, such as a
+   *     template preamble and its context; the rest is specific to this prompt
+   */
+  Sequence start(String prompt, int sharedPrefix);
+
+  /** Number of tokens the text is encoded into. */
+  int countTokens(String text);
+
+  @Override
+  void close();
+
+  /** One generation in progress; owns its share of the model's KV cache until closed. */
+  interface Sequence extends AutoCloseable {
+
+    /**
+     * Decodes the next token.
+     *
+     * @return its text, empty for special tokens, or {@code null} once the sequence has ended
+     */
+    String next();
+
+    @Override
+    void close();
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.jlama;
+
+import com.github.tjake.jlama.model.AbstractModel;
+import com.github.tjake.jlama.model.ModelSupport;
+import com.github.tjake.jlama.safetensors.DType;
+import com.github.tjake.jlama.safetensors.SafeTensorSupport;
+import com.github.tjake.jlama.safetensors.prompt.PromptContext;
+import com.github.tjake.jlama.tensor.AbstractTensor;
+import com.github.tjake.jlama.tensor.KvBufferCache;
+import com.github.tjake.jlama.tensor.TensorShape;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link Decoder} over a local Jlama model. It reproduces the decode loop of {@code
+ * AbstractModel.generate} one step at a time, with a KV buffer per sequence.
+ *
+ * <p>The attention keys and values computed for the shared part of a prompt (the template preamble
+ * and the context, but not the question) are kept in a {@link PrefixCache}: a later prompt that
+ * starts with the same tokens copies them into its own KV buffer and only runs the rest of the
+ * prompt through the model.
+ *
+ * @author nacho
+ */
+final class JlamaDecoder implements Decoder {
+  private static final Logger log = LoggerFactory.getLogger(JlamaDecoder.class);
+  // the same cache langchain4j-jlama downloads to, so both find the model already there
+  private static final Path MODEL_CACHE =
+      Path.of(System.getProperty("user.home", ""), ".jlama", "models");
+
+  private final AbstractModel model;
+  private final KvBufferCache kvBufferCache;
+  private final float temperature;
+  private final PrefixCache<KvSnapshot> prefixCache;
+  private final int layers;
+
+  private JlamaDecoder(AbstractModel model, float temperature, int blockSize, long maxCacheBytes) {
+    this.model = model;
+    this.kvBufferCache = new KvBufferCache(model);
+    this.temperature = temperature;
+    this.prefixCache = new PrefixCache<>(blockSize, maxCacheBytes, KvSnapshot::close);
+    var dctx = model.getConfig().dctx();
+    this.layers = dctx.layerEnd - dctx.layerStart;
+  }
+
+  /**
+   * Downloads the model if it is not cached yet, and loads it.
+   *
+   * @param blockSize granularity, in tokens, of the cached prompt prefixes
+   * @param maxCacheBytes memory for cached prefixes; 0 disables the cache
+   */
+  static JlamaDecoder load(String modelName, float temperature, int blockSize, long maxCacheBytes) {
+    try {
+      var directory = SafeTensorSupport.maybeDownloadModel(MODEL_CACHE.toString(), modelName);
+      return new JlamaDecoder(
+          ModelSupport.loadModel(directory, DType.F32, DType.I8),
+          temperature,
+          blockSize,
+          maxCacheBytes);
+    } catch (IOException e) {
+      throw new GenerationException("Could not load model " + modelName, e);
+    }
+  }
+
+  @Override
+  public Sequence start(String prompt, int sharedPrefix) {
+    var config = model.getConfig();
+    var rendered =
+        model
+            .promptSupport()
+            .map(support -> support.builder().addUserMessage(prompt).build())
+            .orElseGet(() -> PromptContext.of(prompt))
+            .getPrompt();
+    var tokens = encode(rendered);
+    if (tokens.length >= config.contextLength) {
+      throw new GenerationException(
+          "Prompt of %d tokens does not fit a context of %d"
+              .formatted(tokens.length, config.contextLength));
+    }
+
+    // not getKvBuffer(id): that keeps every buffer in the cache's map, and closing it does not
+    // remove it
+    var kvBuffer = kvBufferCache.getEphemeralKvBuffer();
+    // scratch space for sampling
+    var logits = model.makeDenseTensor(config.vocabularySize);
+    try {
+      // at least one token has to go through the model to sample from its output
+      var reused =
+          prefixCache.read(
+              tokens, tokens.length - 1, (state, length) -> state.restore(kvBuffer, length));
+      kvBuffer.setCurrentContextPosition(reused);
+      var output =
+          model.batchForward(Arrays.copyOfRange(tokens, reused, tokens.length), reused, kvBuffer);
+      var first = sample(output.slice(output.shape().first() - 1), logits);
+      output.close();
+
+      var shared =
+          Math.min(sharedTokens(rendered, prompt, sharedPrefix, tokens), tokens.length - 1);
+      var cacheable = prefixCache.cacheableLength(shared);
+      if (cacheable > reused) {
+        var snapshot = KvSnapshot.of(kvBuffer, layers, cacheable);
+        prefixCache.put(tokens, cacheable, snapshot.bytes(), snapshot);
+      }
+      log.debug(
+          "Prefilled {} of {} prompt tokens; prefix cache: {} entries, {} bytes, hit rate {}",
+          tokens.length - reused,
+          tokens.length,
+          prefixCache.size(),
+          prefixCache.bytes(),
+          "%.2f".formatted(prefixCache.hitRate()));
+      return new JlamaSequence(kvBuffer, logits, first, tokens.length);
+    } catch (RuntimeException e) {
+      logits.close();
+      kvBuffer.close();
+      throw e;
+    }
+  }
+
+  /** The tokens of a rendered prompt, starting with a single BOS token. */
+  private int[] encode(String text) {
+    var bos = model.getConfig().bosToken;
+    var encoded = model.getTokenizer().encode(text);
+    var skip = encoded.length > 0 && encoded[0] == bos ? 1 : 0;
+    var tokens = new int[encoded.length - skip + 1];
+    tokens[0] = bos;
+    for (int i = skip; i < encoded.length; i++) {
+      tokens[i - skip + 1] = Math.toIntExact(encoded[i]);
+    }
+    return tokens;
+  }
+
+  /**
+   * Number of leading prompt tokens that only cover the chat template and the first {@code
+   * sharedPrefix} characters of the user message. The shared text is encoded on its own, and only
+   * the tokens it has in common with the whole prompt count, since the last one may merge with the
+   * text after it.
+   */
+  private int sharedTokens(String rendered, String prompt, int sharedPrefix, int[] tokens) {
+    var start = rendered.indexOf(prompt);
+    if (sharedPrefix <= 0 || start < 0) {
+      return 0;
+    }
+    var prefix = encode(rendered.substring(0, start + Math.min(sharedPrefix, prompt.length())));
+    var length = 0;
+    while (length < prefix.length && length < tokens.length && prefix[length] == tokens[length]) {
+      length++;
+    }
+    return length;
+  }
+
+  @Override
+  public int countTokens(String text) {
+    return model.getTokenizer().encode(text).length;
+  }
+
+  private int sample(AbstractTensor output, AbstractTensor logits) {
+    return model.sample(output, temperature, ThreadLocalRandom.current().nextFloat(), logits);
+  }
+
+  @Override
+  public void close() {
+    prefixCache.clear();
+    kvBufferCache.close();
+    model.close();
+  }
+
+  private final class JlamaSequence implements Sequence {
+    private final KvBufferCache.KvBuffer kvBuffer;
+    private final AbstractTensor logits;
+    private int token;
+    private int position;
+    private boolean started;
+
+    private JlamaSequence(
+        KvBufferCache.KvBuffer kvBuffer, AbstractTensor logits, int token, int position) {
+      this.kvBuffer = kvBuffer;
+      this.logits = logits;
+      this.token = token;
+      this.position = position;
+    }
+
+    @Override
+    public String next() {
+      // the first token was sampled from the prompt
+      if (started) {
+        if (position >= model.getConfig().contextLength) {
+          return null;
+        }
+        var output = model.forward(token, position, kvBuffer, Optional.empty());
+        token = sample(output, logits);
+        output.close();
+        kvBuffer.incrementContextPosition();
+        position++;
+      }
+      started = true;
+      if (model.getConfig().eosTokens.contains(token)) {
+        return null;
+      }
+      var tokenizer = model.getTokenizer();
+      return tokenizer.getModel().isSpecialToken(token) ? "" : tokenizer.decode(token);
+    }
+
+    @Override
+    public void close() {
+      logits.close();
+      kvBuffer.close();
+    }
+  }
+
+  /** Copy of the keys and values of the first positions of a KV buffer, one row per position. */
+  private record KvSnapshot(AbstractTensor keys, AbstractTensor values, int layers, int length) {
+
+    static KvSnapshot of(KvBufferCache.KvBuffer source, int layers, int length) {
+      var row = (int) source.getKeyTensorForPosition(0, 0).size();
+      var dType = source.getKeyTensorForPosition(0, 0).dType();
+      var shape = TensorShape.of(layers * length * row);
+      var snapshot =
+          new KvSnapshot(
+              AbstractTensor.make(dType, shape), AbstractTensor.make(dType, shape), layers, length);
+      for (int layer = 0; layer < layers; layer++) {
+        for (int position = 0; position < length; position++) {
+          var offset = (layer * length + position) * row;
+          snapshot.keys.copyFrom(source.getKeyTensorForPosition(layer, position), 0, offset, row);
+          snapshot.values.copyFrom(source.getValTensorForPosition(layer, position), 0, offset, row);
+        }
+      }
+      return snapshot;
+    }
+
+    /** Copies the first {@code count} positions, which may be fewer than the snapshot holds. */
+    void restore(KvBufferCache.KvBuffer target, int count) {
+      var row = (int) (keys.size() / ((long) layers * length));
+      for (int layer = 0; layer < layers; layer++) {
+        for (int position = 0; position < count; position++) {
+          var offset = (layer * length + position) * row;
+          target.getKeyTensorForPosition(layer, position).copyFrom(keys, offset, 0, row);
+          target.getValTensorForPosition(layer, position).copyFrom(values, offset, 0, row);
+        }
+      }
+    }
+
+    long bytes() {
+      return 2 * keys.size() * keys.dType().size();
+    }
+
+    void close() {
+      keys.close();
+      values.close();
+    }
+  }
+}
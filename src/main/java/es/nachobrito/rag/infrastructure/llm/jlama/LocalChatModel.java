@@ -0,0 +1,189 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.jlama;
+
+import io.micronaut.context.annotation.Property;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The local chat model. Every generation decodes on the thread that asks for it, with a KV buffer
+ * of its own, so several of them can run at once on the same loaded model; how many is up to the
+ * {@code InferenceScheduler} in front of the RAG service, which queues the rest fairly between
+ * sessions.
+ *
+ * @author nacho
+ */
+@Singleton
+public class LocalChatModel implements AutoCloseable {
+  private static final Logger log = LoggerFactory.getLogger(LocalChatModel.class);
+  private static final String CHAT_MODEL = "tjake/Llama-3.2-1B-Instruct-JQ4";
+  private static final int WARM_UP_TOKENS = 8;
+
+  private final Supplier<Decoder> decoderFactory;
+  private final int maxTokens;
+  // shared by running generations for their whole length; close() takes it exclusively
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private boolean closed;
+
+  // loaded on first use, by a generation or by countTokens()
+  private volatile Decoder decoder;
+  private final LongAdder generatedTokens = new LongAdder();
+  private final LongAdder busyNanos = new LongAdder();
+
+  public LocalChatModel(
+      @Property(name = "remo.generation.temperature", defaultValue = "0.2") float temperature,
+      @Property(name = "remo.generation.max-tokens", defaultValue = "1024") int maxTokens,
+      @Property(name = "remo.generation.prefix-cache.block-size", defaultValue = "16")
+          int prefixBlockSize,
+      @Property(name = "remo.generation.prefix-cache.max-mb", defaultValue = "256")
+          int prefixCacheMb) {
+    this(
+        () ->
+            JlamaDecoder.load(CHAT_MODEL, temperature, prefixBlockSize, prefixCacheMb * (1L << 20)),
+        maxTokens);
+  }
+
+  LocalChatModel(Supplier<Decoder> decoderFactory, int maxTokens) {
+    if (maxTokens < 1) {
+      throw new IllegalArgumentException("max tokens must be positive");
+    }
+    this.decoderFactory = decoderFactory;
+    this.maxTokens = maxTokens;
+  }
+
+  /**
+   * Generates a response, streaming its tokens, and returns it once it ends.
+   *
+   * @param tokens receives the text of every generated token, from the calling thread
+   * @throws GenerationCancelledException if the calling thread is interrupted, which stops the
+   *     generation before its next token; the interrupt flag stays set
+   */
+  public String generate(String prompt, Consumer<String> tokens) {
+    return generate(prompt, 0, maxTokens, tokens);
+  }
+
+  /**
+   * Generates a response as {@link #generate(String, Consumer)}, and keeps the attention state of
+   * the first {@code sharedPrefix} characters of the prompt for later prompts that start the same.
+   */
+  public String generate(String prompt, int sharedPrefix, Consumer<String> tokens) {
+    return generate(prompt, sharedPrefix, maxTokens, tokens);
+  }
+
+  /**
+   * Loads the model, if it is not loaded yet, and runs a short generation through it so the first
+   * real request does not pay for loading and compiling the decode path.
+   */
+  public void warmUp() {
+    generate("Say hello.", 0, WARM_UP_TOKENS, token -> {});
+  }
+
+  private String generate(String prompt, int sharedPrefix, int maxTokens, Consumer<String> tokens) {
+    try {
+      lock.readLock().lockInterruptibly();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GenerationCancelledException();
+    }
+    try {
+      if (closed) {
+        throw new GenerationException("Chat model closed");
+      }
+      var start = System.nanoTime();
+      var text = new StringBuilder();
+      var count = 0;
+      try (var sequence = decoder().start(prompt, sharedPrefix)) {
+        while (count < maxTokens) {
+          if (Thread.currentThread().isInterrupted()) {
+            log.info("Generation cancelled after {} tokens", count);
+            throw new GenerationCancelledException();
+          }
+          var token = sequence.next();
+          if (token == null) {
+            break;
+          }
+          count++;
+          text.append(token);
+          if (!token.isEmpty()) {
+            tokens.accept(token);
+          }
+        }
+      } catch (GenerationException e) {
+        throw e;
+      } catch (RuntimeException e) {
+        throw new GenerationException("Generation failed", e);
+      } finally {
+        generatedTokens.add(count);
+        busyNanos.add(System.nanoTime() - start);
+      }
+      log.info(
+          "Generated {} tokens in {} ms ({} tokens/s per generation overall)",
+          count,
+          (System.nanoTime() - start) / 1_000_000,
+          "%.1f".formatted(tokensPerSecond()));
+      return text.toString();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Number of tokens the chat model encodes the text into, loading the model if needed. */
+  public int countTokens(String text) {
+    return decoder().countTokens(text);
+  }
+
+  private Decoder decoder() {
+    var loaded = decoder;
+    if (loaded == null) {
+      synchronized (this) {
+        loaded = decoder;
+        if (loaded == null) {
+          loaded = decoder = decoderFactory.get();
+        }
+      }
+    }
+    return loaded;
+  }
+
+  /** Tokens a generation decodes per second, averaged over the time spent by all of them. */
+  public double tokensPerSecond() {
+    var busy = busyNanos.sum();
+    return busy == 0 ? 0 : generatedTokens.sum() / (busy / 1e9);
+  }
+
+  /** Waits for the running generations, if any, and unloads the model. */
+  @PreDestroy
+  @Override
+  public void close() {
+    lock.writeLock().lock();
+    try {
+      closed = true;
+      if (decoder != null) {
+        decoder.close();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+}
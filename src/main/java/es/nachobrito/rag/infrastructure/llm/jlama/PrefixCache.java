@@ -0,0 +1,183 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.jlama;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Least-recently-used cache of model state for prompt prefixes, within a memory budget.
+ *
+ * <p>Prefixes are cached in whole blocks of {@code blockSize} tokens. An entry for {@code n} blocks
+ * is reachable from the hash of each of its block-aligned prefixes, so a prompt that only shares
+ * the first blocks with it (the template preamble, say) still finds it, and can reuse the state of
+ * those blocks. Every entry stays reachable from all of its prefixes until it is evicted, even if
+ * newer entries share them. Hash hits are confirmed against the tokens of the entry.
+ *
+ * @param <T> the cached state; handed to the eviction callback when it leaves the cache
+ * @author nacho
+ */
+final class PrefixCache<T> {
+  private final int blockSize;
+  private final long maxBytes;
+  private final Consumer<T> onEvict;
+  // prefix hash -> every entry that contains that prefix, oldest first
+  private final Map<Long, List<Entry<T>>> byPrefix = new HashMap<>();
+  private final LinkedHashMap<Entry<T>, Boolean> lru = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+  private long lookups;
+  private long hits;
+
+  PrefixCache(int blockSize, long maxBytes, Consumer<T> onEvict) {
+    if (blockSize < 1) {
+      throw new IllegalArgumentException("block size must be positive");
+    }
+    this.blockSize = blockSize;
+    this.maxBytes = maxBytes;
+    this.onEvict = onEvict;
+  }
+
+  /** A cached state that covers the first {@code length} tokens of the prompt it was found for. */
+  record Match<T>(T state, int length) {}
+
+  /** The longest cacheable prefix of a prompt of {@code length} tokens. */
+  int cacheableLength(int length) {
+    return maxBytes <= 0 ? 0 : length / blockSize * blockSize;
+  }
+
+  /**
+   * Finds the cached state for the longest block-aligned prefix of {@code tokens} that is at most
+   * {@code maxLength} tokens long, or {@code null}.
+   */
+  synchronized Match<T> lookup(int[] tokens, int maxLength) {
+    lookups++;
+    var hashes = prefixHashes(tokens, cacheableLength(Math.min(maxLength, tokens.length)));
+    for (int blocks = hashes.length; blocks > 0; blocks--) {
+      var entries = byPrefix.get(hashes[blocks - 1]);
+      if (entries == null) {
+        continue;
+      }
+      var length = blocks * blockSize;
+      for (var entry : entries.reversed()) {
+        if (Arrays.equals(entry.tokens, 0, length, tokens, 0, length)) {
+          lru.get(entry);
+          hits++;
+          return new Match<>(entry.state, length);
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Finds the state as {@link #lookup} does and hands it to {@code reader} before returning, so it
+   * cannot be evicted, and released, while it is read.
+   *
+   * @return the number of tokens the state covers, 0 if none was found
+   */
+  synchronized int read(int[] tokens, int maxLength, ObjIntConsumer<T> reader) {
+    var match = lookup(tokens, maxLength);
+    if (match == null) {
+      return 0;
+    }
+    reader.accept(match.state(), match.length());
+    return match.length();
+  }
+
+  /**
+   * Caches the state for the first {@code length} tokens, which must be a {@link #cacheableLength},
+   * evicting the least recently used entries to stay within the budget.
+   */
+  synchronized void put(int[] tokens, int length, long size, T state) {
+    if (length == 0 || length % blockSize != 0 || size > maxBytes) {
+      onEvict.accept(state);
+      return;
+    }
+    while (bytes + size > maxBytes) {
+      evict(lru.keySet().iterator().next());
+    }
+    var entry = new Entry<>(Arrays.copyOf(tokens, length), state, size);
+    for (var hash : prefixHashes(tokens, length)) {
+      byPrefix.computeIfAbsent(hash, key -> new ArrayList<>(1)).add(entry);
+    }
+    lru.put(entry, Boolean.TRUE);
+    bytes += size;
+  }
+
+  private void evict(Entry<T> entry) {
+    lru.remove(entry);
+    for (var hash : prefixHashes(entry.tokens, entry.tokens.length)) {
+      var entries = byPrefix.get(hash);
+      entries.remove(entry);
+      if (entries.isEmpty()) {
+        byPrefix.remove(hash);
+      }
+    }
+    bytes -= entry.size;
+    onEvict.accept(entry.state);
+  }
+
+  synchronized void clear() {
+    while (!lru.isEmpty()) {
+      evict(lru.keySet().iterator().next());
+    }
+  }
+
+  synchronized int size() {
+    return lru.size();
+  }
+
+  synchronized long bytes() {
+    return bytes;
+  }
+
+  synchronized double hitRate() {
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  /** Hashes of the block-aligned prefixes of the first {@code length} tokens, shortest first. */
+  private long[] prefixHashes(int[] tokens, int length) {
+    var hashes = new long[length / blockSize];
+    var hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < hashes.length * blockSize; i++) {
+      hash = (hash ^ tokens[i]) * 0x100000001b3L;
+      if ((i + 1) % blockSize == 0) {
+        hashes[i / blockSize] = hash;
+      }
+    }
+    return hashes;
+  }
+
+  // identity equality: entries are keys of the LRU map
+  private static final class Entry<T> {
+    private final int[] tokens;
+    private final T state;
+    private final long size;
+
+    private Entry(int[] tokens, T state, long size) {
+      this.tokens = tokens;
+      this.state = state;
+      this.size = size;
+    }
+  }
+}
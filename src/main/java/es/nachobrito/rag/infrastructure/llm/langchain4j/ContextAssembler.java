@@ -0,0 +1,210 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j;
+
+import es.nachobrito.rag.infrastructure.llm.jlama.LocalChatModel;
+import io.micronaut.context.annotation.Property;
+import jakarta.inject.Singleton;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fills the context of a prompt with retrieved segments, best first, up to {@code
+ * remo.context.max-tokens} tokens of the chat model, so the time spent processing the prompt stays
+ * bounded however long the segments are. A segment that does not fit is cut at a word boundary to
+ * the tokens left, and ends the context; one that would be cut too short is dropped instead, and
+ * the next ones may still fit.
+ *
+ * <p>Every query retrieves {@code remo.context.results} segments. With a {@code
+ * remo.context.ttft-target}, that number adapts to the time to first token of recent queries: it
+ * goes down, to {@code remo.context.min-results} at least, while their p99 is above the target, and
+ * up, to {@code remo.context.max-results} at most, while it stays under half of it.
+ *
+ * @author nacho
+ */
+@Singleton
+public class ContextAssembler {
+  private static final Logger log = LoggerFactory.getLogger(ContextAssembler.class);
+  private static final String SEPARATOR = "\n\n";
+  // segments cut to fewer tokens than this are dropped
+  private static final int MIN_SEGMENT_TOKENS = 16;
+  // recent times to first token, and how many of them are needed to lower the depth
+  private static final int WINDOW = 32;
+  private static final int MIN_SAMPLES = 8;
+
+  private final ToIntFunction<String> tokenCounter;
+  private final int maxTokens;
+  private final int minResults;
+  private final int maxResults;
+  private final long targetNanos;
+  // guarded by this
+  private final long[] samples = new long[WINDOW];
+  private int sampleCount;
+  private int nextSample;
+  private volatile int depth;
+
+  public ContextAssembler(
+      LocalChatModel chatModel,
+      @Property(name = "remo.context.max-tokens", defaultValue = "512") int maxTokens,
+      @Property(name = "remo.context.results", defaultValue = "2") int results,
+      @Property(name = "remo.context.min-results", defaultValue = "1") int minResults,
+      @Property(name = "remo.context.max-results", defaultValue = "4") int maxResults,
+      @Property(name = "remo.context.ttft-target", defaultValue = "0s") Duration target) {
+    this(chatModel::countTokens, maxTokens, results, minResults, maxResults, target);
+  }
+
+  ContextAssembler(
+      ToIntFunction<String> tokenCounter,
+      int maxTokens,
+      int results,
+      int minResults,
+      int maxResults,
+      Duration target) {
+    if (maxTokens < 1 || minResults < 1 || results < minResults || maxResults < results) {
+      throw new IllegalArgumentException(
+          "max tokens and results must be positive, and results between min and max results");
+    }
+    this.tokenCounter = tokenCounter;
+    this.maxTokens = maxTokens;
+    this.minResults = minResults;
+    this.maxResults = maxResults;
+    this.targetNanos = target.toNanos();
+    this.depth = results;
+  }
+
+  /** Segments used for a context, and the text they fill it with. */
+  public record Context<T>(List<T> used, String information, int tokens) {
+    public boolean isEmpty() {
+      return used.isEmpty();
+    }
+  }
+
+  /** Number of segments to retrieve for the next query. */
+  public int depth() {
+    return depth;
+  }
+
+  /**
+   * Builds the context out of the candidates, in the order given; candidates with the same text as
+   * an earlier one, or with no text, are skipped.
+   */
+  public <T> Context<T> assemble(List<T> candidates, Function<T, String> text) {
+    var used = new ArrayList<T>();
+    var information = new StringBuilder();
+    var seen = new HashSet<String>();
+    var separatorTokens = tokenCounter.applyAsInt(SEPARATOR);
+    var tokens = 0;
+    for (var candidate : candidates) {
+      var segment = text.apply(candidate);
+      if (segment == null || !seen.add(segment)) {
+        continue;
+      }
+      var available = maxTokens - tokens - (used.isEmpty() ? 0 : separatorTokens);
+      var cost = tokenCounter.applyAsInt(segment);
+      var cut = cost > available;
+      if (cut) {
+        segment = trim(segment, available);
+        if (segment.isEmpty()) {
+          continue;
+        }
+        cost = tokenCounter.applyAsInt(segment);
+      }
+      if (!used.isEmpty()) {
+        information.append(SEPARATOR);
+        tokens += separatorTokens;
+      }
+      information.append(segment);
+      tokens += cost;
+      used.add(candidate);
+      if (cut) {
+        break;
+      }
+    }
+    return new Context<>(used, information.toString(), tokens);
+  }
+
+  /**
+   * Longest prefix of the text, ending at a word boundary, that fits in the given tokens; empty if
+   * that is less than {@link #MIN_SEGMENT_TOKENS}.
+   */
+  private String trim(String text, int available) {
+    if (available < MIN_SEGMENT_TOKENS) {
+      return "";
+    }
+    var boundaries = new ArrayList<Integer>();
+    for (int i = 1; i < text.length(); i++) {
+      if (Character.isWhitespace(text.charAt(i)) && !Character.isWhitespace(text.charAt(i - 1))) {
+        boundaries.add(i);
+      }
+    }
+    var low = 0;
+    var high = boundaries.size() - 1;
+    var best = "";
+    while (low <= high) {
+      var middle = (low + high) >>> 1;
+      var prefix = text.substring(0, boundaries.get(middle));
+      if (tokenCounter.applyAsInt(prefix) <= available) {
+        best = prefix;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return tokenCounter.applyAsInt(best) < MIN_SEGMENT_TOKENS ? "" : best;
+  }
+
+  /** Feeds the time a query took from its arrival to its first generated token. */
+  public synchronized void recordTimeToFirstToken(Duration elapsed) {
+    if (targetNanos <= 0) {
+      return;
+    }
+    samples[nextSample] = elapsed.toNanos();
+    nextSample = (nextSample + 1) % WINDOW;
+    sampleCount = Math.min(sampleCount + 1, WINDOW);
+    var count = sampleCount;
+    if (count < MIN_SAMPLES) {
+      return;
+    }
+    var sorted = Arrays.copyOf(samples, count);
+    Arrays.sort(sorted);
+    var p99 = sorted[(int) Math.ceil(0.99 * count) - 1];
+    if (p99 > targetNanos && depth > minResults) {
+      resize(depth - 1, p99);
+    } else if (count == WINDOW && p99 < targetNanos / 2 && depth < maxResults) {
+      resize(depth + 1, p99);
+    }
+  }
+
+  private void resize(int newDepth, long p99) {
+    log.info(
+        "p99 time to first token {} ms, retrieving {} segments instead of {}",
+        p99 / 1_000_000,
+        newDepth,
+        depth);
+    depth = newDepth;
+    // judge the new depth on its own samples
+    sampleCount = 0;
+    nextSample = 0;
+  }
+}
@@ -23,5 +23,6 @@ import dev.langchain4j.store.embedding.EmbeddingMatch;
  * @author nacho
  */
 public interface EmbeddingMatchMapper {
+  /** The text a match contributes to the context, or {@code null} if it has none. */
   String map(EmbeddingMatch<TextSegment> match);
 }
@@ -0,0 +1,46 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j;
+
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.jlama.JlamaEmbeddingModel;
+import io.micronaut.context.annotation.Factory;
+import jakarta.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the local embedding model once, however many threads ask for it first.
+ *
+ * @author nacho
+ */
+@Factory
+public class EmbeddingModelFactory {
+  public static final String EMBEDDING_MODEL = "intfloat/e5-small-v2";
+  private static final Logger log = LoggerFactory.getLogger(EmbeddingModelFactory.class);
+
+  @Singleton
+  EmbeddingModel embeddingModel() {
+    var start = System.nanoTime();
+    var model = JlamaEmbeddingModel.builder().modelName(EMBEDDING_MODEL).build();
+    log.info(
+        "Loaded embedding model {} in {} ms",
+        EMBEDDING_MODEL,
+        (System.nanoTime() - start) / 1_000_000);
+    return model;
+  }
+}
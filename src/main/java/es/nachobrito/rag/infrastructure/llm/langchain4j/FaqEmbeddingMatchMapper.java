@@ -18,15 +18,25 @@ package es.nachobrito.rag.infrastructure.llm.langchain4j;
 
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.store.embedding.EmbeddingMatch;
+import es.nachobrito.rag.infrastructure.llm.langchain4j.store.DocumentStore;
 import jakarta.inject.Singleton;
 
 /**
+ * Maps a matched question to its answer, which is kept once per document in the {@link
+ * DocumentStore} rather than in every segment.
+ *
  * @author nacho
  */
 @Singleton
 public class FaqEmbeddingMatchMapper implements EmbeddingMatchMapper {
+  private final DocumentStore documentStore;
+
+  public FaqEmbeddingMatchMapper(DocumentStore documentStore) {
+    this.documentStore = documentStore;
+  }
+
   @Override
   public String map(EmbeddingMatch<TextSegment> match) {
-    return match.embedded().metadata().getString("answer");
+    return documentStore.metadata(match.embedded(), "answer");
   }
 }
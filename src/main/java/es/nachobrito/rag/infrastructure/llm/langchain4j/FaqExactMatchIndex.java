@@ -0,0 +1,105 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j;
+
+import es.nachobrito.rag.domain.document.Document;
+import jakarta.inject.Singleton;
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Answers FAQ questions typed verbatim without embedding or generation.
+ *
+ * <p>Every ingested document with an {@code answer} in its metadata is indexed by its normalized
+ * question text: Unicode NFKC, lower case, punctuation removed and whitespace collapsed. So "How do
+ * I water tomatoes?" and "how do i water tomatoes" hit the same entry. Indexing a document again
+ * replaces its previous question, and removing it drops its entry.
+ *
+ * @author nacho
+ */
+@Singleton
+public class FaqExactMatchIndex {
+  static final String ANSWER = "answer";
+  private static final Pattern PUNCTUATION = Pattern.compile("\\p{P}+");
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+  private final Map<String, Answer> answers = new ConcurrentHashMap<>();
+  // normalized question of every indexed document, to find its entry when it changes
+  private final Map<String, String> questions = new ConcurrentHashMap<>();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  public synchronized void index(Document document) {
+    remove(document.getId());
+    var answer = document.getMetadata().get(ANSWER);
+    if (answer == null) {
+      return;
+    }
+    var question = normalize(document.getTextContent());
+    if (!question.isEmpty()) {
+      answers.put(question, new Answer(document.getId(), answer));
+      questions.put(document.getId(), question);
+    }
+  }
+
+  /** Drops the entry of a document, unless another document has indexed the same question since. */
+  public synchronized void remove(String documentId) {
+    var question = questions.remove(documentId);
+    if (question != null) {
+      answers.computeIfPresent(
+          question, (key, answer) -> answer.documentId().equals(documentId) ? null : answer);
+    }
+  }
+
+  public Optional<String> lookup(String query) {
+    var answer = Optional.ofNullable(answers.get(normalize(query))).map(Answer::text);
+    (answer.isPresent() ? hits : misses).increment();
+    return answer;
+  }
+
+  public int size() {
+    return answers.size();
+  }
+
+  public long hits() {
+    return hits.sum();
+  }
+
+  public long misses() {
+    return misses.sum();
+  }
+
+  /** Fraction of lookups answered by the index, 0 before the first lookup. */
+  public double hitRate() {
+    var hits = hits();
+    var total = hits + misses();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  private record Answer(String documentId, String text) {}
+
+  static String normalize(String text) {
+    var normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+    normalized = PUNCTUATION.matcher(normalized).replaceAll(" ");
+    return WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+  }
+}
@@ -19,31 +19,42 @@ package es.nachobrito.rag.infrastructure.llm.langchain4j;
 import static java.util.stream.Collectors.joining;
 
 import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.Metadata;
 import dev.langchain4j.data.document.splitter.DocumentSplitters;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.model.chat.StreamingChatModel;
-import dev.langchain4j.model.chat.response.ChatResponse;
-import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
 import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.model.input.Prompt;
 import dev.langchain4j.model.input.PromptTemplate;
-import dev.langchain4j.model.jlama.JlamaEmbeddingModel;
-import dev.langchain4j.model.jlama.JlamaStreamingChatModel;
 import dev.langchain4j.store.embedding.EmbeddingMatch;
-import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
 import es.nachobrito.rag.domain.document.Document;
+import es.nachobrito.rag.domain.document.DocumentCollection;
+import es.nachobrito.rag.domain.rag.IngestionReport;
 import es.nachobrito.rag.domain.rag.RagQuery;
 import es.nachobrito.rag.domain.rag.RagService;
 import es.nachobrito.rag.domain.rag.RagTokens;
+import es.nachobrito.rag.infrastructure.llm.jlama.GenerationCancelledException;
+import es.nachobrito.rag.infrastructure.llm.jlama.GenerationException;
+import es.nachobrito.rag.infrastructure.llm.jlama.LocalChatModel;
+import es.nachobrito.rag.infrastructure.llm.langchain4j.cache.QueryEmbeddingCache;
+import es.nachobrito.rag.infrastructure.llm.langchain4j.cache.SemanticResponseCache;
+import es.nachobrito.rag.infrastructure.llm.langchain4j.cluster.ClusterSearch;
+import es.nachobrito.rag.infrastructure.llm.langchain4j.cluster.ShardAssignment;
+import es.nachobrito.rag.infrastructure.llm.langchain4j.ingest.IngestManifest;
+import es.nachobrito.rag.infrastructure.llm.langchain4j.ingest.IngestionPipeline;
+import es.nachobrito.rag.infrastructure.llm.langchain4j.store.DocumentStore;
+import es.nachobrito.rag.infrastructure.llm.langchain4j.store.PersistentEmbeddingStore;
+import io.micronaut.context.BeanProvider;
 import io.micronaut.context.annotation.Property;
 import jakarta.inject.Singleton;
-import java.nio.file.Path;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,129 +65,433 @@ import org.slf4j.LoggerFactory;
 @Singleton
 public class LangChain4JRagService implements RagService {
 
-  // expect a more focused and deterministic answer
-  public static final float TEMPERATURE = 0.2f;
-  private static final String EMBEDDING_MODEL = "intfloat/e5-small-v2";
-  private static final String CHAT_MODEL = "tjake/Llama-3.2-1B-Instruct-JQ4";
+  private static final int SEGMENT_SIZE = 200;
+  private static final int SEGMENT_OVERLAP = 0;
+  private static final double MIN_SCORE = 0.85;
+  // everything that decides the stored segments and vectors; a change re-ingests all documents
+  private static final String PIPELINE_ID = "%s recursive(%d,%d) dedup(%d)";
   private static final Logger log = LoggerFactory.getLogger(LangChain4JRagService.class);
-  private final DocumentSplitter splitter = DocumentSplitters.recursive(200, 0);
-  private final InMemoryEmbeddingStore<TextSegment> embeddingStore;
-  private final PromptTemplate promptTemplate =
+  private final DocumentSplitter splitter =
+      DocumentSplitters.recursive(SEGMENT_SIZE, SEGMENT_OVERLAP);
+  private final PersistentEmbeddingStore embeddingStore;
+  private final DocumentStore documentStore;
+  // the prompt is the context part followed by the query part; prompts that retrieve the same
+  // context share everything before the query, so the chat model can reuse it
+  private final PromptTemplate contextTemplate =
       PromptTemplate.from(
           "Context information is below.:\n"
               + "------------------\n"
               + "{{information}}\n"
-              + "------------------\n"
-              + "Given the context information and not prior knowledge, answer the query.\n"
+              + "------------------\n");
+  private final PromptTemplate queryTemplate =
+      PromptTemplate.from(
+          "Given the context information and not prior knowledge, answer the query.\n"
               + "Query: {{question}}\n"
               + "Answer:");
-  private final String cacheFilePath;
   private final EmbeddingMatchMapper embeddingMatchMapper;
-
-  private EmbeddingModel embeddingModel;
-  private StreamingChatModel chatModel;
+  private final QueryEmbeddingCache queryEmbeddingCache;
+  private final SemanticResponseCache responseCache;
+  private final FaqExactMatchIndex faqIndex;
+  private final IngestionPipeline ingestionPipeline;
+  private final IngestManifest manifest;
+  private final LocalChatModel chatModel;
+  private final BeanProvider<EmbeddingModel> embeddingModel;
+  private final ContextAssembler contextAssembler;
+  private final ClusterSearch clusterSearch;
+  private final ShardAssignment shardAssignment;
+  // one ingestion at a time; searches do not take it
+  private final Object ingestLock = new Object();
+  private final boolean faqFastPath;
+  private final boolean faqRephrase;
 
   public LangChain4JRagService(
-      @Property(name = "remo.embeddings.cache") String cacheFilePath,
-      EmbeddingMatchMapper embeddingMatchMapper) {
-    this.cacheFilePath = cacheFilePath;
+      PersistentEmbeddingStore embeddingStore,
+      DocumentStore documentStore,
+      EmbeddingMatchMapper embeddingMatchMapper,
+      QueryEmbeddingCache queryEmbeddingCache,
+      SemanticResponseCache responseCache,
+      FaqExactMatchIndex faqIndex,
+      IngestionPipeline ingestionPipeline,
+      LocalChatModel chatModel,
+      BeanProvider<EmbeddingModel> embeddingModel,
+      ContextAssembler contextAssembler,
+      ClusterSearch clusterSearch,
+      ShardAssignment shardAssignment,
+      @Property(name = "remo.faq.fast-path.enabled", defaultValue = "true") boolean faqFastPath,
+      @Property(name = "remo.faq.fast-path.rephrase", defaultValue = "false") boolean faqRephrase,
+      @Property(name = "remo.ingest.dedup.max-distance", defaultValue = "3")
+          int maxDuplicateDistance) {
+    this.embeddingStore = embeddingStore;
+    this.documentStore = documentStore;
     this.embeddingMatchMapper = embeddingMatchMapper;
-    embeddingStore = initializeEmbeddingStore();
+    this.queryEmbeddingCache = queryEmbeddingCache;
+    this.responseCache = responseCache;
+    this.faqIndex = faqIndex;
+    this.ingestionPipeline = ingestionPipeline;
+    this.chatModel = chatModel;
+    this.embeddingModel = embeddingModel;
+    this.contextAssembler = contextAssembler;
+    this.clusterSearch = clusterSearch;
+    this.shardAssignment = shardAssignment;
+    this.manifest = loadManifest(embeddingStore, documentStore, maxDuplicateDistance);
+    this.faqFastPath = faqFastPath;
+    this.faqRephrase = faqRephrase;
   }
 
-  private InMemoryEmbeddingStore<TextSegment> initializeEmbeddingStore() {
-    if (Path.of(cacheFilePath).toFile().isFile()) {
-      return InMemoryEmbeddingStore.fromFile(cacheFilePath);
+  /**
+   * The manifest is kept next to the store file. Without that file (first run, or a different index
+   * type), or without the documents its segments reference, it describes nothing, whatever a
+   * previous manifest says.
+   */
+  private static IngestManifest loadManifest(
+      PersistentEmbeddingStore embeddingStore,
+      DocumentStore documentStore,
+      int maxDuplicateDistance) {
+    var pipelineId =
+        PIPELINE_ID.formatted(
+            EmbeddingModelFactory.EMBEDDING_MODEL,
+            SEGMENT_SIZE,
+            SEGMENT_OVERLAP,
+            maxDuplicateDistance);
+    var storeFile = embeddingStore.file();
+    if (storeFile == null) {
+      return IngestManifest.empty(null, pipelineId, maxDuplicateDistance);
+    }
+    var file = storeFile.resolveSibling(storeFile.getFileName() + ".manifest");
+    if (!Files.exists(storeFile) || !documentStore.isLoaded()) {
+      return IngestManifest.empty(file, pipelineId, maxDuplicateDistance);
     }
-    return new InMemoryEmbeddingStore<>();
+    var manifest = IngestManifest.load(file, pipelineId, maxDuplicateDistance);
+    log.info("Ingest manifest {}: {} documents", file, manifest.size());
+    return manifest;
   }
 
   private EmbeddingModel getEmbeddingModel() {
-    if (embeddingModel == null) {
-      embeddingModel = JlamaEmbeddingModel.builder().modelName(EMBEDDING_MODEL).build();
+    return embeddingModel.get();
+  }
+
+  @Override
+  public void ingest(Document document) {
+    synchronized (ingestLock) {
+      ingestDocument(document);
     }
-    return embeddingModel;
   }
 
-  private StreamingChatModel getChatModel() {
-    if (chatModel == null) {
-      chatModel =
-          JlamaStreamingChatModel.builder().modelName(CHAT_MODEL).temperature(TEMPERATURE).build();
+  private void ingestDocument(Document document) {
+    faqIndex.index(document);
+    if (!shardAssignment.owns(document.getId())) {
+      return;
+    }
+    syncManifest();
+    var hash = IngestManifest.hash(document);
+    var orphaned = new HashSet<String>();
+    if (!isChanged(document, hash, orphaned)) {
+      log.info("Document unchanged: {}", document.getId());
+      return;
+    }
+    log.info("Ingesting document: {}", document.getId());
+    var segments = split(document);
+    var ids = new ArrayList<String>(segments.size());
+    var canonical = new ArrayList<TextSegment>(segments.size());
+    for (int i = 0; i < segments.size(); i++) {
+      var id = IngestionPipeline.segmentId(document.getId(), i);
+      if (isCanonical(document.getId(), id, segments.get(i))) {
+        ids.add(id);
+        canonical.add(segments.get(i));
+      }
+    }
+    if (!canonical.isEmpty()) {
+      var embeddings = getEmbeddingModel().embedAll(canonical).content();
+      embeddingStore.addAll(ids, embeddings, canonical);
+    }
+    manifest.put(document.getId(), new IngestManifest.Entry(hash, segments.size()));
+    if (!orphaned.isEmpty()) {
+      invalidate(orphaned);
+      log.warn(
+          "{} documents had near-duplicates of the replaced segments and will be ingested again"
+              + " with the next collection",
+          orphaned.size());
     }
-    return chatModel;
+    embeddingStore.publish();
+    documentStore.publish();
+    responseCache.invalidateAll();
   }
 
+  /**
+   * Embeds only the documents that are new or changed since the last ingestion recorded in the
+   * manifest, and removes the segments of the documents that are no longer in the collection. Runs
+   * one at a time, since each run compares the whole collection with the manifest. In cluster mode,
+   * documents owned by other shards count as not in the collection.
+   *
+   * <p>Documents whose segments were collapsed onto near-duplicates that have just been removed are
+   * ingested again in a second pass over the collection.
+   */
   @Override
-  public void ingest(Document document) {
-    log.info("Ingesting document: {}", document.getId());
-    var content = document.getTextContent();
-    var metadata = new Metadata(document.getMetadata());
-    var l4Document = dev.langchain4j.data.document.Document.from(content, metadata);
-    var segments = splitter.split(l4Document);
-    var embeddingModel = getEmbeddingModel();
-    var embeddings = embeddingModel.embedAll(segments).content();
-    embeddingStore.addAll(embeddings, segments);
+  public IngestionReport ingest(DocumentCollection documentCollection) {
+    synchronized (ingestLock) {
+      syncManifest();
+      var seen = new HashSet<String>();
+      var ingested = new HashSet<String>();
+      var removed = 0L;
+      var orphaned = ingestChanges(documentCollection, seen, ingested);
+      for (var id : manifest.documentIds()) {
+        if (!seen.contains(id)) {
+          removeSegments(id, orphaned);
+          manifest.remove(id);
+          documentStore.remove(id);
+          faqIndex.remove(id);
+          removed++;
+        }
+      }
+      while (invalidate(orphaned)) {
+        log.info(
+            "Ingesting {} documents again, their near-duplicates were removed", orphaned.size());
+        orphaned = ingestChanges(documentCollection, new HashSet<>(), ingested);
+      }
+      log.info(
+          "{} documents unchanged, {} new or changed, {} removed",
+          seen.size() - ingested.size(),
+          ingested.size(),
+          removed);
+      log.info(
+          "Query embedding cache: {} entries, hit rate {}",
+          queryEmbeddingCache.size(),
+          "%.2f".formatted(queryEmbeddingCache.hitRate()));
+      embeddingStore.publish();
+      documentStore.publish();
+      var report = new IngestionReport(ingested.size(), seen.size() - ingested.size(), removed);
+      if (report.hasChanges()) {
+        responseCache.invalidateAll();
+      }
+      return report;
+    }
+  }
+
+  /**
+   * One pass over the collection, embedding the documents that differ from the manifest.
+   *
+   * @return documents that lost the near-duplicates their segments were collapsed onto
+   */
+  private Set<String> ingestChanges(
+      DocumentCollection documentCollection, Set<String> seen, Set<String> ingested) {
+    var seenNow = ConcurrentHashMap.<String>newKeySet();
+    var orphaned = ConcurrentHashMap.<String>newKeySet();
+    var hashes = new ConcurrentHashMap<String, String>();
+    var entries = new ConcurrentHashMap<String, IngestManifest.Entry>();
+    var changed =
+        documentCollection.parallelStream()
+            .peek(faqIndex::index)
+            .filter(document -> shardAssignment.owns(document.getId()))
+            .filter(
+                document -> {
+                  seenNow.add(document.getId());
+                  var hash = IngestManifest.hash(document);
+                  if (!isChanged(document, hash, orphaned)) {
+                    return false;
+                  }
+                  hashes.put(document.getId(), hash);
+                  return true;
+                });
+    ingestionPipeline.run(
+        changed,
+        document -> {
+          var segments = split(document);
+          var entry = new IngestManifest.Entry(hashes.get(document.getId()), segments.size());
+          entries.put(document.getId(), entry);
+          return segments;
+        },
+        this::isCanonical,
+        segments -> getEmbeddingModel().embedAll(segments).content(),
+        embeddingStore::addAll);
+    entries.forEach(manifest::put);
+    seen.addAll(seenNow);
+    ingested.addAll(entries.keySet());
+    return new HashSet<>(orphaned);
+  }
+
+  /**
+   * Empties the store when the manifest cannot tell what is in it: entries written before the
+   * manifest existed, or by another embedding model, would otherwise never be replaced.
+   */
+  private void syncManifest() {
+    if (!manifest.isInSync()) {
+      log.info("No ingest manifest matches the embedding store, ingesting every document again");
+      embeddingStore.removeAll();
+      documentStore.clear();
+      manifest.reset();
+    }
+  }
+
+  /**
+   * Whether the document has to be embedded. If so, the segments stored for a previous version are
+   * removed first, since the new version may have fewer of them.
+   *
+   * @param orphaned collects the documents that had segments collapsed onto the removed ones
+   */
+  private boolean isChanged(Document document, String hash, Set<String> orphaned) {
+    var entry = manifest.get(document.getId());
+    if (entry != null && entry.hash().equals(hash)) {
+      return false;
+    }
+    removeSegments(document.getId(), orphaned);
+    return true;
+  }
+
+  /** Whether a segment has to be stored, or is a near-duplicate of one that already is. */
+  private boolean isCanonical(String documentId, String segmentId, TextSegment segment) {
+    var metadata = documentStore.metadata(segment);
+    return manifest.duplicates().canonical(documentId, segmentId, segment.text(), metadata) == null;
+  }
+
+  private void removeSegments(String documentId, Set<String> orphaned) {
+    var ids = manifest.segmentIds(documentId);
+    if (!ids.isEmpty()) {
+      orphaned.addAll(manifest.duplicates().remove(documentId, ids));
+      embeddingStore.removeAll(ids);
+    }
+  }
+
+  /**
+   * Removes documents, and any documents that depended on their segments in turn, from the store
+   * and the manifest so the next pass ingests them again.
+   *
+   * @return whether any document was removed
+   */
+  private boolean invalidate(Set<String> documentIds) {
+    var pending = new ArrayDeque<>(documentIds);
+    var invalidated = false;
+    while (!pending.isEmpty()) {
+      var id = pending.poll();
+      if (manifest.get(id) == null) {
+        continue;
+      }
+      var orphaned = new HashSet<String>();
+      removeSegments(id, orphaned);
+      manifest.remove(id);
+      documentStore.remove(id);
+      faqIndex.remove(id);
+      pending.addAll(orphaned);
+      invalidated = true;
+    }
+    return invalidated;
+  }
+
+  /** Splits a document into segments that reference it in the document store. */
+  private List<TextSegment> split(Document document) {
+    var metadata = documentStore.add(document);
+    return splitter.split(
+        dev.langchain4j.data.document.Document.from(document.getTextContent(), metadata));
   }
 
   @Override
   public void chat(RagQuery query, Consumer<RagTokens> ragTokensConsumer) {
-    Prompt prompt = buildPrompt(query);
+    if (faqFastPath && query.filters().isEmpty()) {
+      var answer = faqIndex.lookup(query.text());
+      if (answer.isPresent()) {
+        log.info("Answering from the FAQ index (hit rate {})", faqIndex.hitRate());
+        ragTokensConsumer.accept(RagTokens.partialResponse(query.uuid(), answer.get()));
+        if (faqRephrase) {
+          rephrase(query, answer.get(), ragTokensConsumer);
+        }
+        return;
+      }
+    }
+
+    var start = System.nanoTime();
+    var questionEmbedding = embed(query);
+    var context =
+        contextAssembler.assemble(
+            getRelevantEmbeddings(questionEmbedding, query), embeddingMatchMapper::map);
+    var contextIds = context.used().stream().map(EmbeddingMatch::embeddingId).collect(joining(","));
+    var cached = responseCache.lookup(questionEmbedding.vector(), contextIds);
+    if (cached.isPresent()) {
+      log.info("Replaying a cached response for a similar query");
+      cached
+          .get()
+          .forEach(s -> ragTokensConsumer.accept(RagTokens.partialResponse(query.uuid(), s)));
+      return;
+    }
+
+    var prompt = buildPrompt(query, context);
     var userMessage = prompt.text();
-    log.info("Generated prompt\n{}", userMessage);
-    getChatModel()
-        .chat(
-            userMessage,
-            new StreamingChatResponseHandler() {
-              @Override
-              public void onPartialResponse(String s) {
+    log.info("Generated prompt ({} context tokens)\n{}", context.tokens(), userMessage);
+    var tokens = new ArrayList<String>();
+    try {
+      var response =
+          chatModel.generate(
+              userMessage,
+              prompt.sharedPrefix(),
+              s -> {
+                if (tokens.isEmpty()) {
+                  contextAssembler.recordTimeToFirstToken(
+                      Duration.ofNanos(System.nanoTime() - start));
+                }
+                tokens.add(s);
                 ragTokensConsumer.accept(RagTokens.partialResponse(query.uuid(), s));
-              }
-
-              @Override
-              public void onCompleteResponse(ChatResponse chatResponse) {
-                log.info("Response complete: {}", chatResponse.aiMessage().text());
-              }
+              });
+      log.info("Response complete: {}", response);
+      responseCache.put(questionEmbedding.vector(), contextIds, tokens);
+    } catch (GenerationCancelledException e) {
+      log.info("Generation cancelled for query {}", query.uuid());
+    } catch (GenerationException e) {
+      log.error(e.getMessage(), e);
+    }
+  }
 
-              @Override
-              public void onError(Throwable throwable) {
-                log.error(throwable.getMessage(), throwable);
-              }
-            });
+  /** Streams a short rewording of an FAQ answer after the answer itself. */
+  private void rephrase(RagQuery query, String answer, Consumer<RagTokens> ragTokensConsumer) {
+    ragTokensConsumer.accept(RagTokens.partialResponse(query.uuid(), "\n\n"));
+    try {
+      // popular answers are rephrased again and again, so the whole prompt is worth caching
+      var prompt = "Rephrase the following answer in one or two short sentences:\n" + answer;
+      chatModel.generate(
+          prompt,
+          prompt.length(),
+          s -> ragTokensConsumer.accept(RagTokens.partialResponse(query.uuid(), s)));
+    } catch (GenerationCancelledException e) {
+      log.info("Generation cancelled for query {}", query.uuid());
+    } catch (GenerationException e) {
+      log.error(e.getMessage(), e);
+    }
   }
 
   @Override
   public void serialize() {
-    embeddingStore.serializeToFile(cacheFilePath);
+    embeddingStore.serialize();
+    documentStore.persist();
+    manifest.persist();
+    queryEmbeddingCache.persist();
   }
 
-  private Prompt buildPrompt(RagQuery query) {
-    List<EmbeddingMatch<TextSegment>> relevantEmbeddings = getRelevantEmbeddings(query);
-    if (relevantEmbeddings.isEmpty()) {
+  /** A prompt whose first {@code sharedPrefix} characters do not depend on the question. */
+  private record ChatPrompt(String text, int sharedPrefix) {}
+
+  private ChatPrompt buildPrompt(
+      RagQuery query, ContextAssembler.Context<EmbeddingMatch<TextSegment>> context) {
+    if (context.isEmpty()) {
       log.info(
           "Could not find relevant documents for this query. Sending raw prompt to the model.");
-      return Prompt.from(query.text());
-    }
-    String information =
-        relevantEmbeddings.stream()
-            .map(embeddingMatchMapper::map)
-            .distinct()
-            .collect(joining("\n\n"));
-
-    Map<String, Object> promptInputs = new HashMap<>();
-    promptInputs.put("question", query.text());
-    promptInputs.put("information", information);
-
-    return promptTemplate.apply(promptInputs);
-  }
-
-  private List<EmbeddingMatch<TextSegment>> getRelevantEmbeddings(RagQuery query) {
-    Embedding questionEmbedding = getEmbeddingModel().embed(query.text()).content();
-    EmbeddingSearchRequest embeddingSearchRequest =
-        EmbeddingSearchRequest.builder()
-            .queryEmbedding(questionEmbedding)
-            .maxResults(2)
-            .minScore(0.85)
-            .build();
-    return embeddingStore.search(embeddingSearchRequest).matches();
+      return new ChatPrompt(query.text(), 0);
+    }
+    Map<String, Object> contextInputs = new HashMap<>();
+    contextInputs.put("information", context.information());
+    Map<String, Object> queryInputs = new HashMap<>();
+    queryInputs.put("question", query.text());
+
+    var shared = contextTemplate.apply(contextInputs).text();
+    return new ChatPrompt(shared + queryTemplate.apply(queryInputs).text(), shared.length());
+  }
+
+  private Embedding embed(RagQuery query) {
+    return queryEmbeddingCache.embed(
+        EmbeddingModelFactory.EMBEDDING_MODEL,
+        query.text(),
+        text -> getEmbeddingModel().embed(text).content());
+  }
+
+  private List<EmbeddingMatch<TextSegment>> getRelevantEmbeddings(
+      Embedding questionEmbedding, RagQuery query) {
+    return clusterSearch.search(
+        questionEmbedding, query.filters(), contextAssembler.depth(), MIN_SCORE);
   }
 }
@@ -0,0 +1,169 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package es.nachobrito.rag.infrastructure.llm.langchain4j.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import dev.langchain4j.data.embedding.Embedding;
+import io.micronaut.context.annotation.Property;
+import io.micronaut.core.annotation.Nullable;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of query embeddings, so a repeated question skips the embedding model.
+ *
+ * <p>Entries are keyed by the embedding model name and the normalized query text (Unicode NFKC,
+ * lower case, collapsed whitespace), and evicted with Caffeine's W-TinyLFU policy once {@code
+ * remo.embeddings.query-cache.max-size} is reached. The normalized text is what gets embedded, so
+ * every phrasing that maps to a key gets the same vector. When {@code
+ * remo.embeddings.query-cache.file} is set, the entries are saved there on shutdown and restored on
+ * startup.
+ *
+ * @author nacho
+ */
+@Singleton
+public class QueryEmbeddingCache {
+  private static final Logger log = LoggerFactory.getLogger(QueryEmbeddingCache.class);
+  private static final int MAGIC = 0x51454D42;
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+  // keeps the modified UTF-8 of a key within the 64KB that writeUTF accepts
+  private static final int MAX_PERSISTED_LENGTH = 16_384;
+
+  private final Cache<Key, float[]> cache;
+  private final Path file;
+
+  record Key(String model, String text) {}
+
+  public QueryEmbeddingCache(
+      @Property(name = "remo.embeddings.query-cache.max-size", defaultValue = "10000") long maxSize,
+      @Nullable @Property(name = "remo.embeddings.query-cache.file") String file) {
+    this.cache = Caffeine.newBuilder().maximumSize(maxSize).recordStats().build();
+    this.file = file == null || file.isBlank() ? null : Path.of(file);
+    load();
+  }
+
+  /**
+   * Returns the cached embedding of the query, computing it with {@code embedder} (which receives
+   * the normalized text) on a miss. Concurrent misses on the same key compute it only once.
+   */
+  public Embedding embed(String model, String query, Function<String, Embedding> embedder) {
+    var key = new Key(model, normalize(query));
+    var vector = cache.get(key, k -> embedder.apply(k.text()).vector());
+    // Embedding.normalize() works in place, so callers never get the cached array
+    return Embedding.from(vector.clone());
+  }
+
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  public long hits() {
+    return cache.stats().hitCount();
+  }
+
+  public long misses() {
+    return cache.stats().missCount();
+  }
+
+  /** Fraction of queries served without the embedding model, 0 before the first query. */
+  public double hitRate() {
+    var stats = cache.stats();
+    var total = stats.requestCount();
+    return total == 0 ? 0 : (double) stats.hitCount() / total;
+  }
+
+  public long size() {
+    return cache.estimatedSize();
+  }
+
+  static String normalize(String query) {
+    var text = Normalizer.normalize(query, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+    return WHITESPACE.matcher(text).replaceAll(" ").trim();
+  }
+
+  @PreDestroy
+  public void persist() {
+    log.info("Query embedding cache: {} entries, {}", cache.estimatedSize(), cache.stats());
+    if (file == null) {
+      return;
+    }
+    try {
+      var parent = file.toAbsolutePath().getParent();
+      Files.createDirectories(parent);
+      var tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+      try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        var entries =
+            cache.asMap().entrySet().stream()
+                .filter(entry -> entry.getKey().text().length() <= MAX_PERSISTED_LENGTH)
+                .toList();
+        out.writeInt(MAGIC);
+        out.writeInt(entries.size());
+        for (var entry : entries) {
+          out.writeUTF(entry.getKey().model());
+          out.writeUTF(entry.getKey().text());
+          var vector = entry.getValue();
+          out.writeInt(vector.length);
+          for (var v : vector) {
+            out.writeFloat(v);
+          }
+        }
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Could not save the query embedding cache to {}", file, e);
+    }
+  }
+
+  /** A missing or unreadable file only means a cold cache, so errors are logged and ignored. */
+  private void load() {
+    if (file == null || !Files.isRegularFile(file)) {
+      return;
+    }
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("not a query embedding cache file");
+      }
+      var count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        var key = new Key(in.readUTF(), in.readUTF());
+        var vector = new float[in.readInt()];
+        for (int j = 0; j < vector.length; j++) {
+          vector[j] = in.readFloat();
+        }
+        cache.put(key, vector);
+      }
+      log.info("Restored {} query embeddings from {}", count, file);
+    } catch (IOException e) {
+      log.warn("Could not restore the query embedding cache from {}", file, e);
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package es.nachobrito.rag.infrastructure.llm.langchain4j.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import es.nachobrito.rag.infrastructure.llm.langchain4j.store.VectorKernels;
+import io.micronaut.context.annotation.Property;
+import jakarta.inject.Singleton;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Remembers generated answers so that a paraphrase of an answered question can be served without
+ * running the chat model.
+ *
+ * <p>An answer is replayed when the new query embedding has a cosine similarity of at least {@code
+ * remo.response-cache.similarity} with a cached query, and the retrieved context is exactly the
+ * same (the same segments, in the same order). Entries expire after {@code
+ * remo.response-cache.ttl}, the cache holds at most {@code remo.response-cache.max-size} of them,
+ * and {@link #invalidateAll()} drops everything when documents are ingested, since new content can
+ * change the answer to an old question.
+ *
+ * <p>Lookups scan every entry whose context matches; with the cache bounded to a few thousand
+ * answers that is far cheaper than a single generated token.
+ *
+ * @author nacho
+ */
+@Singleton
+public class SemanticResponseCache {
+  private final Cache<UUID, Entry> cache;
+  private final float similarity;
+
+  record Entry(float[] query, String context, List<String> tokens) {}
+
+  public SemanticResponseCache(
+      @Property(name = "remo.response-cache.similarity", defaultValue = "0.95") float similarity,
+      @Property(name = "remo.response-cache.max-size", defaultValue = "1000") long maxSize,
+      @Property(name = "remo.response-cache.ttl", defaultValue = "1h") Duration ttl) {
+    this.similarity = similarity;
+    this.cache = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).build();
+  }
+
+  /**
+   * @param query the query embedding
+   * @param context identifies the retrieved context the answer was generated from
+   * @return the tokens of the closest cached answer within the similarity radius, if any
+   */
+  public Optional<List<String>> lookup(float[] query, String context) {
+    var normalized = VectorKernels.normalize(query);
+    Entry best = null;
+    var bestScore = similarity;
+    for (var entry : cache.asMap().values()) {
+      if (!entry.context().equals(context) || entry.query().length != normalized.length) {
+        continue;
+      }
+      var score = VectorKernels.dot(entry.query(), normalized);
+      if (score >= bestScore) {
+        best = entry;
+        bestScore = score;
+      }
+    }
+    return Optional.ofNullable(best).map(Entry::tokens);
+  }
+
+  public void put(float[] query, String context, List<String> tokens) {
+    cache.put(
+        UUID.randomUUID(), new Entry(VectorKernels.normalize(query), context, List.copyOf(tokens)));
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  public long size() {
+    return cache.estimatedSize();
+  }
+}
@@ -0,0 +1,322 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.cluster;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.filter.Filter;
+import es.nachobrito.rag.infrastructure.llm.langchain4j.store.DocumentStore;
+import es.nachobrito.rag.infrastructure.llm.langchain4j.store.PersistentEmbeddingStore;
+import io.micronaut.context.annotation.Property;
+import io.micronaut.json.JsonMapper;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Searches the local embedding store and, in cluster mode, the shards held by the nodes in {@code
+ * remo.cluster.peers}, merging their best matches.
+ *
+ * <p>The query is embedded once and sent to every peer at the same time, while the local store is
+ * searched. A peer lists the replicas of its shard separated by {@code |}; if the one asked does
+ * not answer within {@code remo.cluster.hedge-delay}, or fails, the same query goes to the next
+ * replica (or again to the same node, if it has none) and the first answer wins. A shard that has
+ * not answered after {@code remo.cluster.timeout} is left out of the results rather than holding
+ * the query back.
+ *
+ * <p>Nodes authenticate to each other with the shared {@code remo.cluster.secret}, sent on every
+ * shard search and checked by {@link ShardSearchController}; cluster mode refuses to start without
+ * one.
+ *
+ * @author nacho
+ */
+@Singleton
+public class ClusterSearch {
+  private static final Logger log = LoggerFactory.getLogger(ClusterSearch.class);
+  private static final String SEARCH_PATH = "/internal/search";
+  static final String SECRET_HEADER = "X-Cluster-Secret";
+
+  /** Searches the embedding store of this node. */
+  @FunctionalInterface
+  interface LocalStore {
+    List<EmbeddingMatch<TextSegment>> search(EmbeddingSearchRequest request);
+  }
+
+  private final LocalStore localStore;
+  private final Function<TextSegment, Map<String, String>> metadata;
+  private final List<List<URI>> shards;
+  private final JsonMapper jsonMapper;
+  private final Duration timeout;
+  private final Duration hedgeDelay;
+  private final String secret;
+  private final HttpClient httpClient;
+  // spreads the first request of every query across the replicas of a shard
+  private final AtomicInteger turn = new AtomicInteger();
+
+  public ClusterSearch(
+      PersistentEmbeddingStore embeddingStore,
+      DocumentStore documentStore,
+      JsonMapper jsonMapper,
+      @Property(name = "remo.cluster.enabled", defaultValue = "false") boolean enabled,
+      @Property(name = "remo.cluster.peers", defaultValue = "") String peers,
+      @Property(name = "remo.cluster.timeout", defaultValue = "500ms") Duration timeout,
+      @Property(name = "remo.cluster.hedge-delay", defaultValue = "100ms") Duration hedgeDelay,
+      @Property(name = "remo.cluster.secret", defaultValue = "") String secret) {
+    this(
+        request -> embeddingStore.search(request).matches(),
+        documentStore::metadata,
+        enabled ? shards(peers) : List.of(),
+        jsonMapper,
+        timeout,
+        hedgeDelay,
+        secret);
+    if (enabled && secret.isBlank()) {
+      throw new IllegalStateException(
+          "remo.cluster.secret must be set when remo.cluster.enabled is true");
+    }
+  }
+
+  ClusterSearch(
+      LocalStore localStore,
+      Function<TextSegment, Map<String, String>> metadata,
+      List<List<URI>> shards,
+      JsonMapper jsonMapper,
+      Duration timeout,
+      Duration hedgeDelay,
+      String secret) {
+    this.localStore = localStore;
+    this.metadata = metadata;
+    this.shards = shards;
+    this.jsonMapper = jsonMapper;
+    this.timeout = timeout;
+    this.hedgeDelay = hedgeDelay;
+    this.secret = secret;
+    this.httpClient =
+        shards.isEmpty() ? null : HttpClient.newBuilder().connectTimeout(timeout).build();
+    if (!shards.isEmpty()) {
+      log.info("Searching {} peer shards besides the local one: {}", shards.size(), shards);
+    }
+  }
+
+  /** Peers separated by commas, each one a list of replicas of its shard separated by '|'. */
+  private static List<List<URI>> shards(String peers) {
+    return Arrays.stream(peers.split(","))
+        .filter(peer -> !peer.isBlank())
+        .map(peer -> Arrays.stream(peer.split("\\|")).map(String::trim).map(URI::create).toList())
+        .toList();
+  }
+
+  /**
+   * Whether a shard search presenting this secret comes from a node of the cluster. Compares in
+   * constant time, and never accepts anything while no secret is configured.
+   */
+  boolean authorizes(String presented) {
+    return presented != null
+        && !secret.isEmpty()
+        && MessageDigest.isEqual(
+            secret.getBytes(StandardCharsets.UTF_8), presented.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Best matches, best first, across this node and every peer shard that answered in time. */
+  public List<EmbeddingMatch<TextSegment>> search(
+      Embedding query, Map<String, String> filters, int maxResults, double minScore) {
+    var remote = new ArrayList<CompletableFuture<List<ShardMatch>>>(shards.size());
+    if (!shards.isEmpty()) {
+      var body = write(new ShardSearchRequest(query.vector(), maxResults, minScore, filters));
+      shards.forEach(replicas -> remote.add(new ShardCall(replicas, body).start()));
+    }
+    var matches =
+        new ArrayList<>(localStore.search(request(query.vector(), filters, maxResults, minScore)));
+    if (remote.isEmpty()) {
+      return matches;
+    }
+    for (var shard : remote) {
+      shard.join().forEach(match -> matches.add(toEmbeddingMatch(match)));
+    }
+    matches.sort(Comparator.comparing(EmbeddingMatch<TextSegment>::score).reversed());
+    return matches.subList(0, Math.min(maxResults, matches.size()));
+  }
+
+  /** Best matches of this node alone, answering a coordinator. */
+  public List<ShardMatch> searchLocal(ShardSearchRequest request) {
+    return localStore
+        .search(
+            request(request.vector(), request.filters(), request.maxResults(), request.minScore()))
+        .stream()
+        .map(
+            match ->
+                new ShardMatch(
+                    match.embeddingId(),
+                    match.score(),
+                    match.embedded().text(),
+                    metadata.apply(match.embedded())))
+        .toList();
+  }
+
+  private static EmbeddingSearchRequest request(
+      float[] vector, Map<String, String> filters, int maxResults, double minScore) {
+    Filter filter =
+        filters == null
+            ? null
+            : filters.entrySet().stream()
+                .map(entry -> metadataKey(entry.getKey()).isEqualTo(entry.getValue()))
+                .reduce((left, right) -> left.and(right))
+                .orElse(null);
+    return EmbeddingSearchRequest.builder()
+        .queryEmbedding(Embedding.from(vector))
+        .filter(filter)
+        .maxResults(maxResults)
+        .minScore(minScore)
+        .build();
+  }
+
+  private static EmbeddingMatch<TextSegment> toEmbeddingMatch(ShardMatch match) {
+    return new EmbeddingMatch<>(
+        match.score(),
+        match.id(),
+        null,
+        TextSegment.from(match.text(), new Metadata(match.metadata())));
+  }
+
+  private CompletableFuture<List<ShardMatch>> post(URI replica, byte[] body) {
+    var request =
+        HttpRequest.newBuilder(replica.resolve(SEARCH_PATH))
+            .timeout(timeout)
+            .header("Content-Type", "application/json")
+            .header(SECRET_HEADER, secret)
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+            .build();
+    return httpClient
+        .sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+        .thenApply(
+            response -> {
+              if (response.statusCode() != 200) {
+                throw new IllegalStateException(
+                    "Shard %s answered %d".formatted(replica, response.statusCode()));
+              }
+              return read(response.body()).matches();
+            });
+  }
+
+  private byte[] write(ShardSearchRequest request) {
+    try {
+      return jsonMapper.writeValueAsBytes(request);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private ShardSearchResponse read(byte[] body) {
+    try {
+      return jsonMapper.readValue(body, ShardSearchResponse.class);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    if (httpClient != null) {
+      httpClient.close();
+    }
+  }
+
+  /**
+   * The query to one shard: a request to one of its replicas, and a hedge to the next one once the
+   * first is slow or fails. Never fails; a shard that cannot answer in time contributes nothing.
+   */
+  private final class ShardCall {
+    private final List<URI> replicas;
+    private final byte[] body;
+    private final int first;
+    private final CompletableFuture<List<ShardMatch>> result = new CompletableFuture<>();
+    private final List<CompletableFuture<?>> requests = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean hedged = new AtomicBoolean(hedgeDelay.isZero());
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private ShardCall(List<URI> replicas, byte[] body) {
+      this.replicas = replicas;
+      this.body = body;
+      this.first = Math.floorMod(turn.getAndIncrement(), replicas.size());
+    }
+
+    CompletableFuture<List<ShardMatch>> start() {
+      send(replicas.get(first));
+      if (!hedgeDelay.isZero()) {
+        CompletableFuture.delayedExecutor(hedgeDelay.toNanos(), NANOSECONDS).execute(this::hedge);
+      }
+      return result
+          .orTimeout(timeout.toNanos(), NANOSECONDS)
+          .whenComplete((matches, error) -> requests.forEach(request -> request.cancel(true)))
+          .exceptionally(
+              error -> {
+                log.warn("Shard {} left out of the results: {}", replicas, error.toString());
+                return List.of();
+              });
+    }
+
+    private void hedge() {
+      if (!result.isDone() && hedged.compareAndSet(false, true)) {
+        send(replicas.get((first + 1) % replicas.size()));
+      }
+    }
+
+    private void send(URI replica) {
+      var request = post(replica, body);
+      requests.add(request);
+      request.whenComplete(
+          (matches, error) -> {
+            if (error == null) {
+              result.complete(matches);
+              return;
+            }
+            var failed = failures.incrementAndGet();
+            if (!hedged.get()) {
+              hedge();
+            } else if (failed == (hedgeDelay.isZero() ? 1 : 2)) {
+              result.completeExceptionally(error);
+            }
+          });
+    }
+  }
+}
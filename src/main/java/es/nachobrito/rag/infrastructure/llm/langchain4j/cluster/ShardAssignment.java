@@ -0,0 +1,48 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.cluster;
+
+import io.micronaut.context.annotation.Property;
+import jakarta.inject.Singleton;
+
+/**
+ * Which documents this node ingests when the corpus is split across {@code
+ * remo.cluster.shard-count} nodes: those whose id hashes to {@code remo.cluster.shard-index}.
+ *
+ * @author nacho
+ */
+@Singleton
+public class ShardAssignment {
+  private final int index;
+  private final int count;
+
+  public ShardAssignment(
+      @Property(name = "remo.cluster.shard-index", defaultValue = "0") int index,
+      @Property(name = "remo.cluster.shard-count", defaultValue = "1") int count) {
+    if (count < 1 || index < 0 || index >= count) {
+      throw new IllegalArgumentException(
+          "shard index must be between 0 and the shard count, got %d of %d"
+              .formatted(index, count));
+    }
+    this.index = index;
+    this.count = count;
+  }
+
+  public boolean owns(String documentId) {
+    return count == 1 || Math.floorMod(documentId.hashCode(), count) == index;
+  }
+}
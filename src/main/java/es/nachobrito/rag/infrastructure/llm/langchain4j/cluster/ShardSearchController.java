@@ -0,0 +1,52 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.cluster;
+
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.core.annotation.Nullable;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.annotation.Body;
+import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Header;
+import io.micronaut.http.annotation.Post;
+
+/**
+ * Internal endpoint the coordinator queries this node's shard through. Only answers requests
+ * carrying the cluster secret, so the shard can't be read around the public API.
+ *
+ * @author nacho
+ */
+@Controller("/internal")
+@Requires(property = "remo.cluster.enabled", value = "true")
+public class ShardSearchController {
+  private final ClusterSearch clusterSearch;
+
+  public ShardSearchController(ClusterSearch clusterSearch) {
+    this.clusterSearch = clusterSearch;
+  }
+
+  @Post("/search")
+  HttpResponse<ShardSearchResponse> search(
+      @Header(ClusterSearch.SECRET_HEADER) @Nullable String secret,
+      @Body ShardSearchRequest request) {
+    if (!clusterSearch.authorizes(secret)) {
+      return HttpResponse.status(HttpStatus.UNAUTHORIZED);
+    }
+    return HttpResponse.ok(new ShardSearchResponse(clusterSearch.searchLocal(request)));
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.ingest;
+
+import es.nachobrito.rag.domain.document.Document;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * What is already in the embedding store: the content hash and number of segments of every ingested
+ * document, plus the id of the pipeline (embedding model and splitter) that produced them.
+ *
+ * <p>Segments are stored under ids derived from the document id (see {@link
+ * IngestionPipeline#segmentId}), so the manifest is enough to find and remove the segments of a
+ * document that changed or disappeared. It also keeps the {@link NearDuplicateIndex} of the stored
+ * segments.
+ *
+ * @author nacho
+ */
+public class IngestManifest {
+  private static final Logger log = LoggerFactory.getLogger(IngestManifest.class);
+  private static final int MAGIC = 0x494E4D46;
+
+  public record Entry(String hash, int segments) {}
+
+  private final Path file;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final String pipelineId;
+  private final NearDuplicateIndex duplicates;
+  private volatile boolean inSync;
+
+  private IngestManifest(Path file, String pipelineId, int maxDuplicateDistance) {
+    this.file = file;
+    this.pipelineId = pipelineId;
+    this.duplicates = new NearDuplicateIndex(maxDuplicateDistance);
+  }
+
+  /**
+   * A manifest that does not know what is in the store yet.
+   *
+   * @param file where {@link #persist()} writes; {@code null} keeps the manifest in memory only
+   */
+  public static IngestManifest empty(Path file, String pipelineId) {
+    return empty(file, pipelineId, -1);
+  }
+
+  /**
+   * @param maxDuplicateDistance see {@link NearDuplicateIndex}; it should be part of the pipeline
+   *     id, since it decides which segments are stored
+   */
+  public static IngestManifest empty(Path file, String pipelineId, int maxDuplicateDistance) {
+    return new IngestManifest(file, pipelineId, maxDuplicateDistance);
+  }
+
+  /**
+   * Reads the manifest from {@code file}. It is only {@link #isInSync() in sync} if the file
+   * exists, is readable and was written by the same pipeline; otherwise it starts empty.
+   */
+  public static IngestManifest load(Path file, String pipelineId) {
+    return load(file, pipelineId, -1);
+  }
+
+  public static IngestManifest load(Path file, String pipelineId, int maxDuplicateDistance) {
+    var manifest = empty(file, pipelineId, maxDuplicateDistance);
+    if (!Files.isRegularFile(file)) {
+      return manifest;
+    }
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("not an ingest manifest");
+      }
+      var storedPipeline = in.readUTF();
+      if (!storedPipeline.equals(pipelineId)) {
+        log.info("{} was written by {}, now using {}", file, storedPipeline, pipelineId);
+        return manifest;
+      }
+      var count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        manifest.entries.put(in.readUTF(), new Entry(in.readUTF(), in.readInt()));
+      }
+      manifest.duplicates.read(in);
+      manifest.inSync = true;
+    } catch (IOException e) {
+      log.warn("Could not read the ingest manifest {}", file, e);
+      manifest.entries.clear();
+      manifest.duplicates.clear();
+    }
+    return manifest;
+  }
+
+  /**
+   * Whether the manifest describes what is in the store. If not, the store has to be emptied and
+   * the manifest {@link #reset()} before ingesting.
+   */
+  public boolean isInSync() {
+    return inSync;
+  }
+
+  public String pipelineId() {
+    return pipelineId;
+  }
+
+  public Entry get(String documentId) {
+    return entries.get(documentId);
+  }
+
+  public void put(String documentId, Entry entry) {
+    entries.put(documentId, entry);
+  }
+
+  public void remove(String documentId) {
+    entries.remove(documentId);
+  }
+
+  public Set<String> documentIds() {
+    return Set.copyOf(entries.keySet());
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public NearDuplicateIndex duplicates() {
+    return duplicates;
+  }
+
+  /** Forgets every document, after the store has been emptied. */
+  public void reset() {
+    entries.clear();
+    duplicates.clear();
+    inSync = true;
+  }
+
+  /** Ids of the segments stored for a document. */
+  public List<String> segmentIds(String documentId) {
+    var entry = entries.get(documentId);
+    if (entry == null) {
+      return List.of();
+    }
+    return IntStream.range(0, entry.segments())
+        .mapToObj(i -> IngestionPipeline.segmentId(documentId, i))
+        .toList();
+  }
+
+  public void persist() {
+    if (file == null) {
+      return;
+    }
+    try {
+      var parent = file.toAbsolutePath().getParent();
+      Files.createDirectories(parent);
+      var tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+      try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        var snapshot = Map.copyOf(entries);
+        out.writeInt(MAGIC);
+        out.writeUTF(pipelineId);
+        out.writeInt(snapshot.size());
+        for (var entry : snapshot.entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeUTF(entry.getValue().hash());
+          out.writeInt(entry.getValue().segments());
+        }
+        duplicates.write(out);
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Could not save the ingest manifest to {}", file, e);
+    }
+  }
+
+  /**
+   * SHA-256 of the text and the metadata of a document, everything that ends up in its segments.
+   */
+  public static String hash(Document document) {
+    try {
+      var digest = MessageDigest.getInstance("SHA-256");
+      digest.update(document.getTextContent().getBytes(StandardCharsets.UTF_8));
+      for (var entry : new TreeMap<>(document.getMetadata()).entrySet()) {
+        digest.update((byte) 0);
+        digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '=');
+        digest.update(entry.getValue().getBytes(StandardCharsets.UTF_8));
+      }
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,361 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.ingest;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import es.nachobrito.rag.domain.document.Document;
+import io.micronaut.context.annotation.Property;
+import jakarta.inject.Singleton;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ingests a stream of documents through bounded, concurrent stages:
+ *
+ * <pre>
+ * read -> split -> filter -> batch -> embed (worker pool) -> store
+ * </pre>
+ *
+ * <p>Segments of consecutive documents are grouped in batches of {@code batchSize}, so the
+ * embedding model sees full batches even when documents are short. Every queue between stages is
+ * bounded: a slow stage blocks the ones before it instead of buffering the whole collection in
+ * memory. The store is written by a single thread.
+ *
+ * @author nacho
+ */
+@Singleton
+public class IngestionPipeline {
+  private static final Logger log = LoggerFactory.getLogger(IngestionPipeline.class);
+
+  private final int batchSize;
+  private final int workers;
+  private final int queueCapacity;
+
+  public IngestionPipeline(
+      @Property(name = "remo.ingest.batch-size", defaultValue = "32") int batchSize,
+      @Property(name = "remo.ingest.workers", defaultValue = "2") int workers,
+      @Property(name = "remo.ingest.queue-capacity", defaultValue = "8") int queueCapacity) {
+    if (batchSize < 1 || workers < 1 || queueCapacity < 1) {
+      throw new IllegalArgumentException("batch size, workers and queue capacity must be positive");
+    }
+    this.batchSize = batchSize;
+    this.workers = workers;
+    this.queueCapacity = queueCapacity;
+  }
+
+  /** Receives the embedded segments, under the ids given by {@link #segmentId}. */
+  @FunctionalInterface
+  public interface Sink {
+    void store(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments);
+  }
+
+  /**
+   * Decides, before a segment is embedded, whether it has to be stored at all; segments it rejects
+   * keep their position, and so their id, in the document.
+   */
+  @FunctionalInterface
+  public interface SegmentFilter {
+    boolean accept(String documentId, String segmentId, TextSegment segment);
+  }
+
+  /** Throughput of one run; {@code skipped} segments were rejected by the filter. */
+  public record Stats(long documents, long segments, long skipped, long batches, Duration elapsed) {
+    public double documentsPerSecond() {
+      return perSecond(documents);
+    }
+
+    public double segmentsPerSecond() {
+      return perSecond(segments);
+    }
+
+    private double perSecond(long count) {
+      var seconds = elapsed.toNanos() / 1e9;
+      return seconds == 0 ? 0 : count / seconds;
+    }
+  }
+
+  /** Runs every document through the pipeline, storing every segment. */
+  public Stats run(
+      Stream<Document> documents,
+      Function<Document, List<TextSegment>> splitter,
+      Function<List<TextSegment>, List<Embedding>> embedder,
+      Sink sink) {
+    return run(documents, splitter, (documentId, segmentId, segment) -> true, embedder, sink);
+  }
+
+  /**
+   * Runs every document through the pipeline and returns when all of them are stored. A parallel
+   * stream is consumed in parallel, in no particular order.
+   *
+   * @param splitter turns a document into segments; called from a single thread
+   * @param filter decides which segments are embedded; called from a single thread
+   * @param embedder embeds a batch of segments; called concurrently from the worker pool
+   * @param sink receives every embedded batch; called from a single thread
+   * @throws IngestionException if any stage fails; the other stages are stopped
+   */
+  public Stats run(
+      Stream<Document> documents,
+      Function<Document, List<TextSegment>> splitter,
+      SegmentFilter filter,
+      Function<List<TextSegment>, List<Embedding>> embedder,
+      Sink sink) {
+    var start = System.nanoTime();
+    var documentCount = new AtomicLong();
+    var segmentCount = new AtomicLong();
+    var skippedCount = new AtomicLong();
+    var batchCount = new AtomicLong();
+    var stopped = new AtomicBoolean();
+
+    BlockingQueue<Item<Document>> read = new ArrayBlockingQueue<>(queueCapacity * batchSize);
+    BlockingQueue<Item<Batch>> batched = new ArrayBlockingQueue<>(queueCapacity);
+    BlockingQueue<Item<Embedded>> embedded = new ArrayBlockingQueue<>(queueCapacity);
+
+    var executor =
+        Executors.newFixedThreadPool(
+            workers + 3, Thread.ofPlatform().daemon().name("ingest-", 1).factory());
+    try {
+      var stages = new ArrayList<CompletableFuture<Void>>();
+      stages.add(
+          stage(
+              executor,
+              () -> {
+                // a parallel stream reads on the common pool, so its threads are not interrupted
+                // by a failure elsewhere and check the stopped flag instead
+                try (documents) {
+                  documents.forEach(
+                      document -> {
+                        offer(read, Item.of(document), stopped);
+                        documentCount.incrementAndGet();
+                      });
+                }
+                read.put(Item.end());
+              }));
+      stages.add(
+          stage(
+              executor,
+              () -> {
+                var batch = new Batch(batchSize);
+                for (var item = read.take(); !item.isEnd(); item = read.take()) {
+                  var document = item.value();
+                  var segments = splitter.apply(document);
+                  for (int i = 0; i < segments.size(); i++) {
+                    var id = segmentId(document.getId(), i);
+                    if (!filter.accept(document.getId(), id, segments.get(i))) {
+                      skippedCount.incrementAndGet();
+                      continue;
+                    }
+                    batch.ids().add(id);
+                    batch.segments().add(segments.get(i));
+                    if (batch.segments().size() == batchSize) {
+                      batched.put(Item.of(batch));
+                      batch = new Batch(batchSize);
+                    }
+                  }
+                }
+                if (!batch.segments().isEmpty()) {
+                  batched.put(Item.of(batch));
+                }
+                for (int i = 0; i < workers; i++) {
+                  batched.put(Item.end());
+                }
+              }));
+      for (int i = 0; i < workers; i++) {
+        stages.add(
+            stage(
+                executor,
+                () -> {
+                  for (var item = batched.take(); !item.isEnd(); item = batched.take()) {
+                    var batch = item.value();
+                    var segments = batch.segments();
+                    var embeddings = embedder.apply(segments);
+                    if (embeddings.size() != segments.size()) {
+                      throw new IngestionException(
+                          "Got %d embeddings for %d segments"
+                              .formatted(embeddings.size(), segments.size()));
+                    }
+                    embedded.put(Item.of(new Embedded(batch.ids(), embeddings, segments)));
+                  }
+                  embedded.put(Item.end());
+                }));
+      }
+      stages.add(
+          stage(
+              executor,
+              () -> {
+                var finished = 0;
+                while (finished < workers) {
+                  var item = embedded.take();
+                  if (item.isEnd()) {
+                    finished++;
+                    continue;
+                  }
+                  var batch = item.value();
+                  sink.store(batch.ids(), batch.embeddings(), batch.segments());
+                  segmentCount.addAndGet(batch.segments().size());
+                  batchCount.incrementAndGet();
+                }
+              }));
+      for (var stage : stages) {
+        stage.whenComplete(
+            (ignored, error) -> {
+              if (error != null) {
+                stopped.set(true);
+                executor.shutdownNow();
+              }
+            });
+      }
+      await(stages);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    var stats =
+        new Stats(
+            documentCount.get(),
+            segmentCount.get(),
+            skippedCount.get(),
+            batchCount.get(),
+            Duration.ofNanos(System.nanoTime() - start));
+    log.info(
+        "Ingested {} documents ({} segments, {} skipped, {} batches) in {} ms: {} documents/s, {}"
+            + " segments/s",
+        stats.documents(),
+        stats.segments(),
+        stats.skipped(),
+        stats.batches(),
+        stats.elapsed().toMillis(),
+        "%.1f".formatted(stats.documentsPerSecond()),
+        "%.1f".formatted(stats.segmentsPerSecond()));
+    return stats;
+  }
+
+  private static <T> void offer(BlockingQueue<T> queue, T item, AtomicBoolean stopped) {
+    try {
+      while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+        if (stopped.get()) {
+          throw new IngestionException("Ingestion stopped", new InterruptedException());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IngestionException("Ingestion stage interrupted", e);
+    }
+  }
+
+  private static CompletableFuture<Void> stage(ExecutorService executor, Stage stage) {
+    return CompletableFuture.runAsync(
+        () -> {
+          try {
+            stage.run();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IngestionException("Ingestion stage interrupted", e);
+          } catch (Exception e) {
+            throw e instanceof RuntimeException runtime ? runtime : new IngestionException(e);
+          }
+        },
+        executor);
+  }
+
+  /**
+   * Waits for every stage and rethrows the failure that stopped the pipeline, rather than the
+   * interruptions it caused in the other stages.
+   */
+  private static void await(List<CompletableFuture<Void>> stages) {
+    try {
+      CompletableFuture.allOf(stages.toArray(CompletableFuture[]::new)).join();
+    } catch (CompletionException ignored) {
+      // fall through to pick the root cause below
+    }
+    RuntimeException interrupted = null;
+    for (var stage : stages) {
+      try {
+        stage.join();
+      } catch (CompletionException e) {
+        var cause = e.getCause();
+        var failure =
+            cause instanceof RuntimeException runtime ? runtime : new IngestionException(cause);
+        if (!isInterruption(failure)) {
+          throw failure;
+        }
+        interrupted = failure;
+      }
+    }
+    if (interrupted != null) {
+      throw interrupted;
+    }
+  }
+
+  private static boolean isInterruption(Throwable error) {
+    return error instanceof IngestionException && error.getCause() instanceof InterruptedException;
+  }
+
+  @FunctionalInterface
+  private interface Stage {
+    void run() throws Exception;
+  }
+
+  /**
+   * Id under which a segment of a document is stored: a name-based UUID of the document id and the
+   * position of the segment, so re-ingesting a document overwrites its previous segments.
+   */
+  public static String segmentId(String documentId, int index) {
+    return UUID.nameUUIDFromBytes((documentId + "#" + index).getBytes(StandardCharsets.UTF_8))
+        .toString();
+  }
+
+  private record Batch(List<String> ids, List<TextSegment> segments) {
+    Batch(int capacity) {
+      this(new ArrayList<>(capacity), new ArrayList<>(capacity));
+    }
+  }
+
+  private record Embedded(
+      List<String> ids, List<Embedding> embeddings, List<TextSegment> segments) {}
+
+  /** Queue element; {@link #end()} tells the next stage its producer is done. */
+  private record Item<T>(T value) {
+    static <T> Item<T> of(T value) {
+      return new Item<>(value);
+    }
+
+    static <T> Item<T> end() {
+      return new Item<>(null);
+    }
+
+    boolean isEnd() {
+      return value == null;
+    }
+  }
+}
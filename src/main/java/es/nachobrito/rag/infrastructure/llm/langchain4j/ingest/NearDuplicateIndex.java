@@ -0,0 +1,284 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.ingest;
+
+import dev.langchain4j.data.segment.TextSegment;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * SimHash fingerprints of the stored segments, to find near-duplicates of a new segment before it
+ * is embedded.
+ *
+ * <p>A fingerprint is a 64-bit SimHash of the words and word pairs of the segment text and its
+ * metadata values, so segments that differ in case, punctuation or a few words get fingerprints a
+ * few bits apart. Two segments are near-duplicates when their fingerprints differ in at most {@code
+ * maxDistance} bits. The fingerprint is cut in {@code maxDistance + 1} bands and indexed by each of
+ * them: two fingerprints that close must share at least one band, so a lookup only compares the
+ * segments in the same bucket of some band.
+ *
+ * <p>A near-duplicate is not stored: it is collapsed onto the stored (canonical) segment, which
+ * keeps the ids of every document collapsed onto it. When a canonical segment is removed, those
+ * documents are handed back to be ingested again.
+ *
+ * @author nacho
+ */
+public class NearDuplicateIndex {
+  private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+  private final int maxDistance;
+  private final int bandWidth;
+  private final List<Map<Long, List<String>>> bands = new ArrayList<>();
+  private final Map<String, Long> fingerprints = new HashMap<>();
+  // canonical segment id -> documents with a segment collapsed onto it, and the other way round
+  private final Map<String, Set<String>> duplicates = new HashMap<>();
+  private final Map<String, Set<String>> canonicals = new HashMap<>();
+
+  /**
+   * @param maxDistance bits two fingerprints may differ in to be near-duplicates; negative disables
+   *     deduplication
+   */
+  public NearDuplicateIndex(int maxDistance) {
+    if (maxDistance > 15) {
+      throw new IllegalArgumentException("maxDistance must be at most 15");
+    }
+    this.maxDistance = maxDistance;
+    var bandCount = Math.max(0, maxDistance + 1);
+    this.bandWidth = bandCount == 0 ? 0 : Long.SIZE / bandCount;
+    for (int i = 0; i < bandCount; i++) {
+      bands.add(new HashMap<>());
+    }
+  }
+
+  public boolean isEnabled() {
+    return maxDistance >= 0;
+  }
+
+  /**
+   * Returns the id of a stored near-duplicate of the segment, recording that the document has a
+   * segment collapsed onto it; or {@code null}, after recording the segment as a new canonical one
+   * that the caller has to store.
+   */
+  public String canonical(String documentId, String segmentId, TextSegment segment) {
+    return canonical(documentId, segmentId, segment.text(), segment.metadata().toMap());
+  }
+
+  /**
+   * Like {@link #canonical(String, String, TextSegment)}, for a segment whose metadata is kept
+   * elsewhere.
+   */
+  public synchronized String canonical(
+      String documentId, String segmentId, String text, Map<String, ?> metadata) {
+    if (!isEnabled()) {
+      return null;
+    }
+    var fingerprint = fingerprint(text, metadata);
+    var match = find(fingerprint);
+    if (match != null) {
+      duplicates.computeIfAbsent(match, id -> new HashSet<>()).add(documentId);
+      canonicals.computeIfAbsent(documentId, id -> new HashSet<>()).add(match);
+      return match;
+    }
+    add(segmentId, fingerprint);
+    return null;
+  }
+
+  private String find(long fingerprint) {
+    for (int band = 0; band < bands.size(); band++) {
+      var bucket = bands.get(band).get(band(fingerprint, band));
+      if (bucket == null) {
+        continue;
+      }
+      for (var candidate : bucket) {
+        if (Long.bitCount(fingerprint ^ fingerprints.get(candidate)) <= maxDistance) {
+          return candidate;
+        }
+      }
+    }
+    return null;
+  }
+
+  private void add(String segmentId, long fingerprint) {
+    fingerprints.put(segmentId, fingerprint);
+    for (int band = 0; band < bands.size(); band++) {
+      bands
+          .get(band)
+          .computeIfAbsent(band(fingerprint, band), key -> new ArrayList<>(1))
+          .add(segmentId);
+    }
+  }
+
+  /**
+   * Forgets the segments of a document that is being removed or replaced.
+   *
+   * @return the other documents that had segments collapsed onto the removed ones, and have lost
+   *     them
+   */
+  public synchronized Set<String> remove(String documentId, Collection<String> segmentIds) {
+    var orphaned = new HashSet<String>();
+    var collapsed = canonicals.remove(documentId);
+    if (collapsed != null) {
+      for (var canonical : collapsed) {
+        var documents = duplicates.get(canonical);
+        documents.remove(documentId);
+        if (documents.isEmpty()) {
+          duplicates.remove(canonical);
+        }
+      }
+    }
+    for (var segmentId : segmentIds) {
+      var fingerprint = fingerprints.remove(segmentId);
+      if (fingerprint == null) {
+        continue;
+      }
+      for (int band = 0; band < bands.size(); band++) {
+        var key = band(fingerprint, band);
+        var bucket = bands.get(band).get(key);
+        bucket.remove(segmentId);
+        if (bucket.isEmpty()) {
+          bands.get(band).remove(key);
+        }
+      }
+      var documents = duplicates.remove(segmentId);
+      if (documents != null) {
+        for (var document : documents) {
+          var collapsedOnto = canonicals.get(document);
+          collapsedOnto.remove(segmentId);
+          if (collapsedOnto.isEmpty()) {
+            canonicals.remove(document);
+          }
+        }
+        orphaned.addAll(documents);
+      }
+    }
+    orphaned.remove(documentId);
+    return orphaned;
+  }
+
+  /** Documents with a segment collapsed onto the given canonical segment. */
+  public synchronized Set<String> duplicatesOf(String segmentId) {
+    return Set.copyOf(duplicates.getOrDefault(segmentId, Set.of()));
+  }
+
+  /** Number of canonical segments. */
+  public synchronized int size() {
+    return fingerprints.size();
+  }
+
+  synchronized void clear() {
+    fingerprints.clear();
+    duplicates.clear();
+    canonicals.clear();
+    bands.forEach(Map::clear);
+  }
+
+  synchronized void write(DataOutputStream out) throws IOException {
+    out.writeInt(fingerprints.size());
+    for (var entry : fingerprints.entrySet()) {
+      out.writeUTF(entry.getKey());
+      out.writeLong(entry.getValue());
+      var documents = duplicates.getOrDefault(entry.getKey(), Set.of());
+      out.writeInt(documents.size());
+      for (var document : documents) {
+        out.writeUTF(document);
+      }
+    }
+  }
+
+  synchronized void read(DataInputStream in) throws IOException {
+    var count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      var segmentId = in.readUTF();
+      add(segmentId, in.readLong());
+      var documents = in.readInt();
+      for (int j = 0; j < documents; j++) {
+        var document = in.readUTF();
+        duplicates.computeIfAbsent(segmentId, id -> new HashSet<>()).add(document);
+        canonicals.computeIfAbsent(document, id -> new HashSet<>()).add(segmentId);
+      }
+    }
+  }
+
+  private long band(long fingerprint, int band) {
+    var width = band == bands.size() - 1 ? Long.SIZE - band * bandWidth : bandWidth;
+    var mask = width == Long.SIZE ? -1L : (1L << width) - 1;
+    return (fingerprint >>> (band * bandWidth)) & mask;
+  }
+
+  /** SimHash of the words and consecutive word pairs of the text and the metadata values. */
+  static long fingerprint(TextSegment segment) {
+    return fingerprint(segment.text(), segment.metadata().toMap());
+  }
+
+  static long fingerprint(String segmentText, Map<String, ?> metadata) {
+    var text = new StringBuilder(segmentText);
+    for (var value : new TreeMap<>(metadata).values()) {
+      text.append(' ').append(value);
+    }
+    var counts = new int[Long.SIZE];
+    String previous = null;
+    for (var word : WORD_SEPARATOR.split(text.toString().toLowerCase(Locale.ROOT))) {
+      if (word.isEmpty()) {
+        continue;
+      }
+      accumulate(counts, hash(word));
+      if (previous != null) {
+        accumulate(counts, hash(previous + ' ' + word));
+      }
+      previous = word;
+    }
+    var fingerprint = 0L;
+    for (int bit = 0; bit < Long.SIZE; bit++) {
+      if (counts[bit] > 0) {
+        fingerprint |= 1L << bit;
+      }
+    }
+    return fingerprint;
+  }
+
+  private static void accumulate(int[] counts, long hash) {
+    for (int bit = 0; bit < Long.SIZE; bit++) {
+      counts[bit] += (hash >>> bit & 1) == 1 ? 1 : -1;
+    }
+  }
+
+  /** FNV-1a, then the MurmurHash3 finalizer to spread short words over all 64 bits. */
+  private static long hash(String feature) {
+    var hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < feature.length(); i++) {
+      hash ^= feature.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
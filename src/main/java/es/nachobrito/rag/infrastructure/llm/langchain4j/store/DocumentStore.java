@@ -0,0 +1,501 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import es.nachobrito.rag.domain.document.Document;
+import io.micronaut.context.annotation.Property;
+import jakarta.inject.Singleton;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Text and metadata of every ingested document, stored once and referenced from its segments by an
+ * int ordinal.
+ *
+ * <p>Segments only carry the ordinal ({@link #ORDINAL}) and the metadata values short enough to be
+ * useful as search filters (at most {@code remo.documents.inline-metadata-max-length} characters);
+ * long values such as FAQ answers are resolved here. On the heap, keys and values are interned, so
+ * an answer shared by several documents is kept once, and dropped with the last document using it.
+ * With {@code remo.documents.off-heap} the documents are encoded in off-heap memory instead, and
+ * only decoded when a segment is resolved.
+ *
+ * <p>Removing or replacing a document does not drop the stored version right away: the segments of
+ * the published embedding snapshot still reference it, and keep resolving to it until {@link
+ * #publish()} is called once the embedding store has published their removal. A replaced document
+ * is stored again under a new ordinal, so its new segments never resolve to the old version either.
+ *
+ * <p>The store is persisted next to the embedding store file, in {@code <file>.documents}.
+ *
+ * @author nacho
+ */
+@Singleton
+public class DocumentStore {
+  public static final String ORDINAL = "document";
+  private static final Logger log = LoggerFactory.getLogger(DocumentStore.class);
+  private static final int MAGIC = 0x444F4353;
+
+  private final Path file;
+  private final int inlineMetadataMaxLength;
+  private final boolean offHeap;
+  // interned metadata keys and values of the stored documents, with how many of them use each one
+  private final Map<String, Interned> strings = new HashMap<>();
+  private final Map<String, Integer> ordinals = new HashMap<>();
+  // removed or replaced since the last publish, still readable until then
+  private final List<Integer> retired = new ArrayList<>();
+  // dropped by a publish, to be reused by later documents
+  private final ArrayDeque<Integer> free = new ArrayDeque<>();
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Records records;
+  private int nextOrdinal;
+  private boolean loaded;
+
+  public DocumentStore(
+      PersistentEmbeddingStore embeddingStore,
+      @Property(name = "remo.documents.off-heap", defaultValue = "false") boolean offHeap,
+      @Property(name = "remo.documents.inline-metadata-max-length", defaultValue = "64")
+          int inlineMetadataMaxLength) {
+    this(documentsFile(embeddingStore.file()), offHeap, inlineMetadataMaxLength);
+    if (embeddingStore.file() != null && Files.exists(embeddingStore.file())) {
+      load();
+    }
+  }
+
+  DocumentStore(Path file, boolean offHeap, int inlineMetadataMaxLength) {
+    this.file = file;
+    this.inlineMetadataMaxLength = inlineMetadataMaxLength;
+    this.offHeap = offHeap;
+    this.records = offHeap ? new OffHeapRecords() : new HeapRecords();
+  }
+
+  private static Path documentsFile(Path storeFile) {
+    return storeFile == null
+        ? null
+        : storeFile.resolveSibling(storeFile.getFileName() + ".documents");
+  }
+
+  /**
+   * Whether the documents of a previous run were read. If not, the embedding store has segments
+   * whose documents are unknown, and has to be ingested again.
+   */
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * Stores a document, replacing a previous version with the same id from the next {@link
+   * #publish()} on, and returns the metadata its segments should carry.
+   */
+  public Metadata add(Document document) {
+    var metadata = new LinkedHashMap<String, String>();
+    int ordinal;
+    lock.writeLock().lock();
+    try {
+      document.getMetadata().forEach((key, value) -> metadata.put(intern(key), intern(value)));
+      ordinal = free.isEmpty() ? nextOrdinal++ : free.poll();
+      var previous = ordinals.put(document.getId(), ordinal);
+      if (previous != null) {
+        retired.add(previous);
+      }
+      records.set(ordinal, document.getId(), document.getTextContent(), metadata);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    var inline = new HashMap<String, Object>();
+    metadata.forEach(
+        (key, value) -> {
+          if (value.length() <= inlineMetadataMaxLength) {
+            inline.put(key, value);
+          }
+        });
+    inline.put(ORDINAL, ordinal);
+    return new Metadata(inline);
+  }
+
+  /** Removes a document; its segments still resolve to it until the next {@link #publish()}. */
+  public void remove(String documentId) {
+    lock.writeLock().lock();
+    try {
+      var ordinal = ordinals.remove(documentId);
+      if (ordinal != null) {
+        retired.add(ordinal);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Drops the documents removed or replaced since the last call. To be called once the embedding
+   * store has published the removal of their segments, so no search finds a segment whose document
+   * is gone.
+   */
+  public void publish() {
+    lock.writeLock().lock();
+    try {
+      for (var ordinal : retired) {
+        release(records.metadata(ordinal));
+        records.remove(ordinal);
+        free.add(ordinal);
+      }
+      retired.clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Text of the document a segment was split from, or {@code null} if it is no longer stored. */
+  public String text(TextSegment segment) {
+    var ordinal = ordinal(segment);
+    if (ordinal == null) {
+      return null;
+    }
+    lock.readLock().lock();
+    try {
+      return records.contains(ordinal) ? records.text(ordinal) : null;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Metadata of the document a segment was split from; the segment's own metadata if it does not
+   * reference a stored document.
+   */
+  public Map<String, String> metadata(TextSegment segment) {
+    var ordinal = ordinal(segment);
+    if (ordinal != null) {
+      lock.readLock().lock();
+      try {
+        if (records.contains(ordinal)) {
+          return records.metadata(ordinal);
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+    var own = new HashMap<String, String>();
+    segment.metadata().toMap().forEach((key, value) -> own.put(key, String.valueOf(value)));
+    own.remove(ORDINAL);
+    return own;
+  }
+
+  /** A metadata value of the document a segment was split from. */
+  public String metadata(TextSegment segment, String key) {
+    var inline = segment.metadata().getString(key);
+    return inline != null ? inline : metadata(segment).get(key);
+  }
+
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return ordinals.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Removes every document, as {@link #remove} does. */
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      retired.addAll(ordinals.values());
+      ordinals.clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private static Integer ordinal(TextSegment segment) {
+    return segment.metadata().getInteger(ORDINAL);
+  }
+
+  /** The shared instance of a metadata key or value, counting one more use of it. */
+  private String intern(String value) {
+    if (offHeap) {
+      return value;
+    }
+    var interned = strings.computeIfAbsent(value, Interned::new);
+    interned.references++;
+    return interned.value;
+  }
+
+  /** Counts one use less of the keys and values of a document, dropping those no longer used. */
+  private void release(Map<String, String> metadata) {
+    if (offHeap) {
+      return;
+    }
+    metadata.forEach(
+        (key, value) -> {
+          release(key);
+          release(value);
+        });
+  }
+
+  private void release(String value) {
+    strings.computeIfPresent(
+        value, (key, interned) -> --interned.references == 0 ? null : interned);
+  }
+
+  /** Number of distinct metadata keys and values interned. */
+  int internedStrings() {
+    lock.readLock().lock();
+    try {
+      return strings.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Writes every stored document; ordinals are kept, since the stored segments reference them. */
+  public void persist() {
+    if (file == null) {
+      return;
+    }
+    var out = new SectionWriter();
+    lock.readLock().lock();
+    try {
+      out.putInt(MAGIC).putInt(nextOrdinal).putInt(ordinals.size());
+      for (var ordinal : ordinals.values()) {
+        out.putInt(ordinal)
+            .putString(records.id(ordinal))
+            .putString(records.text(ordinal))
+            .putInt(records.metadata(ordinal).size());
+        for (var entry : records.metadata(ordinal).entrySet()) {
+          out.putString(entry.getKey()).putString(entry.getValue());
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    try {
+      var parent = file.toAbsolutePath().getParent();
+      Files.createDirectories(parent);
+      var tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+      try (var channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+        out.writeTo(channel);
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Could not save the document store to {}", file, e);
+    }
+  }
+
+  void load() {
+    if (!Files.isRegularFile(file)) {
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      var in = new SegmentReader(IndexFile.map(file));
+      if (in.segment().byteSize() < Integer.BYTES || in.getInt() != MAGIC) {
+        throw new IOException("not a document store");
+      }
+      nextOrdinal = in.getInt();
+      var count = in.getInt();
+      for (int i = 0; i < count; i++) {
+        var ordinal = in.getInt();
+        var id = in.getString();
+        var text = in.getString();
+        var metadata = new LinkedHashMap<String, String>();
+        var entries = in.getInt();
+        for (int j = 0; j < entries; j++) {
+          metadata.put(intern(in.getString()), intern(in.getString()));
+        }
+        ordinals.put(id, ordinal);
+        records.set(ordinal, id, text, metadata);
+      }
+      for (int ordinal = 0; ordinal < nextOrdinal; ordinal++) {
+        if (!records.contains(ordinal)) {
+          free.add(ordinal);
+        }
+      }
+      loaded = true;
+      log.info("Loaded {} documents from {}", count, file);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Could not read the document store {}", file, e);
+      ordinals.clear();
+      records.clear();
+      strings.clear();
+      free.clear();
+      nextOrdinal = 0;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private static final class Interned {
+    private final String value;
+    private int references;
+
+    private Interned(String value) {
+      this.value = value;
+    }
+  }
+
+  /** Storage of the documents by ordinal; accessed with the store's lock held. */
+  private interface Records {
+    void set(int ordinal, String id, String text, Map<String, String> metadata);
+
+    void remove(int ordinal);
+
+    boolean contains(int ordinal);
+
+    String id(int ordinal);
+
+    String text(int ordinal);
+
+    Map<String, String> metadata(int ordinal);
+
+    void clear();
+  }
+
+  private static final class HeapRecords implements Records {
+    private record Entry(String id, String text, Map<String, String> metadata) {}
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    @Override
+    public void set(int ordinal, String id, String text, Map<String, String> metadata) {
+      while (entries.size() <= ordinal) {
+        entries.add(null);
+      }
+      entries.set(ordinal, new Entry(id, text, Map.copyOf(metadata)));
+    }
+
+    @Override
+    public void remove(int ordinal) {
+      entries.set(ordinal, null);
+    }
+
+    @Override
+    public boolean contains(int ordinal) {
+      return ordinal >= 0 && ordinal < entries.size() && entries.get(ordinal) != null;
+    }
+
+    @Override
+    public String id(int ordinal) {
+      return entries.get(ordinal).id();
+    }
+
+    @Override
+    public String text(int ordinal) {
+      return entries.get(ordinal).text();
+    }
+
+    @Override
+    public Map<String, String> metadata(int ordinal) {
+      return entries.get(ordinal).metadata();
+    }
+
+    @Override
+    public void clear() {
+      entries.clear();
+    }
+  }
+
+  /**
+   * Encodes every document in one growable off-heap segment, like {@link OffHeapVectorStorage}; a
+   * replaced document is appended again and its old bytes are left behind until the next load.
+   */
+  private static final class OffHeapRecords implements Records {
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private MemorySegment data = MemorySegment.NULL;
+    private long size;
+    private long[] offsets = new long[0];
+
+    @Override
+    public void set(int ordinal, String id, String text, Map<String, String> metadata) {
+      var record = new SectionWriter().putString(id).putString(text).putInt(metadata.size());
+      metadata.forEach((key, value) -> record.putString(key).putString(value));
+      if (size + record.position() > data.byteSize()) {
+        var capacity = Math.max(size + record.position(), Math.max(INITIAL_CAPACITY, size * 2));
+        var grown = Arena.ofAuto().allocate(capacity);
+        MemorySegment.copy(data, 0, grown, 0, size);
+        data = grown;
+      }
+      record.writeTo(data, size);
+      if (ordinal >= offsets.length) {
+        var grown = Arrays.copyOf(offsets, Math.max(ordinal + 1, offsets.length * 2));
+        Arrays.fill(grown, offsets.length, grown.length, -1);
+        offsets = grown;
+      }
+      offsets[ordinal] = size;
+      size += record.position();
+    }
+
+    @Override
+    public void remove(int ordinal) {
+      offsets[ordinal] = -1;
+    }
+
+    @Override
+    public boolean contains(int ordinal) {
+      return ordinal >= 0 && ordinal < offsets.length && offsets[ordinal] >= 0;
+    }
+
+    @Override
+    public String id(int ordinal) {
+      return new SegmentReader(data, offsets[ordinal]).getString();
+    }
+
+    @Override
+    public String text(int ordinal) {
+      var in = new SegmentReader(data, offsets[ordinal]);
+      in.skipString();
+      return in.getString();
+    }
+
+    @Override
+    public Map<String, String> metadata(int ordinal) {
+      var in = new SegmentReader(data, offsets[ordinal]);
+      in.skipString();
+      in.skipString();
+      var count = in.getInt();
+      var metadata = new LinkedHashMap<String, String>(count * 2);
+      for (int i = 0; i < count; i++) {
+        metadata.put(in.getString(), in.getString());
+      }
+      return metadata;
+    }
+
+    @Override
+    public void clear() {
+      data = MemorySegment.NULL;
+      size = 0;
+      offsets = new long[0];
+    }
+  }
+}
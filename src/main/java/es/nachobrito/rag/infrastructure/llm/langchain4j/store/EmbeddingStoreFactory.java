@@ -0,0 +1,146 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import io.micronaut.context.annotation.Factory;
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Requires;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the embedding store selected with {@code remo.index.type}.
+ *
+ * @author nacho
+ */
+@Factory
+public class EmbeddingStoreFactory {
+  private static final Logger log = LoggerFactory.getLogger(EmbeddingStoreFactory.class);
+
+  private final String cacheFilePath;
+  private final int shards;
+  private final int maxGenerations;
+  // searches the shards of every sharded store, including the ones created by compactions
+  private ExecutorService shardExecutor;
+
+  public EmbeddingStoreFactory(
+      @Property(name = "remo.embeddings.cache") String cacheFilePath,
+      @Property(name = "remo.index.shards", defaultValue = "1") int shards,
+      @Property(name = "remo.index.max-generations", defaultValue = "4") int maxGenerations) {
+    this.cacheFilePath = cacheFilePath;
+    this.shards = shards;
+    this.maxGenerations = maxGenerations;
+  }
+
+  @Singleton
+  @Requires(property = "remo.index.type", value = "flat", defaultValue = "flat")
+  PersistentEmbeddingStore flatEmbeddingStore() {
+    log.info("Using flat embedding store");
+    return ordinalStore("flat", FlatEmbeddingStore::load, FlatEmbeddingStore::new);
+  }
+
+  @Singleton
+  @Requires(property = "remo.index.type", value = "in-memory")
+  PersistentEmbeddingStore inMemoryEmbeddingStore() {
+    log.info("Using in-memory embedding store persisted to {}", cacheFilePath);
+    return new JsonEmbeddingStore(Path.of(cacheFilePath));
+  }
+
+  @Singleton
+  @Requires(property = "remo.index.type", value = "hnsw")
+  PersistentEmbeddingStore hnswEmbeddingStore(
+      @Property(name = "remo.index.hnsw.m", defaultValue = "16") int m,
+      @Property(name = "remo.index.hnsw.ef-construction", defaultValue = "200") int efConstruction,
+      @Property(name = "remo.index.hnsw.ef-search", defaultValue = "64") int efSearch) {
+    log.info(
+        "Using HNSW embedding store (m={}, efConstruction={}, efSearch={})",
+        m,
+        efConstruction,
+        efSearch);
+    return ordinalStore(
+        "hnsw",
+        file -> HnswEmbeddingStore.load(file, m, efConstruction, efSearch),
+        file -> new HnswEmbeddingStore(file, m, efConstruction, efSearch));
+  }
+
+  @Singleton
+  @Requires(property = "remo.index.type", value = "quantized")
+  PersistentEmbeddingStore quantizedEmbeddingStore(
+      @Property(name = "remo.index.quantized.encoding", defaultValue = "int8")
+          QuantizedEmbeddingStore.Encoding encoding,
+      @Property(name = "remo.index.quantized.rerank-factor", defaultValue = "10")
+          int rerankFactor) {
+    log.info(
+        "Using quantized embedding store (encoding={}, rerankFactor={})", encoding, rerankFactor);
+    return ordinalStore(
+        "quantized",
+        file -> QuantizedEmbeddingStore.load(file, encoding, rerankFactor),
+        file -> new QuantizedEmbeddingStore(file, encoding, rerankFactor));
+  }
+
+  /**
+   * Loads a single store, or a {@link ShardedEmbeddingStore} of {@code remo.index.shards} of them,
+   * behind a {@link GenerationalEmbeddingStore} so ingestion never blocks searches. A sharded index
+   * lives in a file of its own, so switching between the two starts empty.
+   *
+   * @param creator creates an empty store persisted to the given file, or not persisted if null
+   */
+  private PersistentEmbeddingStore ordinalStore(
+      String kind,
+      Function<Path, OrdinalEmbeddingStore> loader,
+      Function<Path, OrdinalEmbeddingStore> creator) {
+    if (shards <= 1) {
+      var file = indexFile(kind);
+      log.info("Embedding store persisted to {}", file);
+      return new GenerationalEmbeddingStore(
+          loader.apply(file), () -> creator.apply(file), maxGenerations);
+    }
+    var file = indexFile(kind + ".sharded");
+    log.info("Embedding store split in {} shards, persisted to {}", shards, file);
+    Supplier<OrdinalEmbeddingStore> shard = () -> creator.apply(null);
+    shardExecutor =
+        Executors.newFixedThreadPool(
+            shards - 1, Thread.ofPlatform().daemon().name("embedding-shard-", 1).factory());
+    return new GenerationalEmbeddingStore(
+        ShardedEmbeddingStore.load(file, shards, shard, shardExecutor),
+        () -> ShardedEmbeddingStore.create(file, shards, shard, shardExecutor),
+        maxGenerations);
+  }
+
+  @PreDestroy
+  public void close() {
+    if (shardExecutor != null) {
+      shardExecutor.shutdownNow();
+    }
+  }
+
+  /** A file next to the embeddings cache, named after it with the given extension. */
+  private Path indexFile(String extension) {
+    var cacheFile = Path.of(cacheFilePath);
+    var name = cacheFile.getFileName().toString();
+    var dot = name.lastIndexOf('.');
+    var baseName = dot > 0 ? name.substring(0, dot) : name;
+    return cacheFile.resolveSibling(baseName + "." + extension);
+  }
+}
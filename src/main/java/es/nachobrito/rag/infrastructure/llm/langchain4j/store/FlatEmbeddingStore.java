@@ -0,0 +1,50 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import dev.langchain4j.store.embedding.filter.Filter;
+import java.nio.file.Path;
+import java.util.function.IntPredicate;
+
+/**
+ * Exact nearest neighbour search that scores every live entry, persisted as a memory-mapped {@link
+ * IndexFile}.
+ *
+ * @author nacho
+ */
+public class FlatEmbeddingStore extends OrdinalEmbeddingStore {
+
+  public FlatEmbeddingStore(Path file) {
+    super(file);
+  }
+
+  public static FlatEmbeddingStore load(Path file) {
+    var store = new FlatEmbeddingStore(file);
+    store.load();
+    return store;
+  }
+
+  @Override
+  protected String kind() {
+    return "flat";
+  }
+
+  @Override
+  protected NodeHeap nearest(float[] query, int k, Filter filter, IntPredicate live) {
+    return exactNearest(query, k, filter, live);
+  }
+}
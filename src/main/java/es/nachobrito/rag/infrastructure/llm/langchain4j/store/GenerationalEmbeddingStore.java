@@ -0,0 +1,567 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.filter.Filter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps searches on a consistent, immutable snapshot of the index while ingestion writes to it.
+ *
+ * <p>Writes go to a delta store that searches do not see. {@link #publish()} freezes the delta as a
+ * new generation and swaps in a new {@link Snapshot} with a single atomic reference update. A
+ * snapshot lists the generations and, for each one, the ids that newer generations replaced or
+ * removed. A search pins the current snapshot with a reference count and never takes a lock that a
+ * writer holds; a generation is released once no snapshot refers to it and the last search reading
+ * it has finished.
+ *
+ * <p>Deltas are exact (flat) stores. Generations are merged into a single store of the configured
+ * kind when a publish leaves more than {@code maxGenerations} of them, too many replaced entries,
+ * or none of the configured kind, as after the first ingest into an empty index or a {@link
+ * #removeAll()}.
+ *
+ * <p>{@link #serialize()} persists the generations as they are: the oldest one, of the configured
+ * kind, in {@code file}, rewritten only when a merge replaced it, and the deltas with the replaced
+ * ids of every generation in a {@code .generations} file next to it. That file records the size and
+ * modification time of the base file it was written with, and is ignored if they do not match.
+ *
+ * @author nacho
+ */
+public class GenerationalEmbeddingStore implements PersistentEmbeddingStore {
+  private static final Logger log = LoggerFactory.getLogger(GenerationalEmbeddingStore.class);
+  private static final int COPY_BATCH_SIZE = 1024;
+  private static final int MAGIC = 0x47454E53;
+  private static final int VERSION = 1;
+
+  private final Path file;
+  private final Supplier<IterableEmbeddingStore> compactionTarget;
+  private final int maxGenerations;
+  private final AtomicReference<Snapshot> current;
+
+  // writers only; searches never touch this lock
+  private final Object writeLock = new Object();
+  private FlatEmbeddingStore delta;
+  private final Set<String> written = new HashSet<>();
+  private final List<Filter> removedByFilter = new ArrayList<>();
+  private boolean cleared;
+  // the generation that file holds, if any
+  private Generation persisted;
+
+  /**
+   * @param initial the oldest generation, usually loaded from {@code file}; the newer ones are
+   *     loaded from the {@code .generations} file, if there is one that matches it
+   * @param compactionTarget creates an empty store of the configured kind, persisted to the same
+   *     file as {@code initial}
+   */
+  GenerationalEmbeddingStore(
+      IterableEmbeddingStore initial,
+      Supplier<IterableEmbeddingStore> compactionTarget,
+      int maxGenerations) {
+    if (maxGenerations < 1) {
+      throw new IllegalArgumentException("maxGenerations must be positive");
+    }
+    this.file = initial.file();
+    this.compactionTarget = compactionTarget;
+    this.maxGenerations = maxGenerations;
+    var base = new Generation(initial, false);
+    if (file != null && Files.isRegularFile(file)) {
+      persisted = base;
+    }
+    this.current = new AtomicReference<>(new Snapshot(0, loadGenerations(base)));
+    if (withoutBase(current.get().layers())) {
+      compact();
+    }
+  }
+
+  @Override
+  public String add(Embedding embedding) {
+    var id = UUID.randomUUID().toString();
+    add(id, embedding);
+    return id;
+  }
+
+  @Override
+  public void add(String id, Embedding embedding) {
+    addAll(List.of(id), List.of(embedding), null);
+  }
+
+  @Override
+  public String add(Embedding embedding, TextSegment textSegment) {
+    var id = UUID.randomUUID().toString();
+    addAll(List.of(id), List.of(embedding), List.of(textSegment));
+    return id;
+  }
+
+  @Override
+  public List<String> addAll(List<Embedding> embeddings) {
+    var ids = generateIds(embeddings.size());
+    addAll(ids, embeddings, null);
+    return ids;
+  }
+
+  @Override
+  public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> embedded) {
+    synchronized (writeLock) {
+      delta().addAll(ids, embeddings, embedded);
+      written.addAll(ids);
+    }
+  }
+
+  @Override
+  public void removeAll(Collection<String> ids) {
+    synchronized (writeLock) {
+      delta().removeAll(ids);
+      written.addAll(ids);
+    }
+  }
+
+  @Override
+  public void removeAll(Filter filter) {
+    synchronized (writeLock) {
+      delta().removeAll(filter);
+      removedByFilter.add(filter);
+    }
+  }
+
+  @Override
+  public void removeAll() {
+    synchronized (writeLock) {
+      delta = new FlatEmbeddingStore(null);
+      written.clear();
+      removedByFilter.clear();
+      cleared = true;
+    }
+  }
+
+  @Override
+  public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+    var snapshot = acquire();
+    try {
+      return snapshot.search(request);
+    } finally {
+      snapshot.release();
+    }
+  }
+
+  /** Pins the current snapshot; the caller must {@link Snapshot#release()} it. */
+  Snapshot acquire() {
+    while (true) {
+      var snapshot = current.get();
+      if (snapshot.tryAcquire()) {
+        return snapshot;
+      }
+    }
+  }
+
+  @Override
+  public void publish() {
+    synchronized (writeLock) {
+      publishDelta();
+    }
+  }
+
+  /**
+   * Publishes pending writes and persists the published generations without merging them. The base
+   * file is only rewritten when it no longer holds the oldest generation.
+   */
+  @Override
+  public void serialize() {
+    synchronized (writeLock) {
+      publishDelta();
+      var layers = current.get().layers();
+      var base = layers.isEmpty() ? null : layers.getLast();
+      if (base == null) {
+        // every entry was removed
+        try (var empty = compactionTarget.get()) {
+          empty.serialize();
+        }
+        persisted = null;
+        base = null;
+      } else if (base.generation() != persisted) {
+        base.store().serialize();
+        persisted = base.generation();
+      }
+      try {
+        writeGenerations(base == null ? layers : layers.subList(0, layers.size() - 1), base);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private Path generationsFile() {
+    return file.resolveSibling(file.getFileName() + ".generations");
+  }
+
+  /**
+   * Writes the deltas and the replaced ids of every generation. The layout is a header with the
+   * fingerprint of the base file, the offset and length of each delta and the replaced ids of each
+   * generation, followed by one {@link IndexFile} per delta.
+   */
+  private void writeGenerations(List<Layer> deltas, Layer base) throws IOException {
+    var target = generationsFile();
+    if (deltas.isEmpty() && (base == null || base.dead().isEmpty())) {
+      Files.deleteIfExists(target);
+      return;
+    }
+    var header =
+        new SectionWriter()
+            .putInt(MAGIC)
+            .putInt(VERSION)
+            .putLong(Files.size(file))
+            .putLong(Files.getLastModifiedTime(file).toMillis())
+            .putInt(deltas.size());
+    var offsets = new int[deltas.size()];
+    for (int i = 0; i < deltas.size(); i++) {
+      offsets[i] = header.position();
+      header.skip(2 * Long.BYTES);
+      putIds(header, deltas.get(i).dead());
+    }
+    header.putInt(base == null ? 0 : 1);
+    if (base != null) {
+      putIds(header, base.dead());
+    }
+
+    var parent = target.toAbsolutePath().getParent();
+    var tmp = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+    try (var channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+      channel.position(header.position());
+      for (int i = 0; i < deltas.size(); i++) {
+        var start = channel.position();
+        ((OrdinalEmbeddingStore) deltas.get(i).store()).writeTo(channel);
+        header.putLong(offsets[i], start);
+        header.putLong(offsets[i] + Long.BYTES, channel.position() - start);
+      }
+      channel.position(0);
+      header.writeTo(channel);
+    }
+    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static void putIds(SectionWriter out, Set<String> ids) {
+    out.putInt(ids.size());
+    ids.forEach(out::putString);
+  }
+
+  /**
+   * The generations written by {@link #writeGenerations}, or just {@code base} if there are none.
+   * Every delta maps its own part of the file, so it is unmapped when the delta is released.
+   */
+  private List<Layer> loadGenerations(Generation base) {
+    if (file == null || !Files.isRegularFile(generationsFile()) || !Files.isRegularFile(file)) {
+      return List.of(new Layer(base, Set.of()));
+    }
+    var source = generationsFile();
+    var layers = new ArrayList<Layer>();
+    try (var arena = Arena.ofConfined()) {
+      var header = new SegmentReader(IndexFile.map(source, arena));
+      if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+        throw new IOException("%s is not an embedding generations file".formatted(source));
+      }
+      if (header.getLong() != Files.size(file)
+          || header.getLong() != Files.getLastModifiedTime(file).toMillis()) {
+        log.warn("{} was written for another version of {}, ignoring it", source, file);
+        return List.of(new Layer(base, Set.of()));
+      }
+      var deltas = header.getInt();
+      for (int i = 0; i < deltas; i++) {
+        var offset = header.getLong();
+        var length = header.getLong();
+        var mapping = Arena.ofShared();
+        var store = new FlatEmbeddingStore(null);
+        try {
+          store.loadFrom(
+              IndexFile.of(
+                  IndexFile.map(source, offset, length, mapping),
+                  "%s (generation %d)".formatted(source, i)),
+              mapping);
+        } catch (IOException e) {
+          mapping.close();
+          throw e;
+        }
+        layers.add(new Layer(new Generation(store, true), getIds(header)));
+      }
+      if (header.getInt() == 1) {
+        layers.add(new Layer(base, getIds(header)));
+      } else {
+        base.store.close();
+        persisted = null;
+      }
+      log.info("Loaded {} generations from {} and {}", layers.size(), file, source);
+      return layers;
+    } catch (IOException e) {
+      log.warn("Could not read {}, starting from {} alone", source, file, e);
+      layers.forEach(layer -> layer.store().close());
+      return List.of(new Layer(base, Set.of()));
+    }
+  }
+
+  private static Set<String> getIds(SegmentReader in) {
+    var ids = new String[in.getInt()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = in.getString();
+    }
+    return Set.of(ids);
+  }
+
+  @Override
+  public Path file() {
+    return file;
+  }
+
+  /** Stores of the published generations, newest first. */
+  List<IterableEmbeddingStore> generations() {
+    return current.get().layers().stream().map(Layer::store).toList();
+  }
+
+  /** Live entries in the published snapshot. */
+  public int size() {
+    var snapshot = acquire();
+    try {
+      return snapshot.layers().stream().mapToInt(Layer::live).sum();
+    } finally {
+      snapshot.release();
+    }
+  }
+
+  /** Number of the published snapshot, incremented by every publish and merge. */
+  public long generation() {
+    return current.get().number();
+  }
+
+  private FlatEmbeddingStore delta() {
+    if (delta == null) {
+      delta = new FlatEmbeddingStore(null);
+    }
+    return delta;
+  }
+
+  private void publishDelta() {
+    if (delta == null) {
+      return;
+    }
+    var layers = new ArrayList<Layer>();
+    if (delta.size() > 0) {
+      layers.add(new Layer(new Generation(delta, true), Set.of()));
+    }
+    if (!cleared) {
+      for (var layer : current.get().layers()) {
+        var store = layer.store();
+        var dead = new HashSet<>(layer.dead());
+        for (var id : written) {
+          if (!dead.contains(id) && store.contains(id)) {
+            dead.add(id);
+          }
+        }
+        if (!removedByFilter.isEmpty()) {
+          store.forEachEntry(
+              (id, vector, segment) -> {
+                if (segment != null
+                    && removedByFilter.stream().anyMatch(f -> f.test(segment.metadata()))) {
+                  dead.add(id);
+                }
+              });
+        }
+        if (dead.size() < store.size()) {
+          layers.add(new Layer(layer.generation(), Set.copyOf(dead)));
+        }
+      }
+    }
+    delta = null;
+    written.clear();
+    removedByFilter.clear();
+    cleared = false;
+    swap(layers);
+
+    var dead = layers.stream().mapToInt(layer -> layer.dead().size()).sum();
+    var live = layers.stream().mapToInt(Layer::live).sum();
+    // replaced entries still take space and scanning time in every generation that holds them
+    if (layers.size() > maxGenerations || dead * 4 > live || withoutBase(layers)) {
+      compact();
+    }
+  }
+
+  /**
+   * Whether every generation is a delta, so searches scan the whole index exactly instead of using
+   * the configured kind of store.
+   */
+  private static boolean withoutBase(List<Layer> layers) {
+    return !layers.isEmpty() && layers.getLast().generation().delta;
+  }
+
+  /** Copies the live entries of every generation into a single store of the configured kind. */
+  private void compact() {
+    var layers = current.get().layers();
+    var target = compactionTarget.get();
+    var ids = new ArrayList<String>(COPY_BATCH_SIZE);
+    var embeddings = new ArrayList<Embedding>(COPY_BATCH_SIZE);
+    var segments = new ArrayList<TextSegment>(COPY_BATCH_SIZE);
+    for (var layer : layers) {
+      layer
+          .store()
+          .forEachEntry(
+              (id, vector, segment) -> {
+                if (layer.dead().contains(id)) {
+                  return;
+                }
+                ids.add(id);
+                embeddings.add(Embedding.from(vector));
+                segments.add(segment);
+                if (ids.size() == COPY_BATCH_SIZE) {
+                  target.addAll(ids, embeddings, segments);
+                  ids.clear();
+                  embeddings.clear();
+                  segments.clear();
+                }
+              });
+    }
+    if (!ids.isEmpty()) {
+      target.addAll(ids, embeddings, segments);
+    }
+    swap(List.of(new Layer(target)));
+    log.info("Merged {} generations into one of {} entries", layers.size(), target.size());
+  }
+
+  /** Called by writers only, so the published snapshot cannot change in between. */
+  private void swap(List<Layer> layers) {
+    var previous = current.get();
+    current.set(new Snapshot(previous.number() + 1, layers));
+    previous.release();
+  }
+
+  /** A frozen store, shared by every snapshot that includes it. */
+  private static final class Generation {
+    private final IterableEmbeddingStore store;
+    // the writes of one publish, in an exact store rather than one of the configured kind
+    private final boolean delta;
+    private final AtomicInteger snapshots = new AtomicInteger();
+
+    private Generation(IterableEmbeddingStore store, boolean delta) {
+      this.store = store;
+      this.delta = delta;
+    }
+
+    private void retain() {
+      snapshots.incrementAndGet();
+    }
+
+    /** Closes the store once the last snapshot that could search it is gone. */
+    private void release() {
+      if (snapshots.decrementAndGet() == 0) {
+        store.close();
+      }
+    }
+  }
+
+  /** A generation as seen from one snapshot: its store minus the ids replaced since. */
+  private record Layer(Generation generation, Set<String> dead) {
+    Layer(IterableEmbeddingStore store) {
+      this(new Generation(store, false), Set.of());
+    }
+
+    IterableEmbeddingStore store() {
+      return generation.store;
+    }
+
+    int live() {
+      return store().size() - dead.size();
+    }
+  }
+
+  /**
+   * An immutable view of the index. It holds one reference for being the published snapshot plus
+   * one per search in flight, and releases its generations when the count drops to zero.
+   */
+  static final class Snapshot {
+    private final long number;
+    private final List<Layer> layers;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private Snapshot(long number, List<Layer> layers) {
+      this.number = number;
+      this.layers = List.copyOf(layers);
+      this.layers.forEach(layer -> layer.generation().retain());
+    }
+
+    long number() {
+      return number;
+    }
+
+    private List<Layer> layers() {
+      return layers;
+    }
+
+    private boolean tryAcquire() {
+      while (true) {
+        var count = references.get();
+        if (count == 0) {
+          return false;
+        }
+        if (references.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    void release() {
+      if (references.decrementAndGet() == 0) {
+        layers.forEach(layer -> layer.generation().release());
+      }
+    }
+
+    /**
+     * Every generation searches its own entries, leaving out the ids replaced since, and the
+     * per-generation results are merged.
+     */
+    EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+      if (layers.size() == 1) {
+        return layers.getFirst().store().search(request, layers.getFirst().dead());
+      }
+      var matches = new ArrayList<EmbeddingMatch<TextSegment>>();
+      for (var layer : layers) {
+        matches.addAll(layer.store().search(request, layer.dead()).matches());
+      }
+      matches.sort(Comparator.comparingDouble(EmbeddingMatch<TextSegment>::score).reversed());
+      var count = Math.min(request.maxResults(), matches.size());
+      return new EmbeddingSearchResult<>(new ArrayList<>(matches.subList(0, count)));
+    }
+  }
+}
@@ -0,0 +1,356 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import dev.langchain4j.store.embedding.filter.Filter;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+/**
+ * Approximate nearest neighbour search over a Hierarchical Navigable Small World graph (Malkov &
+ * Yashunin, 2016).
+ *
+ * <p>{@code m} bounds the links per node on the upper layers (twice that on layer 0), {@code
+ * efConstruction} is the beam width used while inserting and {@code efSearch} the beam width used
+ * while querying. Filtered searches fall back to an exact scan of the matching entries, so a
+ * selective filter can never starve the result list.
+ *
+ * <p>After a load the graph is read straight from the mapped index section; a node is only copied
+ * to the heap when a later insert needs to change its links.
+ *
+ * @author nacho
+ */
+public class HnswEmbeddingStore extends OrdinalEmbeddingStore {
+  private static final int[] NO_LINKS = new int[0];
+
+  private final int m;
+  private final int maxLinksLayer0;
+  private final int efConstruction;
+  private final int efSearch;
+  private final double levelMultiplier;
+  private final Random random = new Random(42);
+
+  /** Heap links per node, or {@code null} for a node still served from {@link #graph}. */
+  private final List<int[][]> links = new ArrayList<>();
+
+  private MemorySegment graph;
+  private long nodesOffset;
+  private int entryPoint = -1;
+  private int maxLevel = -1;
+
+  public HnswEmbeddingStore(Path file, int m, int efConstruction, int efSearch) {
+    super(file);
+    if (m < 2 || efConstruction < 1 || efSearch < 1) {
+      throw new IllegalArgumentException(
+          "Invalid HNSW parameters: m=%d, efConstruction=%d, efSearch=%d"
+              .formatted(m, efConstruction, efSearch));
+    }
+    this.m = m;
+    this.maxLinksLayer0 = 2 * m;
+    this.efConstruction = efConstruction;
+    this.efSearch = efSearch;
+    this.levelMultiplier = 1 / Math.log(m);
+  }
+
+  public static HnswEmbeddingStore load(Path file, int m, int efConstruction, int efSearch) {
+    var store = new HnswEmbeddingStore(file, m, efConstruction, efSearch);
+    store.load();
+    return store;
+  }
+
+  @Override
+  protected String kind() {
+    return "hnsw";
+  }
+
+  @Override
+  protected NodeHeap nearest(float[] query, int k, Filter filter, IntPredicate live) {
+    if (filter != null || entryPoint < 0) {
+      return exactNearest(query, k, filter, live);
+    }
+    var current = entryPoint;
+    for (int layer = maxLevel; layer > 0; layer--) {
+      current = greedyClosest(query, current, layer);
+    }
+    var results = searchLayer(query, current, Math.max(efSearch, k), 0, live);
+    while (results.size() > k) {
+      results.pop();
+    }
+    return results;
+  }
+
+  @Override
+  protected void onInsert(int node) {
+    var level = randomLevel();
+    var nodeLinks = new int[level + 1][];
+    for (int layer = 0; layer <= level; layer++) {
+      nodeLinks[layer] = NO_LINKS;
+    }
+    links.add(nodeLinks);
+    if (entryPoint < 0) {
+      entryPoint = node;
+      maxLevel = level;
+      return;
+    }
+
+    var vector = vectors.get(node);
+    var current = entryPoint;
+    for (int layer = maxLevel; layer > level; layer--) {
+      current = greedyClosest(vector, current, layer);
+    }
+    for (int layer = Math.min(level, maxLevel); layer >= 0; layer--) {
+      var candidates = searchLayer(vector, current, efConstruction, layer, ordinal -> true);
+      var count = candidates.size();
+      var sortedNodes = new int[count];
+      var sortedScores = new float[count];
+      candidates.drainDescending(sortedNodes, sortedScores);
+      nodeLinks[layer] = selectNeighbours(sortedNodes, sortedScores, count, m);
+      var maxLinks = layer == 0 ? maxLinksLayer0 : m;
+      for (var neighbour : nodeLinks[layer]) {
+        connect(neighbour, node, layer, maxLinks);
+      }
+      current = sortedNodes[0];
+    }
+    if (level > maxLevel) {
+      maxLevel = level;
+      entryPoint = node;
+    }
+  }
+
+  @Override
+  protected void onClear() {
+    links.clear();
+    graph = null;
+    entryPoint = -1;
+    maxLevel = -1;
+  }
+
+  private int randomLevel() {
+    return (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+  }
+
+  private int greedyClosest(float[] query, int entry, int layer) {
+    var best = entry;
+    var bestScore = vectors.dot(entry, query);
+    var improved = true;
+    while (improved) {
+      improved = false;
+      for (var neighbour : neighbours(best, layer)) {
+        var score = vectors.dot(neighbour, query);
+        if (score > bestScore) {
+          best = neighbour;
+          bestScore = score;
+          improved = true;
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Beam search on one layer. Every reachable node is traversed, but only the ones passing {@code
+   * accept} make it into the results, so tombstoned entries keep the graph connected.
+   */
+  private NodeHeap searchLayer(float[] query, int entry, int ef, int layer, IntPredicate accept) {
+    var visited = new BitSet(vectors.size());
+    var candidates = NodeHeap.candidates(ef);
+    var results = NodeHeap.topK(ef);
+
+    var entryScore = vectors.dot(entry, query);
+    visited.set(entry);
+    candidates.push(entry, entryScore);
+    if (accept.test(entry)) {
+      results.offer(entry, entryScore);
+    }
+    while (!candidates.isEmpty()) {
+      var candidateScore = candidates.peekScore();
+      var candidate = candidates.pop();
+      if (results.isFull() && candidateScore < results.peekScore()) {
+        break;
+      }
+      for (var neighbour : neighbours(candidate, layer)) {
+        if (visited.get(neighbour)) {
+          continue;
+        }
+        visited.set(neighbour);
+        var score = vectors.dot(neighbour, query);
+        if (!results.isFull() || score > results.peekScore()) {
+          candidates.push(neighbour, score);
+          if (accept.test(neighbour)) {
+            results.offer(neighbour, score);
+          }
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * The neighbour selection heuristic from the HNSW paper: a candidate is linked only if it is
+   * closer to the base node than to any neighbour already selected, which keeps links spread in
+   * different directions instead of clustering.
+   */
+  private int[] selectNeighbours(int[] sortedNodes, float[] sortedScores, int count, int max) {
+    var selected = new int[Math.min(count, max)];
+    var size = 0;
+    for (int i = 0; i < count && size < selected.length; i++) {
+      var candidate = sortedNodes[i];
+      var diverse = true;
+      for (int j = 0; j < size; j++) {
+        if (vectors.dot(candidate, selected[j]) > sortedScores[i]) {
+          diverse = false;
+          break;
+        }
+      }
+      if (diverse) {
+        selected[size++] = candidate;
+      }
+    }
+    return size == selected.length ? selected : Arrays.copyOf(selected, size);
+  }
+
+  private void connect(int node, int newNeighbour, int layer, int maxLinks) {
+    var nodeLinks = materialize(node);
+    var current = nodeLinks[layer];
+    var merged = Arrays.copyOf(current, current.length + 1);
+    merged[current.length] = newNeighbour;
+    if (merged.length <= maxLinks) {
+      nodeLinks[layer] = merged;
+      return;
+    }
+
+    var scores = new float[merged.length];
+    for (int i = 0; i < merged.length; i++) {
+      scores[i] = vectors.dot(node, merged[i]);
+    }
+    sortDescending(merged, scores);
+    nodeLinks[layer] = selectNeighbours(merged, scores, merged.length, maxLinks);
+  }
+
+  private static void sortDescending(int[] nodes, float[] scores) {
+    for (int i = 1; i < nodes.length; i++) {
+      var node = nodes[i];
+      var score = scores[i];
+      var j = i - 1;
+      while (j >= 0 && scores[j] < score) {
+        nodes[j + 1] = nodes[j];
+        scores[j + 1] = scores[j];
+        j--;
+      }
+      nodes[j + 1] = node;
+      scores[j + 1] = score;
+    }
+  }
+
+  private int[] neighbours(int node, int layer) {
+    var nodeLinks = links.get(node);
+    if (nodeLinks != null) {
+      return nodeLinks[layer];
+    }
+    var in = mappedNode(node);
+    in.getByte();
+    for (int i = 0; i < layer; i++) {
+      var count = in.getInt();
+      in.seek(in.position() + (long) count * Integer.BYTES);
+    }
+    var layerLinks = new int[in.getInt()];
+    in.getInts(layerLinks);
+    return layerLinks;
+  }
+
+  /** Copies a mapped node to the heap, so its links can be modified. */
+  private int[][] materialize(int node) {
+    var nodeLinks = links.get(node);
+    if (nodeLinks != null) {
+      return nodeLinks;
+    }
+    var in = mappedNode(node);
+    nodeLinks = new int[in.getByte()][];
+    for (int layer = 0; layer < nodeLinks.length; layer++) {
+      nodeLinks[layer] = new int[in.getInt()];
+      in.getInts(nodeLinks[layer]);
+    }
+    links.set(node, nodeLinks);
+    return nodeLinks;
+  }
+
+  private SegmentReader mappedNode(int node) {
+    var offset = graph.get(SegmentReader.LONG, nodesOffset + (long) node * Long.BYTES);
+    return new SegmentReader(graph, offset);
+  }
+
+  /**
+   * Graph section: {@code m}, entry point, top level and node count, then one offset per node into
+   * the node records that follow. A record holds the number of levels and, for each level, the
+   * number of links and the linked ordinals.
+   */
+  @Override
+  protected void writeIndex(SectionWriter out) {
+    var count = links.size();
+    out.putInt(m).putInt(entryPoint).putInt(maxLevel).putInt(count);
+    var offsets = out.position();
+    out.skip(count * Long.BYTES);
+    for (int node = 0; node < count; node++) {
+      out.putLong(offsets + node * Long.BYTES, out.position());
+      out.putByte(levels(node));
+      for (int layer = 0; layer < levels(node); layer++) {
+        var layerLinks = neighbours(node, layer);
+        out.putInt(layerLinks.length);
+        for (var neighbour : layerLinks) {
+          out.putInt(neighbour);
+        }
+      }
+    }
+  }
+
+  private int levels(int node) {
+    var nodeLinks = links.get(node);
+    return nodeLinks != null ? nodeLinks.length : mappedNode(node).getByte();
+  }
+
+  @Override
+  protected void readIndex(SegmentReader in) throws IOException {
+    if (in.segment().byteSize() == 0) {
+      return;
+    }
+    var storedM = in.getInt();
+    if (storedM != m) {
+      throw new IOException(
+          "The persisted graph was built with m=%d, but m=%d is configured".formatted(storedM, m));
+    }
+    entryPoint = in.getInt();
+    maxLevel = in.getInt();
+    var count = in.getInt();
+    if (count != vectors.size()) {
+      throw new IOException(
+          "The persisted graph has %d nodes, but the store holds %d entries"
+              .formatted(count, vectors.size()));
+    }
+    graph = in.segment();
+    nodesOffset = in.position();
+    for (int node = 0; node < count; node++) {
+      links.add(null);
+    }
+  }
+}
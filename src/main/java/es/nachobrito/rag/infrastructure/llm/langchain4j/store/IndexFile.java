@@ -0,0 +1,302 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+
+/**
+ * Versioned binary layout of a persisted {@link OrdinalEmbeddingStore}, read through a memory
+ * mapping so a restarted process can answer queries without parsing the file, and several processes
+ * on the same host share one copy of it in the page cache.
+ *
+ * <pre>
+ * header    128 bytes: magic, version, count, dimension, section offsets, store kind
+ * vectors   count * dimension little-endian floats, normalized, one row per ordinal
+ * table     count longs: absolute offset of each ordinal's record
+ * records   per ordinal: id, segment text and typed metadata
+ * deleted   tombstone bitmap as longs
+ * index     opaque section owned by the store kind (graph, codes...)
+ * </pre>
+ *
+ * @author nacho
+ */
+final class IndexFile {
+  static final int MAGIC = 0x52454D4F;
+  static final int VERSION = 2;
+  private static final int HEADER_SIZE = 128;
+  private static final int KIND_OFFSET = 64;
+  private static final int KIND_LENGTH = 32;
+  private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+  private final MemorySegment data;
+  private final String source;
+  private final String kind;
+  private final int count;
+  private final int dimension;
+  private final long vectorsOffset;
+  private final long tableOffset;
+  private final long deletedOffset;
+  private final long indexOffset;
+  private final long indexLength;
+
+  private IndexFile(MemorySegment data, String source) throws IOException {
+    this.data = data;
+    this.source = source;
+    var header = new SegmentReader(data);
+    if (data.byteSize() < HEADER_SIZE || header.getInt() != MAGIC) {
+      throw new IOException("%s is not an embedding index file".formatted(source));
+    }
+    var version = header.getInt();
+    if (version != VERSION) {
+      throw new IOException(
+          "%s uses index format version %d, expected %d".formatted(source, version, VERSION));
+    }
+    count = header.getInt();
+    dimension = header.getInt();
+    vectorsOffset = header.getLong();
+    tableOffset = header.getLong();
+    deletedOffset = header.getLong();
+    indexOffset = header.getLong();
+    indexLength = header.getLong();
+    var kindBytes = new byte[KIND_LENGTH];
+    header.seek(KIND_OFFSET).getBytes(kindBytes);
+    kind = new String(kindBytes, StandardCharsets.US_ASCII).trim();
+  }
+
+  /** Maps the file; the mapping is released when {@code arena} is closed. */
+  static IndexFile open(Path path, Arena arena) throws IOException {
+    return new IndexFile(map(path, arena), path.toString());
+  }
+
+  /** Maps a whole file read-only; the mapping is released when it becomes unreachable. */
+  static MemorySegment map(Path path) throws IOException {
+    return map(path, Arena.ofAuto());
+  }
+
+  /** Maps a whole file read-only; the mapping is released when {@code arena} is closed. */
+  static MemorySegment map(Path path, Arena arena) throws IOException {
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+    }
+  }
+
+  /** Maps part of a file read-only; the mapping is released when {@code arena} is closed. */
+  static MemorySegment map(Path path, long offset, long length, Arena arena) throws IOException {
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, offset, length, arena);
+    }
+  }
+
+  /** Reads an index file embedded in a larger mapping, such as a shard of a sharded store. */
+  static IndexFile of(MemorySegment data, String source) throws IOException {
+    return new IndexFile(data, source);
+  }
+
+  /** Where the file was read from, for error messages. */
+  String source() {
+    return source;
+  }
+
+  String kind() {
+    return kind;
+  }
+
+  int count() {
+    return count;
+  }
+
+  int dimension() {
+    return dimension;
+  }
+
+  MemorySegment vectors() {
+    return data.asSlice(vectorsOffset, (long) count * dimension * Float.BYTES);
+  }
+
+  MemorySegment index() {
+    return data.asSlice(indexOffset, indexLength);
+  }
+
+  BitSet deleted() {
+    var reader = new SegmentReader(data, deletedOffset);
+    var words = new long[reader.getInt()];
+    reader.getLongs(words);
+    return BitSet.valueOf(words);
+  }
+
+  String id(int ordinal) {
+    return record(ordinal).getString();
+  }
+
+  TextSegment segment(int ordinal) {
+    var reader = record(ordinal);
+    reader.skipString();
+    return readSegment(reader);
+  }
+
+  private SegmentReader record(int ordinal) {
+    var offset = data.get(SegmentReader.LONG, tableOffset + (long) ordinal * Long.BYTES);
+    return new SegmentReader(data, offset);
+  }
+
+  /**
+   * Writes the file at the current position of the channel. Offsets in the header are relative to
+   * that position, so the result can be embedded in a larger file.
+   */
+  static void write(
+      WritableByteChannel channel,
+      String kind,
+      VectorStorage vectors,
+      SegmentTable table,
+      BitSet deleted,
+      SectionWriter index)
+      throws IOException {
+    var kindBytes = kind.getBytes(StandardCharsets.US_ASCII);
+    if (kindBytes.length > KIND_LENGTH) {
+      throw new IllegalArgumentException("Store kind too long: " + kind);
+    }
+    var count = vectors.size();
+    var dimension = vectors.dimension();
+
+    var records = new SectionWriter();
+    var recordOffsets = new int[count];
+    for (int ordinal = 0; ordinal < count; ordinal++) {
+      recordOffsets[ordinal] = records.position();
+      records.putString(table.id(ordinal));
+      writeSegment(records, table.segment(ordinal));
+    }
+
+    long vectorsOffset = HEADER_SIZE;
+    long tableOffset = vectorsOffset + (long) count * dimension * Float.BYTES;
+    long recordsOffset = tableOffset + (long) count * Long.BYTES;
+    long deletedOffset = recordsOffset + records.position();
+    var tombstones = deleted.toLongArray();
+    long indexOffset = deletedOffset + Integer.BYTES + (long) tombstones.length * Long.BYTES;
+
+    var header =
+        new SectionWriter()
+            .putInt(MAGIC)
+            .putInt(VERSION)
+            .putInt(count)
+            .putInt(dimension)
+            .putLong(vectorsOffset)
+            .putLong(tableOffset)
+            .putLong(deletedOffset)
+            .putLong(indexOffset)
+            .putLong(index.position());
+    header.skip(KIND_OFFSET - header.position()).putBytes(kindBytes);
+    header.skip(HEADER_SIZE - header.position());
+    header.writeTo(channel);
+
+    var buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    for (int ordinal = 0; ordinal < count; ordinal++) {
+      for (var value : vectors.get(ordinal)) {
+        if (!buffer.hasRemaining()) {
+          flush(buffer, channel);
+        }
+        buffer.putFloat(value);
+      }
+    }
+    for (int ordinal = 0; ordinal < count; ordinal++) {
+      if (buffer.remaining() < Long.BYTES) {
+        flush(buffer, channel);
+      }
+      buffer.putLong(recordsOffset + recordOffsets[ordinal]);
+    }
+    flush(buffer, channel);
+    records.writeTo(channel);
+
+    var deletedSection = new SectionWriter().putInt(tombstones.length);
+    for (var word : tombstones) {
+      deletedSection.putLong(word);
+    }
+    deletedSection.writeTo(channel);
+    index.writeTo(channel);
+  }
+
+  private static void flush(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  private static void writeSegment(SectionWriter out, TextSegment segment) {
+    out.putByte(segment == null ? 0 : 1);
+    if (segment == null) {
+      return;
+    }
+    out.putString(segment.text());
+    var metadata = segment.metadata().toMap();
+    out.putInt(metadata.size());
+    for (var entry : metadata.entrySet()) {
+      out.putString(entry.getKey());
+      switch (entry.getValue()) {
+        case String s -> out.putByte('s').putString(s);
+        case UUID u -> out.putByte('u').putString(u.toString());
+        case Integer i -> out.putByte('i').putInt(i);
+        case Long l -> out.putByte('l').putLong(l);
+        case Float f -> out.putByte('f').putFloat(f);
+        case Double d -> out.putByte('d').putDouble(d);
+        default ->
+            throw new IllegalArgumentException(
+                "Unsupported metadata type: %s".formatted(entry.getValue().getClass()));
+      }
+    }
+  }
+
+  private static TextSegment readSegment(SegmentReader in) {
+    if (in.getByte() == 0) {
+      return null;
+    }
+    var text = in.getString();
+    var count = in.getInt();
+    var metadata = new LinkedHashMap<String, Object>(count * 2);
+    for (int i = 0; i < count; i++) {
+      var key = in.getString();
+      var type = in.getByte();
+      Object value =
+          switch (type) {
+            case 's' -> in.getString();
+            case 'u' -> UUID.fromString(in.getString());
+            case 'i' -> in.getInt();
+            case 'l' -> in.getLong();
+            case 'f' -> in.getFloat();
+            case 'd' -> in.getDouble();
+            default ->
+                throw new IllegalStateException("Unknown metadata type tag: %d".formatted(type));
+          };
+      metadata.put(key, value);
+    }
+    return TextSegment.from(text, new Metadata(metadata));
+  }
+}
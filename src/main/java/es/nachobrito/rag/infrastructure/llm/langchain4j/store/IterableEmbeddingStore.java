@@ -0,0 +1,57 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import java.util.Set;
+
+/**
+ * A {@link PersistentEmbeddingStore} that can list its live entries, so they can be merged into
+ * another store.
+ *
+ * @author nacho
+ */
+interface IterableEmbeddingStore extends PersistentEmbeddingStore, AutoCloseable {
+
+  @FunctionalInterface
+  interface EntryVisitor {
+    void visit(String id, float[] vector, TextSegment segment);
+  }
+
+  boolean contains(String id);
+
+  /**
+   * Searches as {@link #search(EmbeddingSearchRequest)}, leaving out the given ids as if they had
+   * been removed, so they neither take a place in the results nor have to be filtered afterwards.
+   */
+  EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request, Set<String> excluded);
+
+  /** Visits every live entry; the vectors are normalized. */
+  void forEachEntry(EntryVisitor visitor);
+
+  /** Number of live entries. */
+  int size();
+
+  /**
+   * Drops the entries and releases the memory and file mappings behind them, leaving the store
+   * empty. It must not be called while other threads use the store.
+   */
+  @Override
+  void close();
+}
@@ -0,0 +1,100 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.filter.Filter;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The original brute-force {@link InMemoryEmbeddingStore}, persisted as JSON.
+ *
+ * @author nacho
+ */
+public class JsonEmbeddingStore implements PersistentEmbeddingStore {
+  private final Path file;
+  private final InMemoryEmbeddingStore<TextSegment> delegate;
+
+  public JsonEmbeddingStore(Path file) {
+    this.file = file;
+    this.delegate =
+        file.toFile().isFile()
+            ? InMemoryEmbeddingStore.fromFile(file)
+            : new InMemoryEmbeddingStore<>();
+  }
+
+  @Override
+  public void serialize() {
+    delegate.serializeToFile(file);
+  }
+
+  @Override
+  public Path file() {
+    return file;
+  }
+
+  @Override
+  public String add(Embedding embedding) {
+    return delegate.add(embedding);
+  }
+
+  @Override
+  public void add(String id, Embedding embedding) {
+    delegate.add(id, embedding);
+  }
+
+  @Override
+  public String add(Embedding embedding, TextSegment textSegment) {
+    return delegate.add(embedding, textSegment);
+  }
+
+  @Override
+  public List<String> addAll(List<Embedding> embeddings) {
+    return delegate.addAll(embeddings);
+  }
+
+  @Override
+  public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> embedded) {
+    delegate.addAll(ids, embeddings, embedded);
+  }
+
+  @Override
+  public void removeAll(Collection<String> ids) {
+    delegate.removeAll(ids);
+  }
+
+  @Override
+  public void removeAll(Filter filter) {
+    delegate.removeAll(filter);
+  }
+
+  @Override
+  public void removeAll() {
+    delegate.removeAll();
+  }
+
+  @Override
+  public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+    return delegate.search(request);
+  }
+}
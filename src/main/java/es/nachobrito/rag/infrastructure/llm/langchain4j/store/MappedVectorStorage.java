@@ -0,0 +1,88 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Serves the vectors of an {@link IndexFile} straight from its read-only mapping. Vectors appended
+ * after the file was opened are kept in an {@link OffHeapVectorStorage} until the store is
+ * serialized again.
+ *
+ * @author nacho
+ */
+class MappedVectorStorage implements VectorStorage {
+  private final MemorySegment base;
+  private final int baseSize;
+  private final int dimension;
+  private final OffHeapVectorStorage tail = new OffHeapVectorStorage();
+
+  MappedVectorStorage(MemorySegment base, int baseSize, int dimension) {
+    this.base = base;
+    this.baseSize = baseSize;
+    this.dimension = dimension;
+  }
+
+  @Override
+  public int dimension() {
+    return dimension;
+  }
+
+  @Override
+  public int size() {
+    return baseSize + tail.size();
+  }
+
+  @Override
+  public int append(float[] vector) {
+    if (vector.length != dimension) {
+      throw new IllegalArgumentException(
+          "Expected a vector with %d dimensions, got %d".formatted(dimension, vector.length));
+    }
+    return baseSize + tail.append(vector);
+  }
+
+  @Override
+  public float[] get(int ordinal) {
+    if (ordinal >= baseSize) {
+      return tail.get(ordinal - baseSize);
+    }
+    var vector = new float[dimension];
+    MemorySegment.copy(base, SegmentReader.FLOAT, offset(ordinal), vector, 0, dimension);
+    return vector;
+  }
+
+  @Override
+  public float dot(int ordinal, float[] query) {
+    if (ordinal >= baseSize) {
+      return tail.dot(ordinal - baseSize, query);
+    }
+    return VectorKernels.dot(base, offset(ordinal), query, dimension);
+  }
+
+  @Override
+  public float dot(int a, int b) {
+    if (a < baseSize && b < baseSize) {
+      return VectorKernels.dot(base, offset(a), offset(b), dimension);
+    }
+    return dot(a, get(b));
+  }
+
+  private long offset(int ordinal) {
+    return (long) ordinal * dimension * Float.BYTES;
+  }
+}
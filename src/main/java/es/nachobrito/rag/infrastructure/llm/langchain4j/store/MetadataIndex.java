@@ -0,0 +1,128 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.filter.Filter;
+import dev.langchain4j.store.embedding.filter.comparison.IsEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsIn;
+import dev.langchain4j.store.embedding.filter.logical.And;
+import dev.langchain4j.store.embedding.filter.logical.Not;
+import dev.langchain4j.store.embedding.filter.logical.Or;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Inverted index from metadata {@code (key, value)} pairs to the ordinals of the segments that
+ * carry them, kept as compressed Roaring bitmaps.
+ *
+ * <p>Equality, {@code in}, {@code and}, {@code or} and {@code not} filters are answered with bitmap
+ * operations, so a filtered search only visits the matching ordinals. Range comparisons are not
+ * indexed: an {@code and} with one of them yields a superset that the caller still has to test, and
+ * anything else is left to a full scan. Removed ordinals are not dropped from the bitmaps; callers
+ * skip them with the store's tombstones.
+ *
+ * @author nacho
+ */
+final class MetadataIndex {
+  private final Map<String, Map<Object, RoaringBitmap>> postings = new HashMap<>();
+  private final RoaringBitmap withSegment = new RoaringBitmap();
+
+  /**
+   * Ordinals selected by a filter.
+   *
+   * @param exact whether every ordinal matches the filter, or they are only candidates that still
+   *     have to be tested
+   */
+  record Selection(RoaringBitmap ordinals, boolean exact) {}
+
+  void add(int ordinal, TextSegment segment) {
+    if (segment == null) {
+      return;
+    }
+    withSegment.add(ordinal);
+    for (var entry : segment.metadata().toMap().entrySet()) {
+      postings
+          .computeIfAbsent(entry.getKey(), key -> new HashMap<>())
+          .computeIfAbsent(valueKey(entry.getValue()), value -> new RoaringBitmap())
+          .add(ordinal);
+    }
+  }
+
+  /**
+   * @return the ordinals the filter selects, or {@code null} if the index cannot narrow it down
+   */
+  Selection select(Filter filter) {
+    return switch (filter) {
+      case IsEqualTo equalTo ->
+          new Selection(postings(equalTo.key(), equalTo.comparisonValue()).clone(), true);
+      case IsIn in -> {
+        var ordinals = new RoaringBitmap();
+        for (var value : in.comparisonValues()) {
+          ordinals.or(postings(in.key(), value));
+        }
+        yield new Selection(ordinals, true);
+      }
+      case And and -> {
+        var left = select(and.left());
+        var right = select(and.right());
+        if (left == null || right == null) {
+          var known = left == null ? right : left;
+          yield known == null ? null : new Selection(known.ordinals(), false);
+        }
+        yield new Selection(
+            RoaringBitmap.and(left.ordinals(), right.ordinals()), left.exact() && right.exact());
+      }
+      case Or or -> {
+        var left = select(or.left());
+        var right = select(or.right());
+        if (left == null || right == null) {
+          yield null;
+        }
+        yield new Selection(
+            RoaringBitmap.or(left.ordinals(), right.ordinals()), left.exact() && right.exact());
+      }
+      case Not not -> {
+        var inner = select(not.expression());
+        if (inner == null || !inner.exact()) {
+          yield null;
+        }
+        yield new Selection(RoaringBitmap.andNot(withSegment, inner.ordinals()), true);
+      }
+      default -> null;
+    };
+  }
+
+  private RoaringBitmap postings(String key, Object value) {
+    var values = postings.get(key);
+    var ordinals = values == null ? null : values.get(valueKey(value));
+    return ordinals == null ? new RoaringBitmap() : ordinals;
+  }
+
+  /** Numbers are compared by value, so 5, 5L and 5.0 share a posting list. */
+  private static Object valueKey(Object value) {
+    return switch (value) {
+      case Integer i -> BigDecimal.valueOf(i).stripTrailingZeros();
+      case Long l -> BigDecimal.valueOf(l).stripTrailingZeros();
+      case Float f -> new BigDecimal(f.toString()).stripTrailingZeros();
+      case Double d -> BigDecimal.valueOf(d).stripTrailingZeros();
+      default -> value.toString();
+    };
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import java.util.Arrays;
+
+/**
+ * Binary heap of (ordinal, score) pairs backed by primitive arrays, so pushing a candidate never
+ * allocates.
+ *
+ * <p>A bounded heap keeps the lowest score at the root and is used to collect the top-k results. An
+ * unbounded heap keeps the highest score at the root and is used as a work queue.
+ *
+ * @author nacho
+ */
+final class NodeHeap {
+  private final boolean minAtRoot;
+  private final int capacity;
+  private int[] nodes;
+  private float[] scores;
+  private int size;
+
+  private NodeHeap(boolean minAtRoot, int capacity, int initialSize) {
+    this.minAtRoot = minAtRoot;
+    this.capacity = capacity;
+    this.nodes = new int[Math.max(1, initialSize)];
+    this.scores = new float[Math.max(1, initialSize)];
+  }
+
+  /** A min-heap retaining only the {@code k} best-scored nodes it is offered. */
+  static NodeHeap topK(int k) {
+    return new NodeHeap(true, k, k);
+  }
+
+  /** An unbounded max-heap, popping the best-scored node first. */
+  static NodeHeap candidates(int initialSize) {
+    return new NodeHeap(false, Integer.MAX_VALUE, initialSize);
+  }
+
+  /**
+   * Adds the node if there is room, or if it beats the current root of a full bounded heap.
+   *
+   * @return true if the node was kept
+   */
+  boolean offer(int node, float score) {
+    if (size < capacity) {
+      push(node, score);
+      return true;
+    }
+    if (size == 0 || !minAtRoot || score <= scores[0]) {
+      return false;
+    }
+    nodes[0] = node;
+    scores[0] = score;
+    siftDown(0);
+    return true;
+  }
+
+  void push(int node, float score) {
+    if (size == nodes.length) {
+      var newSize = Math.min(capacity, size + (size >> 1) + 1);
+      nodes = Arrays.copyOf(nodes, newSize);
+      scores = Arrays.copyOf(scores, newSize);
+    }
+    nodes[size] = node;
+    scores[size] = score;
+    siftUp(size++);
+  }
+
+  int pop() {
+    var node = nodes[0];
+    size--;
+    if (size > 0) {
+      nodes[0] = nodes[size];
+      scores[0] = scores[size];
+      siftDown(0);
+    }
+    return node;
+  }
+
+  int peekNode() {
+    return nodes[0];
+  }
+
+  float peekScore() {
+    return scores[0];
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  boolean isFull() {
+    return size >= capacity;
+  }
+
+  void clear() {
+    size = 0;
+  }
+
+  /**
+   * Empties the heap into the given arrays, best score first.
+   *
+   * @return the number of nodes written
+   */
+  int drainDescending(int[] outNodes, float[] outScores) {
+    var count = size;
+    if (minAtRoot) {
+      for (int i = count - 1; i >= 0; i--) {
+        outScores[i] = peekScore();
+        outNodes[i] = pop();
+      }
+    } else {
+      for (int i = 0; i < count; i++) {
+        outScores[i] = peekScore();
+        outNodes[i] = pop();
+      }
+    }
+    return count;
+  }
+
+  private boolean before(int a, int b) {
+    return minAtRoot ? scores[a] < scores[b] : scores[a] > scores[b];
+  }
+
+  private void siftUp(int index) {
+    while (index > 0) {
+      var parent = (index - 1) >>> 1;
+      if (!before(index, parent)) {
+        return;
+      }
+      swap(index, parent);
+      index = parent;
+    }
+  }
+
+  private void siftDown(int index) {
+    while (true) {
+      var left = 2 * index + 1;
+      if (left >= size) {
+        return;
+      }
+      var right = left + 1;
+      var child = right < size && before(right, left) ? right : left;
+      if (!before(child, index)) {
+        return;
+      }
+      swap(index, child);
+      index = child;
+    }
+  }
+
+  private void swap(int a, int b) {
+    var node = nodes[a];
+    nodes[a] = nodes[b];
+    nodes[b] = node;
+    var score = scores[a];
+    scores[a] = scores[b];
+    scores[b] = score;
+  }
+}
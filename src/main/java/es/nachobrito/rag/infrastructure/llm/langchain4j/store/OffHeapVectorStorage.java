@@ -0,0 +1,94 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Keeps every vector in a single off-heap {@link MemorySegment}, row after row, so an exact scan
+ * streams through contiguous memory that the garbage collector never has to trace or move.
+ *
+ * <p>The segment grows by reallocation; appends happen with the store's write lock held, so no
+ * reader can be looking at the old segment, which is released by the GC through its automatic
+ * arena.
+ *
+ * @author nacho
+ */
+class OffHeapVectorStorage implements VectorStorage {
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final long ALIGNMENT = 64;
+
+  private int dimension;
+  private int size;
+  private int capacity;
+  private MemorySegment data = MemorySegment.NULL;
+
+  @Override
+  public int dimension() {
+    return dimension;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public int append(float[] vector) {
+    if (size == 0 && dimension == 0) {
+      dimension = vector.length;
+    }
+    if (vector.length != dimension) {
+      throw new IllegalArgumentException(
+          "Expected a vector with %d dimensions, got %d".formatted(dimension, vector.length));
+    }
+    if (size == capacity) {
+      grow();
+    }
+    MemorySegment.copy(vector, 0, data, SegmentReader.FLOAT, offset(size), dimension);
+    return size++;
+  }
+
+  private void grow() {
+    var newCapacity = Math.max(INITIAL_CAPACITY, capacity + (capacity >> 1));
+    var grown = Arena.ofAuto().allocate((long) newCapacity * dimension * Float.BYTES, ALIGNMENT);
+    MemorySegment.copy(data, 0, grown, 0, offset(size));
+    data = grown;
+    capacity = newCapacity;
+  }
+
+  @Override
+  public float[] get(int ordinal) {
+    var vector = new float[dimension];
+    MemorySegment.copy(data, SegmentReader.FLOAT, offset(ordinal), vector, 0, dimension);
+    return vector;
+  }
+
+  @Override
+  public float dot(int ordinal, float[] query) {
+    return VectorKernels.dot(data, offset(ordinal), query, dimension);
+  }
+
+  @Override
+  public float dot(int a, int b) {
+    return VectorKernels.dot(data, offset(a), offset(b), dimension);
+  }
+
+  private long offset(int ordinal) {
+    return (long) ordinal * dimension * Float.BYTES;
+  }
+}
@@ -0,0 +1,511 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Base class for the embedding stores that address their entries by a dense int ordinal.
+ *
+ * <p>Vectors are normalized on the way in, so cosine similarity is a plain dot product. Removed
+ * entries are tombstoned rather than compacted, because subclasses may hold index structures that
+ * point at their ordinals. Subclasses decide how the nearest neighbours of a query are found and
+ * may append their own index section to the persisted file.
+ *
+ * <p>The store is persisted as an {@link IndexFile}. Loading maps the file instead of reading it:
+ * vectors, ids and segments are served from the mapping, and only entries added afterwards are kept
+ * on the heap until the next {@link #serialize()}.
+ *
+ * @author nacho
+ */
+public abstract class OrdinalEmbeddingStore implements IterableEmbeddingStore {
+  protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+  protected final BitSet deleted = new BitSet();
+  protected VectorStorage vectors = new OffHeapVectorStorage();
+  private SegmentTable table = new SegmentTable();
+  private Map<String, Integer> ordinals = new HashMap<>();
+  private volatile MetadataIndex metadataIndex = new MetadataIndex();
+  private final Path file;
+  // owns the mapping of the file the entries were loaded from, if this store is its only user
+  private Arena arena;
+
+  /**
+   * @param file where {@link #serialize()} persists the store; {@code null} for a store that is
+   *     persisted as part of another one, like the shards of a {@link ShardedEmbeddingStore}
+   */
+  protected OrdinalEmbeddingStore(Path file) {
+    this.file = file;
+  }
+
+  /**
+   * Finds the nearest neighbours of the (already normalized) query among the ordinals accepted by
+   * {@code live}: not removed, nor excluded by the caller.
+   *
+   * @return a bounded heap holding at most {@code k} ordinals with their cosine similarity
+   */
+  protected abstract NodeHeap nearest(float[] query, int k, Filter filter, IntPredicate live);
+
+  /** Short name of the store, written to the file header to detect mismatched files. */
+  protected abstract String kind();
+
+  /** Called with the write lock held, right after a new vector has been stored. */
+  protected void onInsert(int ordinal) {}
+
+  /** Called with the write lock held, after every entry has been dropped. */
+  protected void onClear() {}
+
+  /** Writes the subclass' index section; called with the read lock held. */
+  protected void writeIndex(SectionWriter out) {}
+
+  /**
+   * Restores the section written by {@link #writeIndex}, once the entries are available. The reader
+   * is backed by the file mapping, which stays valid for the lifetime of the store.
+   */
+  protected void readIndex(SegmentReader in) throws IOException {}
+
+  @Override
+  public String add(Embedding embedding) {
+    var id = UUID.randomUUID().toString();
+    add(id, embedding);
+    return id;
+  }
+
+  @Override
+  public void add(String id, Embedding embedding) {
+    addAll(List.of(id), List.of(embedding), null);
+  }
+
+  @Override
+  public String add(Embedding embedding, TextSegment textSegment) {
+    var id = UUID.randomUUID().toString();
+    addAll(List.of(id), List.of(embedding), List.of(textSegment));
+    return id;
+  }
+
+  @Override
+  public List<String> addAll(List<Embedding> embeddings) {
+    var ids = generateIds(embeddings.size());
+    addAll(ids, embeddings, null);
+    return ids;
+  }
+
+  @Override
+  public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> embedded) {
+    if (ids.size() != embeddings.size() || (embedded != null && embedded.size() != ids.size())) {
+      throw new IllegalArgumentException("ids, embeddings and embedded must have the same size");
+    }
+    lock.writeLock().lock();
+    try {
+      for (int i = 0; i < ids.size(); i++) {
+        insert(ids.get(i), embeddings.get(i).vector(), embedded == null ? null : embedded.get(i));
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void insert(String id, float[] vector, TextSegment segment) {
+    var ordinals = ordinals();
+    var previous = ordinals.get(id);
+    if (previous != null) {
+      deleted.set(previous);
+    }
+    var ordinal = vectors.append(VectorKernels.normalize(vector));
+    table.append(id, segment);
+    ordinals.put(id, ordinal);
+    var index = metadataIndex;
+    if (index != null) {
+      index.add(ordinal, segment);
+    }
+    onInsert(ordinal);
+  }
+
+  /**
+   * The id lookup is only needed to write, so after a load it is built on the first write instead
+   * of decoding every id from the mapping up front. Callers hold the write lock.
+   */
+  private Map<String, Integer> ordinals() {
+    if (ordinals == null) {
+      ordinals = new HashMap<>();
+      for (int ordinal = 0; ordinal < table.size(); ordinal++) {
+        if (!deleted.get(ordinal)) {
+          ordinals.put(table.id(ordinal), ordinal);
+        }
+      }
+    }
+    return ordinals;
+  }
+
+  @Override
+  public void removeAll(Collection<String> ids) {
+    lock.writeLock().lock();
+    try {
+      var ordinals = ordinals();
+      for (var id : ids) {
+        var ordinal = ordinals.remove(id);
+        if (ordinal != null) {
+          deleted.set(ordinal);
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void removeAll(Filter filter) {
+    lock.writeLock().lock();
+    try {
+      var ordinals = ordinals();
+      forEachCandidate(
+          filter,
+          this::isLive,
+          ordinal -> {
+            deleted.set(ordinal);
+            ordinals.remove(table.id(ordinal));
+          });
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void removeAll() {
+    lock.writeLock().lock();
+    try {
+      vectors = new OffHeapVectorStorage();
+      table = new SegmentTable();
+      ordinals = new HashMap<>();
+      metadataIndex = new MetadataIndex();
+      deleted.clear();
+      onClear();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void close() {
+    lock.writeLock().lock();
+    try {
+      removeAll();
+      if (arena != null) {
+        arena.close();
+        arena = null;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+    return search(request, Set.of());
+  }
+
+  @Override
+  public EmbeddingSearchResult<TextSegment> search(
+      EmbeddingSearchRequest request, Set<String> excluded) {
+    var query = VectorKernels.normalize(request.queryEmbedding().vector());
+    var excludedOrdinals = excluded.isEmpty() ? null : ordinalsOf(excluded);
+    IntPredicate live =
+        excludedOrdinals == null || excludedOrdinals.isEmpty()
+            ? this::isLive
+            : ordinal -> isLive(ordinal) && !excludedOrdinals.get(ordinal);
+    lock.readLock().lock();
+    try {
+      if (vectors.size() == 0) {
+        return new EmbeddingSearchResult<>(List.of());
+      }
+      var heap = nearest(query, request.maxResults(), request.filter(), live);
+      var nodes = new int[heap.size()];
+      var similarities = new float[heap.size()];
+      var count = heap.drainDescending(nodes, similarities);
+      var matches = new ArrayList<EmbeddingMatch<TextSegment>>(count);
+      for (int i = 0; i < count; i++) {
+        var score = RelevanceScore.fromCosineSimilarity(similarities[i]);
+        if (score < request.minScore()) {
+          break;
+        }
+        var ordinal = nodes[i];
+        matches.add(
+            new EmbeddingMatch<>(
+                score,
+                table.id(ordinal),
+                Embedding.from(vectors.get(ordinal)),
+                table.segment(ordinal)));
+      }
+      return new EmbeddingSearchResult<>(matches);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Ordinals of the given ids that are stored; the lookup is built as in {@link #contains}. */
+  private BitSet ordinalsOf(Collection<String> ids) {
+    lock.readLock().lock();
+    try {
+      if (ordinals != null) {
+        return ordinalsOf(ordinals, ids);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    lock.writeLock().lock();
+    try {
+      return ordinalsOf(ordinals(), ids);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private static BitSet ordinalsOf(Map<String, Integer> ordinals, Collection<String> ids) {
+    var result = new BitSet();
+    for (var id : ids) {
+      var ordinal = ordinals.get(id);
+      if (ordinal != null) {
+        result.set(ordinal);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The id lookup is built on the first call after a load; later calls only need the read lock, so
+   * they do not wait for searches.
+   */
+  @Override
+  public boolean contains(String id) {
+    lock.readLock().lock();
+    try {
+      if (ordinals != null) {
+        return ordinals.containsKey(id);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    lock.writeLock().lock();
+    try {
+      return ordinals().containsKey(id);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void forEachEntry(EntryVisitor visitor) {
+    lock.readLock().lock();
+    try {
+      for (int ordinal = 0; ordinal < vectors.size(); ordinal++) {
+        if (isLive(ordinal)) {
+          visitor.visit(table.id(ordinal), vectors.get(ordinal), table.segment(ordinal));
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Number of live (not removed) entries. */
+  @Override
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return vectors.size() - deleted.cardinality();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  protected boolean isLive(int ordinal) {
+    return !deleted.get(ordinal);
+  }
+
+  protected IntPredicate accept(Filter filter, IntPredicate live) {
+    if (filter == null) {
+      return live;
+    }
+    return ordinal -> live.test(ordinal) && matches(filter, ordinal);
+  }
+
+  private boolean matches(Filter filter, int ordinal) {
+    var segment = table.segment(ordinal);
+    return segment != null && filter.test(segment.metadata());
+  }
+
+  /**
+   * Calls {@code action} with every ordinal accepted by {@code live} that passes the filter. When
+   * the filter can be answered by the {@link MetadataIndex} only the selected ordinals are visited;
+   * otherwise every entry is tested.
+   */
+  protected void forEachCandidate(Filter filter, IntPredicate live, IntConsumer action) {
+    var selection = filter == null ? null : metadataIndex().select(filter);
+    if (selection == null) {
+      var accept = accept(filter, live);
+      for (int ordinal = 0; ordinal < vectors.size(); ordinal++) {
+        if (accept.test(ordinal)) {
+          action.accept(ordinal);
+        }
+      }
+      return;
+    }
+    var iterator = selection.ordinals().getIntIterator();
+    while (iterator.hasNext()) {
+      var ordinal = iterator.next();
+      if (live.test(ordinal) && (selection.exact() || matches(filter, ordinal))) {
+        action.accept(ordinal);
+      }
+    }
+  }
+
+  /**
+   * After a load the index is rebuilt from the mapped segments on the first filtered search, rather
+   * than slowing down every startup.
+   */
+  private MetadataIndex metadataIndex() {
+    var index = metadataIndex;
+    if (index == null) {
+      synchronized (this) {
+        index = metadataIndex;
+        if (index == null) {
+          index = new MetadataIndex();
+          for (int ordinal = 0; ordinal < table.size(); ordinal++) {
+            index.add(ordinal, table.segment(ordinal));
+          }
+          metadataIndex = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  /** Scores every candidate; the reference every other strategy is measured against. */
+  protected NodeHeap exactNearest(float[] query, int k, Filter filter, IntPredicate live) {
+    var top = NodeHeap.topK(k);
+    forEachCandidate(filter, live, ordinal -> top.offer(ordinal, vectors.dot(ordinal, query)));
+    return top;
+  }
+
+  @Override
+  public Path file() {
+    return file;
+  }
+
+  /**
+   * Writes a new file next to the current one and atomically moves it into place, so a reader that
+   * has the previous version mapped keeps a consistent view of it.
+   */
+  @Override
+  public void serialize() {
+    try {
+      var parent = file.toAbsolutePath().getParent();
+      Files.createDirectories(parent);
+      var tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+      try (var channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+        writeTo(channel);
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Writes the store as an {@link IndexFile} at the current position of the channel. */
+  void writeTo(WritableByteChannel channel) throws IOException {
+    lock.readLock().lock();
+    try {
+      var index = new SectionWriter();
+      writeIndex(index);
+      IndexFile.write(channel, kind(), vectors, table, deleted, index);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Maps the file written by {@link #serialize()}, if it exists. */
+  protected void load() {
+    if (!Files.isRegularFile(file)) {
+      return;
+    }
+    var mapping = Arena.ofShared();
+    try {
+      loadFrom(IndexFile.open(file, mapping), mapping);
+    } catch (IOException e) {
+      mapping.close();
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Replaces the (empty) contents of the store with those of the index file. */
+  void loadFrom(IndexFile indexFile) throws IOException {
+    loadFrom(indexFile, null);
+  }
+
+  /**
+   * Replaces the (empty) contents of the store with those of the index file, whose mapping is
+   * released by {@link #close()} if {@code mapping} is not null.
+   */
+  void loadFrom(IndexFile indexFile, Arena mapping) throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (!kind().equals(indexFile.kind())) {
+        throw new IOException(
+            "%s holds a '%s' store, expected '%s'"
+                .formatted(indexFile.source(), indexFile.kind(), kind()));
+      }
+      if (indexFile.count() > 0) {
+        vectors =
+            new MappedVectorStorage(indexFile.vectors(), indexFile.count(), indexFile.dimension());
+        table = new SegmentTable(indexFile);
+        ordinals = null;
+        metadataIndex = null;
+        deleted.or(indexFile.deleted());
+      }
+      readIndex(new SegmentReader(indexFile.index()));
+      arena = mapping;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+}
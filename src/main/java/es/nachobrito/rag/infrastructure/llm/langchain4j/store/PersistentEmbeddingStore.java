@@ -0,0 +1,40 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import java.nio.file.Path;
+
+/**
+ * An {@link EmbeddingStore} that knows where its data is persisted, so it can be restored on the
+ * next startup.
+ *
+ * @author nacho
+ */
+public interface PersistentEmbeddingStore extends EmbeddingStore<TextSegment> {
+  void serialize();
+
+  /**
+   * Makes the writes since the last call visible to searches, all at once. Stores that apply every
+   * write immediately do nothing.
+   */
+  default void publish() {}
+
+  /** The file {@link #serialize()} writes to, or {@code null} if the store is not persisted. */
+  Path file();
+}
@@ -0,0 +1,245 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import dev.langchain4j.store.embedding.filter.Filter;
+import java.lang.foreign.ValueLayout;
+import java.nio.file.Path;
+import java.util.function.IntPredicate;
+
+/**
+ * Exact-result search that scans compact codes instead of full vectors.
+ *
+ * <p>Every vector is encoded either as one signed byte per dimension ({@link Encoding#INT8}, 4x
+ * smaller than floats) or as one sign bit per dimension ({@link Encoding#BINARY}, 32x smaller). A
+ * query first scans the codes to build a shortlist of {@code k * rerankFactor} candidates, which
+ * are then re-scored with the full-precision vectors. Reported scores are therefore exact, and so
+ * is the {@code minScore} cut; the codes only decide which candidates are worth re-scoring.
+ *
+ * <p>Neither the codes nor the vectors are kept on the heap. After a load both are read from the
+ * mapped file, and the vectors are only touched for the shortlist, so the pages a scan keeps
+ * resident are those of the codes.
+ *
+ * @author nacho
+ */
+public class QuantizedEmbeddingStore extends OrdinalEmbeddingStore {
+
+  public enum Encoding {
+    INT8,
+    BINARY
+  }
+
+  private final Encoding encoding;
+  private final int rerankFactor;
+
+  // one row per ordinal: the int8 codes and their scale, or the sign bits
+  private RowStorage codes;
+  private RowStorage scales;
+
+  public QuantizedEmbeddingStore(Path file, Encoding encoding, int rerankFactor) {
+    super(file);
+    if (rerankFactor < 1) {
+      throw new IllegalArgumentException("rerankFactor must be positive");
+    }
+    this.encoding = encoding;
+    this.rerankFactor = rerankFactor;
+  }
+
+  public static QuantizedEmbeddingStore load(Path file, Encoding encoding, int rerankFactor) {
+    var store = new QuantizedEmbeddingStore(file, encoding, rerankFactor);
+    store.load();
+    return store;
+  }
+
+  @Override
+  protected String kind() {
+    return "quantized";
+  }
+
+  @Override
+  protected NodeHeap nearest(float[] query, int k, Filter filter, IntPredicate live) {
+    var shortlist =
+        encoding == Encoding.INT8
+            ? scanBytes(query, k, filter, live)
+            : scanBits(query, k, filter, live);
+    var top = NodeHeap.topK(k);
+    while (!shortlist.isEmpty()) {
+      var ordinal = shortlist.pop();
+      top.offer(ordinal, vectors.dot(ordinal, query));
+    }
+    return top;
+  }
+
+  private NodeHeap scanBytes(float[] query, int k, Filter filter, IntPredicate live) {
+    var dimension = vectors.dimension();
+    var queryCode = new byte[dimension];
+    var queryScale = quantize(query, queryCode, 0);
+    var shortlist = NodeHeap.topK(k * rerankFactor);
+    forEachCandidate(
+        filter,
+        live,
+        ordinal -> {
+          var row = codes.segment(ordinal);
+          var offset = codes.offset(ordinal);
+          var sum = 0;
+          for (int i = 0; i < dimension; i++) {
+            sum += queryCode[i] * row.get(ValueLayout.JAVA_BYTE, offset + i);
+          }
+          var scale = scales.segment(ordinal).get(SegmentReader.FLOAT, scales.offset(ordinal));
+          shortlist.offer(ordinal, sum * queryScale * scale);
+        });
+    return shortlist;
+  }
+
+  private NodeHeap scanBits(float[] query, int k, Filter filter, IntPredicate live) {
+    var words = wordsPerVector();
+    var queryCode = new long[words];
+    binarize(query, queryCode, 0);
+    var shortlist = NodeHeap.topK(k * rerankFactor);
+    forEachCandidate(
+        filter,
+        live,
+        ordinal -> {
+          var row = codes.segment(ordinal);
+          var offset = codes.offset(ordinal);
+          var distance = 0;
+          for (int i = 0; i < words; i++) {
+            var code = row.get(SegmentReader.LONG, offset + (long) i * Long.BYTES);
+            distance += Long.bitCount(queryCode[i] ^ code);
+          }
+          shortlist.offer(ordinal, -distance);
+        });
+    return shortlist;
+  }
+
+  @Override
+  protected void onInsert(int ordinal) {
+    encode(ordinal);
+  }
+
+  @Override
+  protected void onClear() {
+    // the row size depends on the dimension, known once the first vector is stored
+    codes = null;
+    scales = null;
+  }
+
+  /** Codes section: the encoding, then the codes of every ordinal (and the int8 scales). */
+  @Override
+  protected void writeIndex(SectionWriter out) {
+    out.putByte(encoding.ordinal());
+    if (codes != null) {
+      codes.writeTo(out);
+      if (scales != null) {
+        scales.writeTo(out);
+      }
+    }
+  }
+
+  /**
+   * Serves the persisted codes from the mapping, or rebuilds them from the vectors when the file
+   * was written with a different encoding.
+   */
+  @Override
+  protected void readIndex(SegmentReader in) {
+    var count = vectors.size();
+    if (in.segment().byteSize() == 0 || in.getByte() != encoding.ordinal()) {
+      for (int ordinal = 0; ordinal < count; ordinal++) {
+        encode(ordinal);
+      }
+      return;
+    }
+    if (count == 0) {
+      return;
+    }
+    codes = mapped(in, codeBytes(), count);
+    if (encoding == Encoding.INT8) {
+      scales = mapped(in, Float.BYTES, count);
+    }
+  }
+
+  private static RowStorage mapped(SegmentReader in, int rowBytes, int count) {
+    var length = (long) rowBytes * count;
+    var rows = new RowStorage(rowBytes, in.segment().asSlice(in.position(), length), count);
+    in.seek(in.position() + length);
+    return rows;
+  }
+
+  private void encode(int ordinal) {
+    var vector = vectors.get(ordinal);
+    if (codes == null) {
+      codes = new RowStorage(codeBytes());
+      scales = encoding == Encoding.INT8 ? new RowStorage(Float.BYTES) : null;
+    }
+    var row = codes.append();
+    var target = codes.segment(row);
+    var offset = codes.offset(row);
+    if (encoding == Encoding.INT8) {
+      var code = new byte[vector.length];
+      var scale = quantize(vector, code, 0);
+      for (int i = 0; i < code.length; i++) {
+        target.set(ValueLayout.JAVA_BYTE, offset + i, code[i]);
+      }
+      var scaleRow = scales.append();
+      scales.segment(scaleRow).set(SegmentReader.FLOAT, scales.offset(scaleRow), scale);
+    } else {
+      var code = new long[wordsPerVector()];
+      binarize(vector, code, 0);
+      for (int i = 0; i < code.length; i++) {
+        target.set(SegmentReader.LONG, offset + (long) i * Long.BYTES, code[i]);
+      }
+    }
+  }
+
+  /** Size of the code of one vector, in bytes. */
+  private int codeBytes() {
+    return encoding == Encoding.INT8 ? vectors.dimension() : wordsPerVector() * Long.BYTES;
+  }
+
+  private int wordsPerVector() {
+    return (vectors.dimension() + 63) >>> 6;
+  }
+
+  /**
+   * Symmetric scalar quantization: every component is mapped to [-127, 127] relative to the largest
+   * absolute component of the vector.
+   *
+   * @return the factor that maps a code back to the original scale
+   */
+  private static float quantize(float[] vector, byte[] codes, int offset) {
+    var max = 0f;
+    for (var v : vector) {
+      max = Math.max(max, Math.abs(v));
+    }
+    if (max == 0) {
+      return 0;
+    }
+    var factor = 127 / max;
+    for (int i = 0; i < vector.length; i++) {
+      codes[offset + i] = (byte) Math.round(vector[i] * factor);
+    }
+    return max / 127;
+  }
+
+  private static void binarize(float[] vector, long[] codes, int offset) {
+    for (int i = 0; i < vector.length; i++) {
+      if (vector[i] > 0) {
+        codes[offset + (i >>> 6)] |= 1L << (i & 63);
+      }
+    }
+  }
+}
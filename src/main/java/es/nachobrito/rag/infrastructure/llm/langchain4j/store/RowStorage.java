@@ -0,0 +1,81 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Fixed-size rows of bytes, such as the codes of a {@link QuantizedEmbeddingStore}. The rows read
+ * from an {@link IndexFile} are served straight from its mapping; rows appended since are kept in
+ * off-heap memory that grows like an {@link OffHeapVectorStorage}, until the store is serialized
+ * again. Nothing is kept on the heap.
+ *
+ * @author nacho
+ */
+final class RowStorage {
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final int rowBytes;
+  private final MemorySegment base;
+  private final int baseSize;
+  private MemorySegment tail = MemorySegment.NULL;
+  private int tailSize;
+  private int tailCapacity;
+
+  RowStorage(int rowBytes) {
+    this(rowBytes, MemorySegment.NULL, 0);
+  }
+
+  /** Rows served from the first {@code baseSize} rows of {@code base}. */
+  RowStorage(int rowBytes, MemorySegment base, int baseSize) {
+    this.rowBytes = rowBytes;
+    this.base = base;
+    this.baseSize = baseSize;
+  }
+
+  int size() {
+    return baseSize + tailSize;
+  }
+
+  /** Adds a row of zeros, to be filled through {@link #segment} and {@link #offset}. */
+  int append() {
+    if (tailSize == tailCapacity) {
+      var capacity = Math.max(INITIAL_CAPACITY, tailCapacity + (tailCapacity >> 1));
+      var grown = Arena.ofAuto().allocate((long) capacity * rowBytes);
+      MemorySegment.copy(tail, 0, grown, 0, (long) tailSize * rowBytes);
+      tail = grown;
+      tailCapacity = capacity;
+    }
+    return baseSize + tailSize++;
+  }
+
+  /** The memory that holds a row, at {@link #offset}. */
+  MemorySegment segment(int row) {
+    return row < baseSize ? base : tail;
+  }
+
+  long offset(int row) {
+    return (long) (row < baseSize ? row : row - baseSize) * rowBytes;
+  }
+
+  /** Writes every row, in order. */
+  void writeTo(SectionWriter out) {
+    out.putBytes(base, 0, (long) baseSize * rowBytes);
+    out.putBytes(tail, 0, (long) tailSize * rowBytes);
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Growable little-endian buffer used to build the sections of an {@link IndexFile}, and the records
+ * of a {@link DocumentStore}.
+ *
+ * @author nacho
+ */
+final class SectionWriter {
+  private ByteBuffer buffer = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+
+  int position() {
+    return buffer.position();
+  }
+
+  SectionWriter putByte(int value) {
+    ensure(1).put((byte) value);
+    return this;
+  }
+
+  SectionWriter putInt(int value) {
+    ensure(Integer.BYTES).putInt(value);
+    return this;
+  }
+
+  SectionWriter putInt(int position, int value) {
+    buffer.putInt(position, value);
+    return this;
+  }
+
+  SectionWriter putLong(long value) {
+    ensure(Long.BYTES).putLong(value);
+    return this;
+  }
+
+  SectionWriter putLong(int position, long value) {
+    buffer.putLong(position, value);
+    return this;
+  }
+
+  SectionWriter putFloat(float value) {
+    ensure(Float.BYTES).putFloat(value);
+    return this;
+  }
+
+  SectionWriter putDouble(double value) {
+    ensure(Double.BYTES).putDouble(value);
+    return this;
+  }
+
+  SectionWriter putBytes(byte[] value) {
+    return putBytes(value, 0, value.length);
+  }
+
+  SectionWriter putBytes(byte[] value, int offset, int length) {
+    ensure(length).put(value, offset, length);
+    return this;
+  }
+
+  SectionWriter putBytes(MemorySegment source, long offset, long length) {
+    if (length > 0) {
+      ensure(Math.toIntExact(length)).put(source.asSlice(offset, length).asByteBuffer());
+    }
+    return this;
+  }
+
+  /** Length-prefixed UTF-8. */
+  SectionWriter putString(String value) {
+    var bytes = value.getBytes(StandardCharsets.UTF_8);
+    return putInt(bytes.length).putBytes(bytes);
+  }
+
+  /** Reserves room for {@code bytes} bytes, to be filled later with the positional setters. */
+  SectionWriter skip(int bytes) {
+    ensure(bytes);
+    buffer.position(buffer.position() + bytes);
+    return this;
+  }
+
+  void writeTo(WritableByteChannel channel) throws IOException {
+    var data = buffer.duplicate().flip();
+    while (data.hasRemaining()) {
+      channel.write(data);
+    }
+  }
+
+  /** Copies what has been written so far into {@code target} at {@code offset}. */
+  void writeTo(MemorySegment target, long offset) {
+    MemorySegment.copy(
+        MemorySegment.ofBuffer(buffer.duplicate().flip()), 0, target, offset, position());
+  }
+
+  private ByteBuffer ensure(int bytes) {
+    if (buffer.remaining() < bytes) {
+      var required = (long) buffer.position() + bytes;
+      var capacity = Math.max(required, (long) buffer.capacity() * 2);
+      if (capacity > Integer.MAX_VALUE - 8) {
+        capacity = required;
+      }
+      var grown = ByteBuffer.allocate(Math.toIntExact(capacity)).order(ByteOrder.LITTLE_ENDIAN);
+      grown.put(buffer.flip());
+      buffer = grown;
+    }
+    return buffer;
+  }
+}
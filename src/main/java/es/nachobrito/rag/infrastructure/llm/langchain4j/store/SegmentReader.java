@@ -0,0 +1,127 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Little-endian cursor over a (usually memory-mapped) {@link MemorySegment}, the read side of
+ * {@link SectionWriter}.
+ *
+ * @author nacho
+ */
+final class SegmentReader {
+  static final ValueLayout.OfShort SHORT =
+      ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+  static final ValueLayout.OfInt INT =
+      ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+  static final ValueLayout.OfLong LONG =
+      ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+  static final ValueLayout.OfFloat FLOAT =
+      ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+  static final ValueLayout.OfDouble DOUBLE =
+      ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+  private final MemorySegment segment;
+  private long position;
+
+  SegmentReader(MemorySegment segment) {
+    this(segment, 0);
+  }
+
+  SegmentReader(MemorySegment segment, long position) {
+    this.segment = segment;
+    this.position = position;
+  }
+
+  MemorySegment segment() {
+    return segment;
+  }
+
+  long position() {
+    return position;
+  }
+
+  SegmentReader seek(long position) {
+    this.position = position;
+    return this;
+  }
+
+  byte getByte() {
+    return segment.get(ValueLayout.JAVA_BYTE, position++);
+  }
+
+  int getInt() {
+    var value = segment.get(INT, position);
+    position += Integer.BYTES;
+    return value;
+  }
+
+  long getLong() {
+    var value = segment.get(LONG, position);
+    position += Long.BYTES;
+    return value;
+  }
+
+  float getFloat() {
+    var value = segment.get(FLOAT, position);
+    position += Float.BYTES;
+    return value;
+  }
+
+  double getDouble() {
+    var value = segment.get(DOUBLE, position);
+    position += Double.BYTES;
+    return value;
+  }
+
+  String getString() {
+    var length = getInt();
+    var bytes = new byte[length];
+    MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, position, bytes, 0, length);
+    position += length;
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  void skipString() {
+    var length = getInt();
+    position += length;
+  }
+
+  void getBytes(byte[] target) {
+    MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, position, target, 0, target.length);
+    position += target.length;
+  }
+
+  void getInts(int[] target) {
+    MemorySegment.copy(segment, INT, position, target, 0, target.length);
+    position += (long) target.length * Integer.BYTES;
+  }
+
+  void getFloats(float[] target) {
+    MemorySegment.copy(segment, FLOAT, position, target, 0, target.length);
+    position += (long) target.length * Float.BYTES;
+  }
+
+  void getLongs(long[] target) {
+    MemorySegment.copy(segment, LONG, position, target, 0, target.length);
+    position += (long) target.length * Long.BYTES;
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import dev.langchain4j.data.segment.TextSegment;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ids and text segments by ordinal. Entries restored from an {@link IndexFile} are decoded from the
+ * mapping on access; entries added afterwards live on the heap.
+ *
+ * @author nacho
+ */
+final class SegmentTable {
+  private final IndexFile base;
+  private final int baseSize;
+  private final List<String> ids = new ArrayList<>();
+  private final List<TextSegment> segments = new ArrayList<>();
+
+  SegmentTable() {
+    this(null);
+  }
+
+  SegmentTable(IndexFile base) {
+    this.base = base;
+    this.baseSize = base == null ? 0 : base.count();
+  }
+
+  int size() {
+    return baseSize + ids.size();
+  }
+
+  String id(int ordinal) {
+    return ordinal < baseSize ? base.id(ordinal) : ids.get(ordinal - baseSize);
+  }
+
+  TextSegment segment(int ordinal) {
+    return ordinal < baseSize ? base.segment(ordinal) : segments.get(ordinal - baseSize);
+  }
+
+  void append(String id, TextSegment segment) {
+    ids.add(id);
+    segments.add(segment);
+  }
+}
@@ -0,0 +1,311 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.filter.Filter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Partitions the entries across several {@link OrdinalEmbeddingStore} shards, and searches all of
+ * them in parallel.
+ *
+ * <p>Entries are routed to a shard by the hash of their id, so replacing or removing an id only
+ * touches one shard. A search runs on every shard at the same time (one on the calling thread, the
+ * rest on a pool shared by every sharded store of the application) and the per-shard top k are
+ * merged into the final result.
+ *
+ * <p>All the shards are persisted in a single file: a small header with the offset and length of
+ * each shard, followed by one {@link IndexFile} per shard. The number of shards is fixed by the
+ * file once it exists, because changing it would route existing ids to the wrong shard.
+ *
+ * @author nacho
+ */
+public class ShardedEmbeddingStore implements IterableEmbeddingStore {
+  private static final Logger log = LoggerFactory.getLogger(ShardedEmbeddingStore.class);
+  private static final int MAGIC = 0x53484152;
+  private static final int VERSION = 1;
+
+  private final Path file;
+  private final OrdinalEmbeddingStore[] shards;
+  private final ExecutorService executor;
+  // owns the mapping of the file the shards were loaded from
+  private Arena arena;
+
+  private ShardedEmbeddingStore(
+      Path file, int count, Supplier<OrdinalEmbeddingStore> factory, ExecutorService executor) {
+    if (count < 2) {
+      throw new IllegalArgumentException("A sharded store needs at least two shards");
+    }
+    this.file = file;
+    this.shards = new OrdinalEmbeddingStore[count];
+    for (int i = 0; i < count; i++) {
+      shards[i] = factory.get();
+    }
+    this.executor = executor;
+  }
+
+  /** An empty store that {@link #serialize()} writes to {@code file}, replacing what it holds. */
+  public static ShardedEmbeddingStore create(
+      Path file, int shards, Supplier<OrdinalEmbeddingStore> factory, ExecutorService executor) {
+    return new ShardedEmbeddingStore(file, shards, factory, executor);
+  }
+
+  /**
+   * @param factory creates an empty shard; shards are persisted by this store, so they are created
+   *     without a file of their own
+   * @param executor searches every shard but the first; it belongs to the caller, which shuts it
+   *     down
+   */
+  public static ShardedEmbeddingStore load(
+      Path file, int shards, Supplier<OrdinalEmbeddingStore> factory, ExecutorService executor) {
+    if (!Files.isRegularFile(file)) {
+      return new ShardedEmbeddingStore(file, shards, factory, executor);
+    }
+    var mapping = Arena.ofShared();
+    try {
+      var data = IndexFile.map(file, mapping);
+      var header = new SegmentReader(data);
+      if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+        throw new IOException("%s is not a sharded embedding store file".formatted(file));
+      }
+      var stored = header.getInt();
+      if (stored != shards) {
+        log.warn("{} was written with {} shards, ignoring the configured {}", file, stored, shards);
+      }
+      var store = new ShardedEmbeddingStore(file, stored, factory, executor);
+      for (int i = 0; i < stored; i++) {
+        var slice = data.asSlice(header.getLong(), header.getLong());
+        store.shards[i].loadFrom(IndexFile.of(slice, "%s (shard %d)".formatted(file, i)));
+      }
+      store.arena = mapping;
+      return store;
+    } catch (IOException e) {
+      mapping.close();
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private OrdinalEmbeddingStore shard(String id) {
+    return shards[shardIndex(id)];
+  }
+
+  private int shardIndex(String id) {
+    return Math.floorMod(id.hashCode(), shards.length);
+  }
+
+  @Override
+  public String add(Embedding embedding) {
+    var id = UUID.randomUUID().toString();
+    add(id, embedding);
+    return id;
+  }
+
+  @Override
+  public void add(String id, Embedding embedding) {
+    shard(id).add(id, embedding);
+  }
+
+  @Override
+  public String add(Embedding embedding, TextSegment textSegment) {
+    var id = UUID.randomUUID().toString();
+    addAll(List.of(id), List.of(embedding), List.of(textSegment));
+    return id;
+  }
+
+  @Override
+  public List<String> addAll(List<Embedding> embeddings) {
+    var ids = generateIds(embeddings.size());
+    addAll(ids, embeddings, null);
+    return ids;
+  }
+
+  @Override
+  public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> embedded) {
+    if (ids.size() != embeddings.size() || (embedded != null && embedded.size() != ids.size())) {
+      throw new IllegalArgumentException("ids, embeddings and embedded must have the same size");
+    }
+    var shardIds = new ArrayList<List<String>>(shards.length);
+    var shardEmbeddings = new ArrayList<List<Embedding>>(shards.length);
+    var shardSegments = new ArrayList<List<TextSegment>>(shards.length);
+    for (int i = 0; i < shards.length; i++) {
+      shardIds.add(new ArrayList<>());
+      shardEmbeddings.add(new ArrayList<>());
+      shardSegments.add(new ArrayList<>());
+    }
+    for (int i = 0; i < ids.size(); i++) {
+      var shard = shardIndex(ids.get(i));
+      shardIds.get(shard).add(ids.get(i));
+      shardEmbeddings.get(shard).add(embeddings.get(i));
+      shardSegments.get(shard).add(embedded == null ? null : embedded.get(i));
+    }
+    for (int i = 0; i < shards.length; i++) {
+      if (!shardIds.get(i).isEmpty()) {
+        shards[i].addAll(shardIds.get(i), shardEmbeddings.get(i), shardSegments.get(i));
+      }
+    }
+  }
+
+  @Override
+  public void removeAll(Collection<String> ids) {
+    for (var id : ids) {
+      shard(id).removeAll(List.of(id));
+    }
+  }
+
+  @Override
+  public void removeAll(Filter filter) {
+    for (var shard : shards) {
+      shard.removeAll(filter);
+    }
+  }
+
+  @Override
+  public void removeAll() {
+    for (var shard : shards) {
+      shard.removeAll();
+    }
+  }
+
+  @Override
+  public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+    return search(request, Set.of());
+  }
+
+  @Override
+  public EmbeddingSearchResult<TextSegment> search(
+      EmbeddingSearchRequest request, Set<String> excluded) {
+    var pending = new ArrayList<Future<EmbeddingSearchResult<TextSegment>>>(shards.length - 1);
+    for (int i = 1; i < shards.length; i++) {
+      var shard = shards[i];
+      pending.add(executor.submit(() -> shard.search(request, excluded)));
+    }
+    var matches = new ArrayList<>(shards[0].search(request, excluded).matches());
+    for (var result : pending) {
+      matches.addAll(join(result).matches());
+    }
+    matches.sort(Comparator.comparingDouble(EmbeddingMatch<TextSegment>::score).reversed());
+    var count = Math.min(request.maxResults(), matches.size());
+    return new EmbeddingSearchResult<>(new ArrayList<>(matches.subList(0, count)));
+  }
+
+  private static <T> T join(Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while searching the shards", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  @Override
+  public boolean contains(String id) {
+    return shard(id).contains(id);
+  }
+
+  @Override
+  public void forEachEntry(EntryVisitor visitor) {
+    for (var shard : shards) {
+      shard.forEachEntry(visitor);
+    }
+  }
+
+  /** Number of live entries across all the shards. */
+  @Override
+  public int size() {
+    var size = 0;
+    for (var shard : shards) {
+      size += shard.size();
+    }
+    return size;
+  }
+
+  /** Closes every shard and unmaps the file; the executor is left to its owner. */
+  @Override
+  public void close() {
+    for (var shard : shards) {
+      shard.close();
+    }
+    if (arena != null) {
+      arena.close();
+      arena = null;
+    }
+  }
+
+  public int shardCount() {
+    return shards.length;
+  }
+
+  @Override
+  public Path file() {
+    return file;
+  }
+
+  @Override
+  public void serialize() {
+    try {
+      var parent = file.toAbsolutePath().getParent();
+      Files.createDirectories(parent);
+      var tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+      try (var channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+        var header = new SectionWriter().putInt(MAGIC).putInt(VERSION).putInt(shards.length);
+        var offsets = header.position();
+        header.skip(shards.length * 2 * Long.BYTES);
+        channel.position(header.position());
+        for (int i = 0; i < shards.length; i++) {
+          var start = channel.position();
+          shards[i].writeTo(channel);
+          header.putLong(offsets + i * 2 * Long.BYTES, start);
+          header.putLong(offsets + i * 2 * Long.BYTES + Long.BYTES, channel.position() - start);
+        }
+        channel.position(0);
+        header.writeTo(channel);
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
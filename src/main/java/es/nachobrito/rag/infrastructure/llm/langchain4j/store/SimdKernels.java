@@ -0,0 +1,88 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API implementation of {@link VectorKernels}. Only loaded when the incubator module is
+ * present.
+ *
+ * @author nacho
+ */
+final class SimdKernels {
+  private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+  private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+  private SimdKernels() {}
+
+  static int bitSize() {
+    return SPECIES.vectorBitSize();
+  }
+
+  static float dot(float[] a, float[] b) {
+    var sum = FloatVector.zero(SPECIES);
+    var bound = SPECIES.loopBound(a.length);
+    var i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      sum = FloatVector.fromArray(SPECIES, a, i).fma(FloatVector.fromArray(SPECIES, b, i), sum);
+    }
+    var result = sum.reduceLanes(VectorOperators.ADD);
+    for (; i < a.length; i++) {
+      result += a[i] * b[i];
+    }
+    return result;
+  }
+
+  static float dot(MemorySegment rows, long offset, float[] query, int length) {
+    var sum = FloatVector.zero(SPECIES);
+    var bound = SPECIES.loopBound(length);
+    var i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      var row =
+          FloatVector.fromMemorySegment(SPECIES, rows, offset + (long) i * Float.BYTES, ORDER);
+      sum = row.fma(FloatVector.fromArray(SPECIES, query, i), sum);
+    }
+    var result = sum.reduceLanes(VectorOperators.ADD);
+    for (; i < length; i++) {
+      result += rows.get(SegmentReader.FLOAT, offset + (long) i * Float.BYTES) * query[i];
+    }
+    return result;
+  }
+
+  static float dot(MemorySegment rows, long a, long b, int length) {
+    var sum = FloatVector.zero(SPECIES);
+    var bound = SPECIES.loopBound(length);
+    var i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      var offset = (long) i * Float.BYTES;
+      var left = FloatVector.fromMemorySegment(SPECIES, rows, a + offset, ORDER);
+      var right = FloatVector.fromMemorySegment(SPECIES, rows, b + offset, ORDER);
+      sum = left.fma(right, sum);
+    }
+    var result = sum.reduceLanes(VectorOperators.ADD);
+    for (; i < length; i++) {
+      var offset = (long) i * Float.BYTES;
+      result +=
+          rows.get(SegmentReader.FLOAT, a + offset) * rows.get(SegmentReader.FLOAT, b + offset);
+    }
+    return result;
+  }
+}
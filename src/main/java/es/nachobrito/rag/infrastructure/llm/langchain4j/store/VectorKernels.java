@@ -0,0 +1,97 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import java.lang.foreign.MemorySegment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dot products over little-endian float rows stored in a {@link MemorySegment}, or over plain
+ * arrays for the callers that keep a handful of vectors on the heap.
+ *
+ * <p>When the JVM was started with {@code --add-modules=jdk.incubator.vector} the work is done by
+ * the SIMD kernels in {@link SimdKernels}; otherwise a scalar loop is used, so the stores keep
+ * working (only slower) on a JVM without the incubator module.
+ *
+ * @author nacho
+ */
+public final class VectorKernels {
+  private static final Logger log = LoggerFactory.getLogger(VectorKernels.class);
+  private static final boolean SIMD =
+      ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+  static {
+    if (SIMD) {
+      log.info("Scoring embeddings with {}-bit vector kernels", SimdKernels.bitSize());
+    } else {
+      log.info("jdk.incubator.vector is not available, scoring embeddings with scalar kernels");
+    }
+  }
+
+  private VectorKernels() {}
+
+  /** Returns a unit-length copy of {@code vector}, or a plain copy when it is all zeros. */
+  public static float[] normalize(float[] vector) {
+    var norm = 0d;
+    for (var v : vector) {
+      norm += v * v;
+    }
+    var result = vector.clone();
+    if (norm == 0) {
+      return result;
+    }
+    var inverse = (float) (1 / Math.sqrt(norm));
+    for (int i = 0; i < result.length; i++) {
+      result[i] *= inverse;
+    }
+    return result;
+  }
+
+  public static float dot(float[] a, float[] b) {
+    if (SIMD) {
+      return SimdKernels.dot(a, b);
+    }
+    var sum = 0f;
+    for (int i = 0; i < a.length; i++) {
+      sum += a[i] * b[i];
+    }
+    return sum;
+  }
+
+  static float dot(MemorySegment rows, long offset, float[] query, int length) {
+    if (SIMD) {
+      return SimdKernels.dot(rows, offset, query, length);
+    }
+    var sum = 0f;
+    for (int i = 0; i < length; i++) {
+      sum += rows.get(SegmentReader.FLOAT, offset + (long) i * Float.BYTES) * query[i];
+    }
+    return sum;
+  }
+
+  static float dot(MemorySegment rows, long a, long b, int length) {
+    if (SIMD) {
+      return SimdKernels.dot(rows, a, b, length);
+    }
+    var sum = 0f;
+    for (int i = 0; i < length; i++) {
+      var offset = (long) i * Float.BYTES;
+      sum += rows.get(SegmentReader.FLOAT, a + offset) * rows.get(SegmentReader.FLOAT, b + offset);
+    }
+    return sum;
+  }
+}
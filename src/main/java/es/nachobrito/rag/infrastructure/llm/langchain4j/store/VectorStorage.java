@@ -0,0 +1,39 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+/**
+ * Dense, append-only storage of normalized vectors addressed by ordinal.
+ *
+ * @author nacho
+ */
+interface VectorStorage {
+  int dimension();
+
+  int size();
+
+  /**
+   * @return the ordinal assigned to the vector
+   */
+  int append(float[] vector);
+
+  float[] get(int ordinal);
+
+  float dot(int ordinal, float[] query);
+
+  float dot(int a, int b);
+}
@@ -0,0 +1,129 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.micronaut;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calls {@code onChange} when a file is modified, once per burst of writes: every event postpones
+ * the call until the file has been quiet for {@code debounce}. Calls run one at a time on a
+ * dedicated thread, so a change made during a call triggers another one after it.
+ *
+ * <p>The parent directory is watched rather than the file, so editors that save by writing a new
+ * file and renaming it over the old one are noticed too.
+ *
+ * @author nacho
+ */
+class DataFileWatcher implements Closeable {
+  private static final Logger log = LoggerFactory.getLogger(DataFileWatcher.class);
+
+  private final Path file;
+  private final Duration debounce;
+  private final Runnable onChange;
+  private final WatchService watchService;
+  private final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor(
+          Thread.ofPlatform().daemon().name("data-file-reload").factory());
+  private final Thread watcher;
+
+  private ScheduledFuture<?> pending;
+  private long firstEvent;
+  private int events;
+
+  DataFileWatcher(Path file, Duration debounce, Runnable onChange) throws IOException {
+    this.file = file.toAbsolutePath();
+    this.debounce = debounce;
+    this.onChange = onChange;
+    this.watchService = FileSystems.getDefault().newWatchService();
+    this.file
+        .getParent()
+        .register(
+            watchService,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+    this.watcher = Thread.ofPlatform().daemon().name("data-file-watcher").start(this::watch);
+    log.info("Watching {} for changes", this.file);
+  }
+
+  private void watch() {
+    try {
+      while (true) {
+        var key = watchService.take();
+        for (var event : key.pollEvents()) {
+          if (event.context() instanceof Path name && name.equals(file.getFileName())) {
+            changed();
+          } else if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            changed();
+          }
+        }
+        key.reset();
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // closed
+    }
+  }
+
+  private synchronized void changed() {
+    if (pending != null && pending.cancel(false)) {
+      events++;
+    } else {
+      firstEvent = System.nanoTime();
+      events = 1;
+    }
+    pending = scheduler.schedule(this::reload, debounce.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  private void reload() {
+    long since;
+    int count;
+    synchronized (this) {
+      since = firstEvent;
+      count = events;
+      pending = null;
+    }
+    try {
+      onChange.run();
+      log.info(
+          "Reloaded {} after {} change events, {} ms after the first one",
+          file,
+          count,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since));
+    } catch (RuntimeException e) {
+      log.error("Could not reload {}", file, e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    watcher.interrupt();
+    watchService.close();
+    scheduler.shutdownNow();
+  }
+}
@@ -16,9 +16,12 @@
 
 package es.nachobrito.rag.infrastructure.micronaut;
 
+import es.nachobrito.rag.application.health.Readiness;
+import es.nachobrito.rag.domain.document.DocumentCollection;
 import es.nachobrito.rag.domain.document.DocumentLoadException;
 import es.nachobrito.rag.domain.rag.RagService;
-import es.nachobrito.rag.infrastructure.opencsv.CSVFaqDocumentCollection;
+import es.nachobrito.rag.infrastructure.csv.MappedCsvDocumentCollection;
+import es.nachobrito.rag.infrastructure.filesystem.DirectoryDocumentCollection;
 import io.micronaut.context.annotation.Property;
 import io.micronaut.context.annotation.Requires;
 import io.micronaut.context.event.ApplicationEventListener;
@@ -26,40 +29,76 @@ import io.micronaut.context.event.StartupEvent;
 import io.micronaut.core.io.ResourceResolver;
 import io.micronaut.scheduling.TaskExecutors;
 import io.micronaut.scheduling.annotation.Async;
+import jakarta.annotation.PreDestroy;
 import jakarta.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Loads the data file on startup and, when {@code remo.data.watch.enabled} is set, re-ingests it
+ * whenever it changes on disk. Only new, changed and removed rows are re-embedded. The application
+ * is not {@link Readiness ready} until the first load has finished, so no traffic is sent to a node
+ * whose store is still empty.
+ *
+ * <p>{@code remo.data.file} may also be a directory, whose text, markdown and CSV files are read
+ * {@code remo.data.concurrency} at a time.
+ *
  * @author nacho
  */
 @Singleton
 @Requires(property = "remo.load-data", value = "true")
 public class InitialDataLoader implements ApplicationEventListener<StartupEvent> {
   private final Logger logger = LoggerFactory.getLogger(InitialDataLoader.class);
+  private static final String STARTUP_STEP = "initial-data";
 
   private final ResourceResolver resourceResolver;
   private final String dataFilePath;
   private final RagService ragService;
+  private final Readiness readiness;
+  private final boolean watch;
+  private final Duration debounce;
+  private final int concurrency;
+
+  private DataFileWatcher watcher;
 
   public InitialDataLoader(
       ResourceResolver resourceResolver,
       @Property(name = "remo.data.file") String dataFilePath,
-      RagService ragService) {
+      RagService ragService,
+      Readiness readiness,
+      @Property(name = "remo.data.watch.enabled", defaultValue = "false") boolean watch,
+      @Property(name = "remo.data.watch.debounce", defaultValue = "2s") Duration debounce,
+      @Property(name = "remo.data.concurrency", defaultValue = "64") int concurrency) {
     this.resourceResolver = resourceResolver;
     this.dataFilePath = dataFilePath;
     this.ragService = ragService;
+    this.readiness = readiness;
+    this.watch = watch;
+    this.debounce = debounce;
+    this.concurrency = concurrency;
+    readiness.expect(STARTUP_STEP);
   }
 
   @Async(TaskExecutors.BLOCKING)
   @Override
   public void onApplicationEvent(StartupEvent event) {
-    loadData();
+    readiness.run(STARTUP_STEP, this::loadInitialData);
+  }
+
+  private void loadInitialData() {
+    var file = dataFile();
+    loadData(file);
     ragService.serialize();
+    if (watch) {
+      startWatching(file);
+    }
   }
 
-  private void loadData() {
-    logger.info("Loading data from {}", dataFilePath);
+  private Path dataFile() {
     var url =
         resourceResolver
             .getResource(dataFilePath)
@@ -67,8 +106,55 @@ public class InitialDataLoader implements ApplicationEventListener<StartupEvent>
                 () ->
                     new DocumentLoadException(
                         "Could not load data from %s".formatted(dataFilePath)));
-    var documentCollection = new CSVFaqDocumentCollection(url.getPath(), 0, 1);
+    return Path.of(url.getPath());
+  }
+
+  private void loadData(Path file) {
+    logger.info("Loading data from {}", file);
+    ragService.ingest(collection(file));
+  }
+
+  private DocumentCollection collection(Path file) {
+    if (Files.isDirectory(file)) {
+      return DirectoryDocumentCollection.faq(file, concurrency);
+    }
+    var collection = MappedCsvDocumentCollection.faq(file, 0, 1);
+    // a watched file may be rewritten in place while it is read, which a mapping does not survive
+    return watch ? collection.copying() : collection;
+  }
+
+  private synchronized void startWatching(Path file) {
+    if (Files.isDirectory(file)) {
+      logger.warn("Only a single data file can be watched, {} is a directory", file);
+      return;
+    }
+    try {
+      watcher = new DataFileWatcher(file, debounce, () -> reload(file));
+    } catch (IOException e) {
+      logger.error("Could not watch {}, changes will need a restart", file, e);
+    }
+  }
+
+  private void reload(Path file) {
+    var start = System.nanoTime();
+    var report = ragService.ingest(collection(file));
+    if (report.hasChanges()) {
+      ragService.serialize();
+    }
+    logger.info(
+        "Re-indexed {} in {} ms: {} rows re-embedded, {} removed, {} unchanged",
+        file,
+        (System.nanoTime() - start) / 1_000_000,
+        report.ingested(),
+        report.removed(),
+        report.unchanged());
+  }
 
-    ragService.ingest(documentCollection);
+  @PreDestroy
+  synchronized void close() throws IOException {
+    if (watcher != null) {
+      watcher.close();
+      watcher = null;
+    }
   }
 }
@@ -0,0 +1,81 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.micronaut;
+
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import es.nachobrito.rag.application.health.Readiness;
+import es.nachobrito.rag.domain.rag.RagService;
+import es.nachobrito.rag.infrastructure.llm.jlama.LocalChatModel;
+import io.micronaut.context.BeanProvider;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.event.ApplicationEventListener;
+import io.micronaut.context.event.StartupEvent;
+import io.micronaut.scheduling.TaskExecutors;
+import io.micronaut.scheduling.annotation.Async;
+import jakarta.inject.Singleton;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Loads the embedding model, the chat model and the persisted store in parallel on startup, then
+ * runs a few embeddings and a short generation through the models, so the first user does not wait
+ * for loading and JIT compilation. {@link Readiness} reports up once it is done, and the initial
+ * data, if any, has been loaded.
+ *
+ * @author nacho
+ */
+@Singleton
+@Requires(property = "remo.warmup.enabled", value = "true", defaultValue = "true")
+public class StartupWarmup implements ApplicationEventListener<StartupEvent> {
+  // enough calls for the embedding path to be compiled before the first query
+  private static final int WARM_UP_EMBEDDINGS = 16;
+
+  private final Readiness readiness;
+  private final BeanProvider<RagService> ragService;
+  private final BeanProvider<EmbeddingModel> embeddingModel;
+  private final LocalChatModel chatModel;
+
+  public StartupWarmup(
+      Readiness readiness,
+      BeanProvider<RagService> ragService,
+      BeanProvider<EmbeddingModel> embeddingModel,
+      LocalChatModel chatModel) {
+    this.readiness = readiness;
+    this.ragService = ragService;
+    this.embeddingModel = embeddingModel;
+    this.chatModel = chatModel;
+  }
+
+  @Async(TaskExecutors.BLOCKING)
+  @Override
+  public void onApplicationEvent(StartupEvent event) {
+    var tasks = new LinkedHashMap<String, Runnable>();
+    // creating the service maps the embedding store and loads the documents and the manifest
+    tasks.put("store", ragService::get);
+    tasks.put("embedding-model", this::warmUpEmbeddings);
+    tasks.put("chat-model", chatModel::warmUp);
+    readiness.warmUp(tasks);
+  }
+
+  private void warmUpEmbeddings() {
+    var model = embeddingModel.get();
+    List<String> queries =
+        IntStream.range(0, WARM_UP_EMBEDDINGS).mapToObj("warm-up query %d"::formatted).toList();
+    queries.forEach(model::embed);
+  }
+}
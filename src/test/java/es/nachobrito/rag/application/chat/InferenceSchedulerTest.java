@@ -0,0 +1,164 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.application.chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import es.nachobrito.rag.domain.document.Document;
+import es.nachobrito.rag.domain.rag.RagQuery;
+import es.nachobrito.rag.domain.rag.RagService;
+import es.nachobrito.rag.domain.rag.RagTokens;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author nacho
+ */
+class InferenceSchedulerTest {
+
+  @Test
+  void expectSessionsToTakeTurnsAndFullQueuesToReject() throws InterruptedException {
+    var service = new BlockingRagService();
+    var scheduler = new InferenceScheduler(service, 1, 3, 2);
+    var positions = new ConcurrentHashMap<String, Integer>();
+
+    assertTrue(submit(scheduler, "a", "a1", positions));
+    service.awaitStarted(1);
+    assertTrue(submit(scheduler, "a", "a2", positions));
+    assertTrue(submit(scheduler, "a", "a3", positions));
+    assertFalse(submit(scheduler, "a", "a4", positions), "session limit");
+    assertTrue(submit(scheduler, "b", "b1", positions));
+    assertFalse(submit(scheduler, "c", "c1", positions), "queue full");
+
+    assertEquals(Map.of("a2", 0, "b1", 1, "a3", 2), positions);
+    assertEquals(3, scheduler.queued());
+    assertEquals(1, scheduler.running());
+
+    service.finish(4);
+    service.awaitStarted(4);
+    assertEquals(List.of("a1", "a2", "b1", "a3"), service.started);
+    scheduler.close();
+  }
+
+  @Test
+  void expectEveryResponseToBeCompleted() throws InterruptedException {
+    var service = new BlockingRagService();
+    var scheduler = new InferenceScheduler(service, 1, 1, 1);
+    var completed = new Semaphore(0);
+    var query = RagQuery.of("a1");
+    scheduler.submit(
+        "a",
+        query,
+        tokens -> {
+          if (tokens.isComplete() && tokens.queryUuid().equals(query.uuid())) {
+            completed.release();
+          }
+        },
+        position -> {});
+
+    service.finish(1);
+    assertTrue(completed.tryAcquire(5, TimeUnit.SECONDS));
+    scheduler.close();
+  }
+
+  @Test
+  void expectCancelledQueriesToFreeTheirTurn() throws InterruptedException {
+    var service = new BlockingRagService();
+    var scheduler = new InferenceScheduler(service, 1, 4, 4);
+    var completed = Collections.synchronizedList(new ArrayList<String>());
+    var running = RagQuery.of("a1");
+    var waiting = RagQuery.of("a2");
+
+    submit(scheduler, "a", running, completed);
+    service.awaitStarted(1);
+    submit(scheduler, "a", waiting, completed);
+    submit(scheduler, "b", RagQuery.of("b1"), completed);
+
+    assertTrue(scheduler.cancel("a", waiting.uuid()));
+    assertFalse(scheduler.cancel("b", waiting.uuid()));
+    assertEquals(List.of("a2"), completed);
+    assertEquals(1, scheduler.queued());
+
+    assertEquals(1, scheduler.cancelSession("a"));
+    service.awaitStarted(2);
+    assertEquals(List.of("a1", "b1"), service.started);
+    assertEquals(List.of("a2", "a1"), completed);
+    service.finish(1);
+    scheduler.close();
+  }
+
+  private static void submit(
+      InferenceScheduler scheduler, String session, RagQuery query, List<String> completed) {
+    scheduler.submit(
+        session,
+        query,
+        tokens -> {
+          if (tokens.isComplete()) {
+            completed.add(query.text());
+          }
+        },
+        position -> {});
+  }
+
+  private static boolean submit(
+      InferenceScheduler scheduler, String session, String text, Map<String, Integer> positions) {
+    return scheduler.submit(
+        session,
+        RagQuery.of(text),
+        tokens -> {},
+        position -> positions.put(text, position.position()));
+  }
+
+  private static class BlockingRagService implements RagService {
+    private final List<String> started = Collections.synchronizedList(new ArrayList<>());
+    private final Semaphore starts = new Semaphore(0);
+    private final Semaphore finishes = new Semaphore(0);
+
+    void awaitStarted(int count) throws InterruptedException {
+      assertTrue(starts.tryAcquire(count, 5, TimeUnit.SECONDS));
+      starts.release(count);
+    }
+
+    void finish(int count) {
+      finishes.release(count);
+    }
+
+    @Override
+    public void chat(RagQuery query, Consumer<RagTokens> ragTokensConsumer) {
+      started.add(query.text());
+      starts.release();
+      try {
+        finishes.acquire();
+      } catch (InterruptedException e) {
+        // cancelled
+      }
+    }
+
+    @Override
+    public void ingest(Document document) {}
+
+    @Override
+    public void serialize() {}
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.application.chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import es.nachobrito.rag.domain.rag.RagTokens;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author nacho
+ */
+class TokenCoalescerTest {
+  private static final UUID QUERY = UUID.randomUUID();
+
+  @Test
+  void expectFirstTokenRightAwayAndTheRestInChunks() {
+    var sent = new ArrayList<RagTokens>();
+    var coalescer = new TokenCoalescer(Duration.ofHours(1), 6);
+    var tokens = coalescer.coalesce(sent::add);
+
+    tokens.accept(RagTokens.partialResponse(QUERY, "Rice"));
+    assertEquals(List.of(RagTokens.partialResponse(QUERY, "Rice")), sent);
+
+    tokens.accept(RagTokens.partialResponse(QUERY, " is"));
+    tokens.accept(RagTokens.partialResponse(QUERY, " best"));
+    tokens.accept(RagTokens.partialResponse(QUERY, " in"));
+    tokens.accept(RagTokens.completeResponse(QUERY));
+
+    assertEquals(
+        List.of(
+            RagTokens.partialResponse(QUERY, "Rice"),
+            RagTokens.partialResponse(QUERY, " is best"),
+            RagTokens.partialResponse(QUERY, " in"),
+            RagTokens.completeResponse(QUERY)),
+        sent);
+    coalescer.close();
+  }
+
+  @Test
+  void expectBufferedTokensToBeFlushedAfterTheInterval() throws InterruptedException {
+    var sent = Collections.synchronizedList(new ArrayList<RagTokens>());
+    var coalescer = new TokenCoalescer(Duration.ofMillis(20), 1024);
+    var tokens = coalescer.coalesce(sent::add);
+
+    tokens.accept(RagTokens.partialResponse(QUERY, "Rice"));
+    tokens.accept(RagTokens.partialResponse(QUERY, " is"));
+    tokens.accept(RagTokens.partialResponse(QUERY, " best"));
+    assertEquals(1, sent.size());
+
+    var deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+    while (sent.size() < 2 && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(RagTokens.partialResponse(QUERY, " is best"), sent.get(1));
+
+    var unbuffered = new ArrayList<RagTokens>();
+    var passThrough = new TokenCoalescer(Duration.ZERO, 1).coalesce(unbuffered::add);
+    passThrough.accept(RagTokens.partialResponse(QUERY, "a"));
+    passThrough.accept(RagTokens.partialResponse(QUERY, "b"));
+    assertEquals(2, unbuffered.size());
+    coalescer.close();
+  }
+}
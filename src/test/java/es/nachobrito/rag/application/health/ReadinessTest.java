@@ -0,0 +1,96 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.application.health;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author nacho
+ */
+class ReadinessTest {
+
+  @Test
+  void expectTasksToRunInParallelBeforeBeingReady() {
+    var readiness = new Readiness(true);
+    assertEquals(Readiness.Status.STARTING, readiness.status());
+
+    // each task waits for the other, so they only finish if they run at the same time
+    var barrier = new CyclicBarrier(2);
+    Runnable task =
+        () -> {
+          try {
+            barrier.await(5, TimeUnit.SECONDS);
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+        };
+    var tasks = new LinkedHashMap<String, Runnable>();
+    tasks.put("model", task);
+    tasks.put("store", task);
+    readiness.warmUp(tasks);
+
+    assertEquals(Readiness.Status.UP, readiness.status());
+    assertEquals(2, readiness.details().size());
+    assertTrue(readiness.details().get("store").startsWith("ready in"));
+  }
+
+  @Test
+  void expectStartupStepsToHoldReadinessBack() {
+    var readiness = new Readiness(false);
+    readiness.expect("initial-data");
+    assertEquals(Readiness.Status.STARTING, readiness.status());
+    readiness.run("initial-data", () -> {});
+    assertEquals(Readiness.Status.UP, readiness.status());
+
+    var warmingUp = new Readiness(true);
+    warmingUp.expect("initial-data");
+    warmingUp.warmUp(new LinkedHashMap<>());
+    assertEquals(Readiness.Status.STARTING, warmingUp.status(), "still ingesting");
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            warmingUp.run(
+                "initial-data",
+                () -> {
+                  throw new IllegalStateException("no data file");
+                }));
+    assertEquals(Readiness.Status.DOWN, warmingUp.status());
+    assertEquals("failed: no data file", warmingUp.details().get("initial-data"));
+  }
+
+  @Test
+  void expectAnyFailureToKeepTheApplicationDown() {
+    var readiness = new Readiness(true);
+    var tasks = new LinkedHashMap<String, Runnable>();
+    tasks.put("model", () -> {});
+    tasks.put(
+        "store",
+        () -> {
+          throw new IllegalStateException("no such file");
+        });
+    readiness.warmUp(tasks);
+
+    assertEquals(Readiness.Status.DOWN, readiness.status());
+    assertEquals("failed: no such file", readiness.details().get("store"));
+    assertEquals(Readiness.Status.UP, new Readiness(false).status());
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.application.web;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.client.HttpClient;
+import io.micronaut.http.client.annotation.Client;
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
+import jakarta.inject.Inject;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author nacho
+ */
+@MicronautTest
+@Property(name = "remo.warmup.enabled", value = "false")
+@Property(name = "remo.load-data", value = "false")
+class ReadinessControllerTest {
+
+  @Inject
+  @Client("/")
+  HttpClient client;
+
+  @Test
+  void expectReadyWithoutWarmUp() {
+    var response = client.toBlocking().exchange(HttpRequest.GET("/health/readiness"), Map.class);
+
+    assertEquals(200, response.code());
+    assertEquals("UP", response.body().get("status"));
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.csv;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import es.nachobrito.rag.domain.document.Document;
+import es.nachobrito.rag.domain.document.StringDocument;
+import es.nachobrito.rag.infrastructure.opencsv.CSVFaqDocumentCollection;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author nacho
+ */
+class MappedCsvDocumentCollectionTest {
+
+  @TempDir Path tempDir;
+
+  @Test
+  void expectSameDocumentsAsOpenCsv() throws IOException {
+    var file = tempDir.resolve("faq.csv");
+    Files.writeString(
+        file,
+        "\uFEFFQuestion,Answer\r\n"
+            + "What is the best time to plant rice?,\"Generally, during the monsoon.\"\r\n"
+            + "\"How do I say \"\"hello\"\"?\",\"Line one\nline two\"\r\n"
+            + "Empty answer?,\n"
+            + "Last,no line break");
+
+    var mapped = MappedCsvDocumentCollection.faq(file, 0, 1).stream().toList();
+    var expected = new CSVFaqDocumentCollection(file.toString(), 0, 1).stream().toList();
+
+    assertEquals(
+        new StringDocument(
+            "How do I say \"hello\"?",
+            "How do I say \"hello\"?",
+            Map.of("answer", "Line one\nline two")),
+        mapped.get(1));
+    assertEquals(4, mapped.size());
+    assertEquals(expected, mapped);
+  }
+
+  @Test
+  void expectParallelStreamToSplitOnlyAtRecordBoundaries() throws IOException {
+    var file = tempDir.resolve("large.csv");
+    var content = new StringBuilder("Question,Answer\n");
+    for (int i = 0; i < 5_000; i++) {
+      content.append("\"Question ").append(i).append(",\nwith a line break\",");
+      content.append("\"Answer \"\"").append(i).append("\"\"\n\n\"\n");
+      if (i % 100 == 0) {
+        // blank lines are skipped
+        content.append('\n');
+      }
+    }
+    Files.writeString(file, content);
+
+    var collection =
+        new MappedCsvDocumentCollection(
+            file,
+            row -> new StringDocument(row.get(0), row.get(0), Map.of("answer", row.get(1))),
+            -1,
+            256);
+    var sequential = collection.stream().toList();
+    var parallel = collection.parallelStream().collect(Collectors.toSet());
+
+    assertEquals(5_000, sequential.size());
+    assertEquals(5_000, parallel.size());
+    assertTrue(parallel.containsAll(sequential));
+    assertEquals("Answer \"4999\"\n\n", sequential.get(4_999).getMetadata().get("answer"));
+  }
+
+  @Test
+  void expectMaxDocumentsToBeHonoured() throws IOException {
+    var file = tempDir.resolve("docs.csv");
+    Files.write(file, List.of("id,text", "1,one", "2,two", "3,three"));
+
+    var documents =
+        new MappedCsvDocumentCollection(file, row -> new StringDocument(row.get(0), row.get(1)), 2)
+            .stream().map(Document::getTextContent).toList();
+
+    assertEquals(List.of("one", "two"), documents);
+  }
+
+  @Test
+  void expectCopiesToSurviveTheFileBeingTruncated() throws IOException {
+    var file = tempDir.resolve("docs.csv");
+    Files.write(file, List.of("id,text", "1,one", "2,two", "3,three"));
+
+    var stream =
+        new MappedCsvDocumentCollection(file, row -> new StringDocument(row.get(0), row.get(1)), -1)
+            .copying().stream();
+    Files.write(file, List.of("id,text"));
+
+    assertEquals(List.of("one", "two", "three"), stream.map(Document::getTextContent).toList());
+  }
+}
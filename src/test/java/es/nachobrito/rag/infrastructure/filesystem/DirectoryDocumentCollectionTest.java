@@ -0,0 +1,88 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.filesystem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import es.nachobrito.rag.domain.document.Document;
+import es.nachobrito.rag.domain.document.DocumentLoadException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author nacho
+ */
+class DirectoryDocumentCollectionTest {
+
+  @TempDir Path tempDir;
+
+  @Test
+  void expectEveryFileUnderTheDirectory() throws IOException {
+    Files.createDirectories(tempDir.resolve("docs/nested"));
+    Files.writeString(tempDir.resolve("docs/readme.md"), "# Readme");
+    Files.writeString(tempDir.resolve("docs/nested/notes.txt"), "Some notes");
+    Files.writeString(tempDir.resolve("faq.csv"), "Question,Answer\nWhen?,Now\nWhere?,Here\n");
+    Files.writeString(tempDir.resolve("image.png"), "not a document");
+
+    Set<Document> documents;
+    try (var stream = DirectoryDocumentCollection.faq(tempDir, 2).stream()) {
+      documents = stream.collect(Collectors.toSet());
+    }
+    var byId = documents.stream().collect(Collectors.toMap(Document::getId, Function.identity()));
+
+    assertEquals(
+        Set.of("docs/readme.md", "docs/nested/notes.txt", "faq.csv#When?", "faq.csv#Where?"),
+        byId.keySet());
+    assertEquals("Some notes", byId.get("docs/nested/notes.txt").getTextContent());
+    var record = byId.get("faq.csv#Where?");
+    assertEquals("Where?", record.getTextContent());
+    assertEquals("Here", record.getMetadata().get("answer"));
+    assertEquals("faq.csv", record.getMetadata().get(DirectoryDocumentCollection.PATH));
+    assertEquals(
+        Files.getLastModifiedTime(tempDir.resolve("faq.csv")).toInstant().toString(),
+        record.getMetadata().get(DirectoryDocumentCollection.MODIFIED));
+  }
+
+  @Test
+  void expectManyFilesThroughASmallQueue() throws IOException {
+    for (int i = 0; i < 500; i++) {
+      Files.writeString(tempDir.resolve("file-%d.txt".formatted(i)), "content " + i);
+    }
+
+    var collection = new DirectoryDocumentCollection(tempDir, 8, file -> null, 4);
+    try (var stream = collection.stream()) {
+      assertEquals(500, stream.map(Document::getId).distinct().count());
+    }
+  }
+
+  @Test
+  void expectReadFailuresToReachTheConsumer() throws IOException {
+    Files.writeString(tempDir.resolve("ok.txt"), "fine");
+    Files.writeString(tempDir.resolve("empty.csv"), "");
+
+    try (var stream = DirectoryDocumentCollection.faq(tempDir, 2).stream()) {
+      var error = assertThrows(DocumentLoadException.class, stream::count);
+      assertTrue(error.getMessage().contains("empty.csv"));
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.jlama;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author nacho
+ */
+class LocalChatModelTest {
+
+  @Test
+  void expectGenerationsToRunConcurrently() throws Exception {
+    var decoder = new ScriptedDecoder();
+    try (var model = new LocalChatModel(() -> decoder, 100)) {
+      var started = new CountDownLatch(1);
+      var proceed = new CountDownLatch(1);
+      var first =
+          CompletableFuture.supplyAsync(
+              () ->
+                  model.generate(
+                      "a:3",
+                      token -> {
+                        started.countDown();
+                        await(proceed);
+                      }));
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+      var b = new ArrayList<String>();
+      var second = CompletableFuture.supplyAsync(() -> model.generate("b:1", b::add));
+
+      assertEquals("b0", second.get(5, TimeUnit.SECONDS), "not waiting for the first one");
+      assertEquals(List.of("b0"), b);
+      assertFalse(first.isDone());
+      proceed.countDown();
+      assertEquals("a0a1a2", first.get(5, TimeUnit.SECONDS));
+      assertEquals(List.of("a0", "b0", "a1", "a2"), decoder.decoded);
+      assertEquals(0, decoder.open.get());
+    }
+  }
+
+  @Test
+  void expectLimitsToBeHonoured() {
+    var decoder = new ScriptedDecoder();
+    try (var model = new LocalChatModel(() -> decoder, 2)) {
+      assertEquals("a0a1", model.generate("a:3", token -> {}));
+      assertEquals(List.of("a0", "a1"), decoder.decoded);
+    }
+  }
+
+  @Test
+  void expectFailuresToOnlyEndTheirGeneration() {
+    var decoder = new ScriptedDecoder();
+    try (var model = new LocalChatModel(() -> decoder, 100)) {
+      assertThrows(GenerationException.class, () -> model.generate("fail:2", t -> {}));
+      assertEquals("a0", model.generate("a:1", t -> {}));
+      assertEquals(0, decoder.open.get());
+    }
+    var closed = new LocalChatModel(() -> decoder, 1);
+    closed.close();
+    assertThrows(GenerationException.class, () -> closed.generate("a:1", t -> {}));
+  }
+
+  @Test
+  void expectInterruptedGenerationsToStopDecoding() {
+    var decoder = new ScriptedDecoder();
+    try (var model = new LocalChatModel(() -> decoder, 100)) {
+      assertThrows(
+          GenerationCancelledException.class,
+          () -> model.generate("a:50", t -> Thread.currentThread().interrupt()));
+      assertTrue(Thread.interrupted());
+      assertEquals(List.of("a0"), decoder.decoded);
+
+      Thread.currentThread().interrupt();
+      assertThrows(GenerationCancelledException.class, () -> model.generate("c:50", t -> {}));
+      assertTrue(Thread.interrupted());
+      assertEquals("d0", model.generate("d:1", t -> {}));
+      assertEquals(List.of("a0", "d0"), decoder.decoded);
+      assertEquals(0, decoder.open.get());
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      assertTrue(latch.await(5, TimeUnit.SECONDS));
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Prompts read {@code name:length}; the sequence named "fail" throws after its first token. */
+  private static class ScriptedDecoder implements Decoder {
+    private final List<String> decoded = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger open = new AtomicInteger();
+
+    @Override
+    public Sequence start(String prompt, int sharedPrefix) {
+      var name = prompt.substring(0, prompt.indexOf(':'));
+      var length = Integer.parseInt(prompt.substring(prompt.indexOf(':') + 1));
+      open.incrementAndGet();
+      return new Sequence() {
+        private int position;
+
+        @Override
+        public String next() {
+          if (position == length) {
+            return null;
+          }
+          if (name.equals("fail") && position > 0) {
+            throw new IllegalStateException("decoding failed");
+          }
+          var token = name + position++;
+          decoded.add(token);
+          return token;
+        }
+
+        @Override
+        public void close() {
+          open.decrementAndGet();
+        }
+      };
+    }
+
+    @Override
+    public int countTokens(String text) {
+      return text.length();
+    }
+
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.jlama;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author nacho
+ */
+class PrefixCacheTest {
+
+  @Test
+  void expectLongestSharedBlocksToBeFound() {
+    var cache = new PrefixCache<String>(4, 1_000, state -> {});
+    var preamble = tokens(0, 8);
+    var first = concat(preamble, tokens(100, 6));
+    assertNull(cache.lookup(first, first.length - 1));
+    cache.put(first, cache.cacheableLength(first.length - 1), 10, "first");
+
+    var same = cache.lookup(first, first.length - 1);
+    assertEquals(new PrefixCache.Match<>("first", 12), same);
+
+    var other = concat(preamble, tokens(200, 6));
+    assertEquals(new PrefixCache.Match<>("first", 8), cache.lookup(other, other.length - 1));
+    assertEquals(new PrefixCache.Match<>("first", 4), cache.lookup(first, 7));
+    assertNull(cache.lookup(tokens(50, 10), 9));
+    assertEquals(0.6, cache.hitRate(), 1e-9);
+
+    var read = new ArrayList<String>();
+    assertEquals(
+        8, cache.read(other, other.length - 1, (state, length) -> read.add(state + length)));
+    assertEquals(0, cache.read(tokens(50, 10), 9, (state, length) -> read.add(state + length)));
+    assertEquals(List.of("first8"), read);
+  }
+
+  @Test
+  void expectLeastRecentlyUsedEntriesToBeEvicted() {
+    var evicted = new ArrayList<String>();
+    var cache = new PrefixCache<String>(4, 25, evicted::add);
+    var a = tokens(0, 8);
+    var b = tokens(100, 8);
+    var c = tokens(200, 8);
+    cache.put(a, 8, 10, "a");
+    cache.put(b, 8, 10, "b");
+    assertNotNull(cache.lookup(a, 8));
+    cache.put(c, 8, 10, "c");
+
+    assertEquals(List.of("b"), evicted);
+    assertEquals(2, cache.size());
+    assertEquals(20, cache.bytes());
+    assertNull(cache.lookup(b, 8));
+
+    cache.put(tokens(300, 8), 8, 30, "too large");
+    cache.clear();
+    assertEquals(List.of("b", "too large", "a", "c"), evicted);
+    assertEquals(0, cache.bytes());
+  }
+
+  @Test
+  void expectSharedPrefixesToOutliveTheLatestEntryThatCachedThem() {
+    var evicted = new ArrayList<String>();
+    var cache = new PrefixCache<String>(4, 25, evicted::add);
+    var preamble = tokens(0, 4);
+    var first = concat(preamble, tokens(100, 4));
+    var second = concat(preamble, tokens(200, 4));
+    cache.put(first, 8, 10, "first");
+    cache.put(second, 8, 10, "second");
+    assertEquals(new PrefixCache.Match<>("first", 8), cache.lookup(first, 8));
+    cache.put(tokens(300, 8), 8, 10, "other");
+
+    assertEquals(List.of("second"), evicted);
+    var other = concat(preamble, tokens(400, 4));
+    assertEquals(new PrefixCache.Match<>("first", 4), cache.lookup(other, other.length - 1));
+  }
+
+  private static int[] tokens(int first, int count) {
+    return IntStream.range(first, first + count).toArray();
+  }
+
+  private static int[] concat(int[] a, int[] b) {
+    return IntStream.concat(IntStream.of(a), IntStream.of(b)).toArray();
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author nacho
+ */
+class ContextAssemblerTest {
+
+  @Test
+  void expectContextToFitTheBudget() {
+    var assembler =
+        new ContextAssembler(ContextAssemblerTest::countWords, 100, 2, 1, 4, Duration.ZERO);
+    var best = words("a", 40);
+    var second = words("b", 70);
+
+    var context =
+        assembler.assemble(List.of(best, best, second, words("c", 5)), Function.identity());
+
+    assertEquals(List.of(best, second), context.used());
+    assertEquals(best + "\n\n" + words("b", 60), context.information());
+    assertEquals(100, context.tokens());
+
+    var dropped =
+        assembler.assemble(
+            List.of(words("a", 90), words("b", 30), words("c", 8)), Function.identity());
+    assertEquals(List.of(words("a", 90), words("c", 8)), dropped.used());
+    assertEquals(98, dropped.tokens());
+
+    var removed =
+        assembler.assemble(List.of("removed", words("a", 10)), c -> c.equals("removed") ? null : c);
+    assertEquals(List.of(words("a", 10)), removed.used());
+  }
+
+  @Test
+  void expectDepthToFollowTheTimeToFirstToken() {
+    var assembler =
+        new ContextAssembler(
+            ContextAssemblerTest::countWords, 100, 2, 1, 3, Duration.ofMillis(100));
+    assertEquals(2, assembler.depth());
+    for (int i = 0; i < 32; i++) {
+      assembler.recordTimeToFirstToken(Duration.ofMillis(20));
+    }
+    assertEquals(3, assembler.depth(), "grown from the configured results");
+
+    for (int i = 0; i < 8; i++) {
+      assembler.recordTimeToFirstToken(Duration.ofMillis(i == 0 ? 300 : 50));
+    }
+    assertEquals(2, assembler.depth());
+    for (int i = 0; i < 16; i++) {
+      assembler.recordTimeToFirstToken(Duration.ofMillis(300));
+    }
+    assertEquals(1, assembler.depth(), "never below min results");
+
+    for (int i = 0; i < 31; i++) {
+      assembler.recordTimeToFirstToken(Duration.ofMillis(20));
+    }
+    assertEquals(1, assembler.depth(), "raised only on a full window");
+    assembler.recordTimeToFirstToken(Duration.ofMillis(20));
+    assertEquals(2, assembler.depth());
+  }
+
+  private static String words(String prefix, int count) {
+    return IntStream.range(0, count).mapToObj(i -> prefix + i).collect(Collectors.joining(" "));
+  }
+
+  private static int countWords(String text) {
+    return text.isBlank() ? 0 : text.trim().split("\\s+").length;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import es.nachobrito.rag.domain.document.StringDocument;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author nacho
+ */
+class FaqExactMatchIndexTest {
+
+  @Test
+  void expectVerbatimQuestionsToBeAnswered() {
+    var index = new FaqExactMatchIndex();
+    var question = "How do I water tomatoes?";
+    index.index(new StringDocument(question, question, Map.of("answer", "Twice a week.")));
+
+    assertEquals(Optional.of("Twice a week."), index.lookup("how do I water  TOMATOES"));
+    assertEquals(Optional.of("Twice a week."), index.lookup(" How do I water tomatoes ? "));
+    assertTrue(index.lookup("How often should I water tomatoes?").isEmpty());
+    assertEquals(2, index.hits());
+    assertEquals(1, index.misses());
+    assertEquals(2 / 3.0, index.hitRate(), 1e-9);
+  }
+
+  @Test
+  void expectDocumentsWithoutAnAnswerToBeIgnored() {
+    var index = new FaqExactMatchIndex();
+    index.index(new StringDocument("doc", "Some plain text"));
+
+    assertEquals(0, index.size());
+    assertTrue(index.lookup("Some plain text").isEmpty());
+  }
+
+  @Test
+  void expectChangedAndRemovedDocumentsToLeaveNoStaleEntries() {
+    var index = new FaqExactMatchIndex();
+    index.index(
+        new StringDocument("faq-1", "How do I water tomatoes?", Map.of("answer", "Daily.")));
+    index.index(
+        new StringDocument("faq-1", "When do I water tomatoes?", Map.of("answer", "Early.")));
+
+    assertTrue(index.lookup("How do I water tomatoes?").isEmpty());
+    assertEquals(Optional.of("Early."), index.lookup("When do I water tomatoes?"));
+
+    index.index(
+        new StringDocument("faq-2", "When do I water tomatoes?", Map.of("answer", "Dawn.")));
+    index.remove("faq-1");
+    assertEquals(Optional.of("Dawn."), index.lookup("When do I water tomatoes?"));
+    index.remove("faq-2");
+    assertEquals(0, index.size());
+  }
+}
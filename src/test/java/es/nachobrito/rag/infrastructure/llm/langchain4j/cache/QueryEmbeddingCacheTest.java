@@ -0,0 +1,103 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import dev.langchain4j.data.embedding.Embedding;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author nacho
+ */
+class QueryEmbeddingCacheTest {
+  private static final String MODEL = "test-model";
+
+  @TempDir Path tempDir;
+
+  private final AtomicInteger calls = new AtomicInteger();
+  private final Function<String, Embedding> embedder =
+      text -> {
+        calls.incrementAndGet();
+        return Embedding.from(new float[] {text.length(), text.hashCode()});
+      };
+
+  @Test
+  void expectRepeatedQueriesToSkipTheModel() {
+    var cache = new QueryEmbeddingCache(100, null);
+
+    var first = cache.embed(MODEL, "How do I  water tomatoes?", embedder);
+    var second = cache.embed(MODEL, " how do i water TOMATOES? ", embedder);
+
+    assertEquals(1, calls.get());
+    assertEquals(first, second);
+    assertEquals(1, cache.stats().hitCount());
+    assertEquals(1, cache.stats().missCount());
+  }
+
+  @Test
+  void expectHitRateToCountEveryQuery() {
+    var cache = new QueryEmbeddingCache(100, null);
+    assertEquals(0, cache.hitRate());
+
+    cache.embed(MODEL, "question", embedder);
+    cache.embed(MODEL, "question", embedder);
+    cache.embed(MODEL, "Question ", embedder);
+    cache.embed(MODEL, "another question", embedder);
+
+    assertEquals(2, cache.hits());
+    assertEquals(2, cache.misses());
+    assertEquals(0.5, cache.hitRate(), 1e-9);
+  }
+
+  @Test
+  void expectModelsNotToShareEntries() {
+    var cache = new QueryEmbeddingCache(100, null);
+
+    cache.embed(MODEL, "question", embedder);
+    cache.embed("another-model", "question", embedder);
+
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  void expectCallersNotToModifyTheCachedVector() {
+    var cache = new QueryEmbeddingCache(100, null);
+
+    var embedding = cache.embed(MODEL, "question", embedder);
+    var original = embedding.vector().clone();
+    embedding.normalize();
+
+    assertArrayEquals(original, cache.embed(MODEL, "question", embedder).vector());
+  }
+
+  @Test
+  void expectEntriesToSurviveARestart() {
+    var file = tempDir.resolve("queries.cache").toString();
+    var cache = new QueryEmbeddingCache(100, file);
+    var embedding = cache.embed(MODEL, "question", embedder);
+    cache.persist();
+
+    var restarted = new QueryEmbeddingCache(100, file);
+    assertEquals(embedding, restarted.embed(MODEL, "question", embedder));
+    assertEquals(1, calls.get());
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author nacho
+ */
+class SemanticResponseCacheTest {
+  private final SemanticResponseCache cache =
+      new SemanticResponseCache(0.95f, 100, Duration.ofHours(1));
+
+  @Test
+  void expectParaphrasesToReplayTheAnswer() {
+    cache.put(new float[] {1, 0, 0}, "a,b", List.of("Rotate ", "the ", "crops."));
+
+    var replayed = cache.lookup(new float[] {2, 0.2f, 0}, "a,b");
+
+    assertEquals(List.of("Rotate ", "the ", "crops."), replayed.orElseThrow());
+  }
+
+  @Test
+  void expectDistantQueriesToMiss() {
+    cache.put(new float[] {1, 0, 0}, "a,b", List.of("answer"));
+
+    assertTrue(cache.lookup(new float[] {1, 1, 0}, "a,b").isEmpty());
+  }
+
+  @Test
+  void expectADifferentContextToMiss() {
+    cache.put(new float[] {1, 0, 0}, "a,b", List.of("answer"));
+
+    assertTrue(cache.lookup(new float[] {1, 0, 0}, "a,c").isEmpty());
+  }
+
+  @Test
+  void expectTheClosestQueryToWin() {
+    cache.put(new float[] {1, 0.3f, 0}, "", List.of("far"));
+    cache.put(new float[] {1, 0.1f, 0}, "", List.of("near"));
+
+    assertEquals(List.of("near"), cache.lookup(new float[] {1, 0, 0}, "").orElseThrow());
+  }
+
+  @Test
+  void expectInvalidationToDropEveryAnswer() {
+    cache.put(new float[] {1, 0, 0}, "a,b", List.of("answer"));
+    cache.invalidateAll();
+
+    assertTrue(cache.lookup(new float[] {1, 0, 0}, "a,b").isEmpty());
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.cluster;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sun.net.httpserver.HttpServer;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import io.micronaut.json.JsonMapper;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author nacho
+ */
+class ClusterSearchTest {
+  private static final String SECRET = "cluster secret";
+  private final JsonMapper jsonMapper = JsonMapper.createDefault();
+  private final List<HttpServer> servers = new ArrayList<>();
+
+  @AfterEach
+  void stopServers() {
+    servers.forEach(server -> server.stop(0));
+  }
+
+  @Test
+  void expectMatchesOfEveryShardThatAnswersInTime() throws IOException {
+    var slowRequests = new AtomicInteger();
+    var fast = shard("fast", 0.90, Duration.ZERO, new AtomicInteger());
+    var slowReplica = shard("replicated", 0.95, Duration.ofSeconds(2), slowRequests);
+    var fastReplica = shard("replicated", 0.95, Duration.ZERO, new AtomicInteger());
+    var unresponsive = shard("unresponsive", 0.99, Duration.ofSeconds(2), new AtomicInteger());
+    var local = new EmbeddingMatch<>(0.87, "local", null, TextSegment.from("local"));
+    var search =
+        new ClusterSearch(
+            request -> List.of(local),
+            segment -> Map.of(),
+            // the second shard called starts with its second replica
+            List.of(List.of(fast), List.of(fastReplica, slowReplica), List.of(unresponsive)),
+            jsonMapper,
+            Duration.ofMillis(500),
+            Duration.ofMillis(50),
+            SECRET);
+
+    var start = System.nanoTime();
+    var matches = search.search(Embedding.from(new float[] {1, 0}), Map.of(), 3, 0.5);
+    var elapsed = Duration.ofNanos(System.nanoTime() - start);
+    search.close();
+
+    assertEquals(
+        List.of("replicated", "fast", "local"),
+        matches.stream().map(EmbeddingMatch::embeddingId).toList());
+    assertEquals("fast text", matches.get(1).embedded().text());
+    assertEquals("fast answer", matches.get(1).embedded().metadata().getString("answer"));
+    assertEquals(1, slowRequests.get(), "hedged to the other replica");
+    assertTrue(elapsed.toMillis() < 1_500, "unresponsive shard left out: " + elapsed);
+  }
+
+  @Test
+  void expectLocalMatchesToCarryTheirDocumentMetadata() {
+    var segment = TextSegment.from("question", new Metadata(Map.of("document", 7)));
+    var search =
+        new ClusterSearch(
+            request -> {
+              assertEquals(2, request.maxResults());
+              assertNotNull(request.filter());
+              return List.of(new EmbeddingMatch<>(0.9, "id", null, segment));
+            },
+            s -> Map.of("answer", "a long answer"),
+            List.of(),
+            jsonMapper,
+            Duration.ofMillis(500),
+            Duration.ZERO,
+            SECRET);
+
+    var matches =
+        search.searchLocal(
+            new ShardSearchRequest(new float[] {1, 0}, 2, 0.5, Map.of("topic", "rice")));
+
+    assertEquals(
+        List.of(new ShardMatch("id", 0.9, "question", Map.of("answer", "a long answer"))), matches);
+  }
+
+  @Test
+  void expectShardsThatRejectTheSecretToBeLeftOut() throws IOException {
+    var trusted = shard("trusted", 0.90, Duration.ZERO, new AtomicInteger());
+    var other = shard("other", 0.95, Duration.ZERO, new AtomicInteger(), "another secret");
+    var search =
+        new ClusterSearch(
+            request -> List.of(),
+            segment -> Map.of(),
+            List.of(List.of(trusted), List.of(other)),
+            jsonMapper,
+            Duration.ofMillis(500),
+            Duration.ZERO,
+            SECRET);
+
+    var matches = search.search(Embedding.from(new float[] {1, 0}), Map.of(), 3, 0.5);
+    search.close();
+
+    assertEquals(List.of("trusted"), matches.stream().map(EmbeddingMatch::embeddingId).toList());
+  }
+
+  @Test
+  void expectOnlyTheClusterSecretToBeAuthorized() {
+    var search =
+        new ClusterSearch(
+            request -> List.of(),
+            segment -> Map.of(),
+            List.of(),
+            jsonMapper,
+            Duration.ofMillis(500),
+            Duration.ZERO,
+            SECRET);
+    var unconfigured =
+        new ClusterSearch(
+            request -> List.of(),
+            segment -> Map.of(),
+            List.of(),
+            jsonMapper,
+            Duration.ofMillis(500),
+            Duration.ZERO,
+            "");
+
+    assertTrue(search.authorizes(SECRET));
+    assertFalse(search.authorizes("cluster secreT"));
+    assertFalse(search.authorizes(null));
+    assertFalse(unconfigured.authorizes(""));
+  }
+
+  private URI shard(String id, double score, Duration delay, AtomicInteger requests)
+      throws IOException {
+    return shard(id, score, delay, requests, SECRET);
+  }
+
+  /**
+   * A node answering every search carrying its secret with a single match, after a delay, and
+   * rejecting the rest.
+   */
+  private URI shard(String id, double score, Duration delay, AtomicInteger requests, String secret)
+      throws IOException {
+    var server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext(
+        "/internal/search",
+        exchange -> {
+          requests.incrementAndGet();
+          if (!secret.equals(exchange.getRequestHeaders().getFirst(ClusterSearch.SECRET_HEADER))) {
+            exchange.sendResponseHeaders(401, -1);
+            exchange.close();
+            return;
+          }
+          try {
+            Thread.sleep(delay);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          var response =
+              new ShardSearchResponse(
+                  List.of(
+                      new ShardMatch(id, score, id + " text", Map.of("answer", id + " answer"))));
+          var body = jsonMapper.writeValueAsBytes(response);
+          exchange.sendResponseHeaders(200, body.length);
+          try (var out = exchange.getResponseBody()) {
+            out.write(body);
+          }
+        });
+    server.start();
+    servers.add(server);
+    return URI.create("http://localhost:" + server.getAddress().getPort());
+  }
+}
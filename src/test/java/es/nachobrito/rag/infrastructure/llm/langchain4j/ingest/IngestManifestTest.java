@@ -0,0 +1,68 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.ingest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import es.nachobrito.rag.domain.document.StringDocument;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author nacho
+ */
+class IngestManifestTest {
+
+  @TempDir Path tempDir;
+
+  @Test
+  void expectEntriesToSurviveARestartOfTheSamePipeline() {
+    var file = tempDir.resolve("index.manifest");
+    var manifest = IngestManifest.load(file, "model-a");
+    assertFalse(manifest.isInSync());
+    manifest.reset();
+    manifest.put("doc", new IngestManifest.Entry("hash", 2));
+    manifest.persist();
+
+    var restored = IngestManifest.load(file, "model-a");
+    assertTrue(restored.isInSync());
+    assertEquals(new IngestManifest.Entry("hash", 2), restored.get("doc"));
+    assertEquals(
+        List.of(IngestionPipeline.segmentId("doc", 0), IngestionPipeline.segmentId("doc", 1)),
+        restored.segmentIds("doc"));
+
+    var otherModel = IngestManifest.load(file, "model-b");
+    assertFalse(otherModel.isInSync());
+    assertEquals(0, otherModel.size());
+  }
+
+  @Test
+  void expectHashToCoverTextAndMetadata() {
+    var document = new StringDocument("q", "question", Map.of("answer", "yes"));
+    assertEquals(
+        IngestManifest.hash(document),
+        IngestManifest.hash(new StringDocument("other id", "question", Map.of("answer", "yes"))));
+    assertNotEquals(
+        IngestManifest.hash(document),
+        IngestManifest.hash(new StringDocument("q", "question", Map.of("answer", "no"))));
+    assertNotEquals(
+        IngestManifest.hash(document), IngestManifest.hash(new StringDocument("q", "question?")));
+  }
+}
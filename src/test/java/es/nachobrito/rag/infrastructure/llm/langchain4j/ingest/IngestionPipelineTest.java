@@ -0,0 +1,119 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.ingest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import es.nachobrito.rag.domain.document.Document;
+import es.nachobrito.rag.domain.document.StringDocument;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author nacho
+ */
+class IngestionPipelineTest {
+
+  @Test
+  void expectEverySegmentToBeEmbeddedAndStoredOnce() {
+    var pipeline = new IngestionPipeline(7, 3, 2);
+    var batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+    var stored = new ArrayList<String>();
+
+    var stats =
+        pipeline.run(
+            documents(100).parallel(),
+            IngestionPipelineTest::split,
+            segments -> {
+              batchSizes.add(segments.size());
+              return segments.stream().map(IngestionPipelineTest::embed).toList();
+            },
+            (ids, embeddings, segments) -> {
+              for (int i = 0; i < segments.size(); i++) {
+                assertEquals(embed(segments.get(i)), embeddings.get(i));
+                stored.add(ids.get(i));
+              }
+            });
+
+    assertEquals(100, stats.documents());
+    assertEquals(300, stats.segments());
+    assertEquals(300, stored.size());
+    assertEquals(300, stored.stream().distinct().count());
+    assertTrue(stored.contains(IngestionPipeline.segmentId("doc-99", 2)));
+    // segments of different documents share batches: only the last one can be short
+    assertEquals(43, batchSizes.size());
+    assertEquals(1, batchSizes.stream().filter(size -> size != 7).count());
+  }
+
+  @Test
+  void expectFilteredSegmentsToKeepTheirIds() {
+    var pipeline = new IngestionPipeline(4, 2, 2);
+    var stored = Collections.synchronizedList(new ArrayList<String>());
+
+    var stats =
+        pipeline.run(
+            documents(10),
+            IngestionPipelineTest::split,
+            (documentId, segmentId, segment) -> !segment.text().endsWith("part 1"),
+            segments -> segments.stream().map(IngestionPipelineTest::embed).toList(),
+            (ids, embeddings, segments) -> stored.addAll(ids));
+
+    assertEquals(20, stats.segments());
+    assertEquals(10, stats.skipped());
+    assertTrue(stored.contains(IngestionPipeline.segmentId("doc-3", 2)));
+    assertFalse(stored.contains(IngestionPipeline.segmentId("doc-3", 1)));
+  }
+
+  @Test
+  void expectEmbeddingFailuresToStopThePipeline() {
+    var pipeline = new IngestionPipeline(4, 2, 1);
+    var failure =
+        assertThrows(
+            IllegalStateException.class,
+            () ->
+                pipeline.run(
+                    documents(10_000),
+                    IngestionPipelineTest::split,
+                    segments -> {
+                      throw new IllegalStateException("model unavailable");
+                    },
+                    (ids, embeddings, segments) -> fail("nothing should be stored")));
+    assertEquals("model unavailable", failure.getMessage());
+  }
+
+  private static Stream<Document> documents(int count) {
+    return IntStream.range(0, count)
+        .mapToObj(i -> new StringDocument("doc-" + i, "document " + i, Map.of()));
+  }
+
+  private static List<TextSegment> split(Document document) {
+    return IntStream.range(0, 3)
+        .mapToObj(i -> TextSegment.from(document.getTextContent() + " part " + i))
+        .toList();
+  }
+
+  private static Embedding embed(TextSegment segment) {
+    return Embedding.from(new float[] {segment.text().hashCode(), segment.text().length()});
+  }
+}
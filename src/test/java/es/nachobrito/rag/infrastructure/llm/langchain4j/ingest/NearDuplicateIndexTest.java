@@ -0,0 +1,107 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.ingest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author nacho
+ */
+class NearDuplicateIndexTest {
+  private static final String ANSWER =
+      "The best time to plant rice depends on your region, but generally it is during the monsoon"
+          + " season between June and July.";
+
+  @TempDir Path tempDir;
+
+  @Test
+  void expectCloseFingerprintsForNearDuplicates() {
+    var segment = faq("What is the best time to plant rice?", ANSWER);
+
+    assertEquals(
+        NearDuplicateIndex.fingerprint(segment),
+        NearDuplicateIndex.fingerprint(faq("what is the best time to plant rice", ANSWER)));
+    assertTrue(
+        distance(segment, faq("What is the best time to plant the rice?", ANSWER)) <= 3,
+        "one extra word");
+    assertTrue(
+        distance(segment, faq("How often should I water tomato plants?", "Every 2-3 days.")) > 10,
+        "unrelated question");
+  }
+
+  @Test
+  void expectDuplicatesToCollapseOntoTheCanonicalSegment() {
+    var index = new NearDuplicateIndex(3);
+    var original = faq("What is the best time to plant rice?", ANSWER);
+
+    assertNull(index.canonical("a", "a#0", original));
+    assertEquals(
+        "a#0",
+        index.canonical("b", "b#0", faq("What is the best time to plant the rice?", ANSWER)));
+    assertEquals("a#0", index.canonical("c", "c#0", original));
+    assertNull(index.canonical("d", "d#0", faq("Which crop is best for sandy soil?", "Peanuts.")));
+    assertEquals(Set.of("b", "c"), index.duplicatesOf("a#0"));
+    assertEquals(2, index.size());
+
+    assertEquals(Set.of(), index.remove("c", List.of("c#0")));
+    assertEquals(Set.of("b"), index.remove("a", List.of("a#0")));
+    assertEquals(1, index.size());
+    assertNull(index.canonical("b", "b#0", original));
+  }
+
+  @Test
+  void expectDisabledIndexToKeepEverySegment() {
+    var index = new NearDuplicateIndex(-1);
+    var segment = faq("What is the best time to plant rice?", ANSWER);
+    assertNull(index.canonical("a", "a#0", segment));
+    assertNull(index.canonical("b", "b#0", segment));
+    assertEquals(0, index.size());
+  }
+
+  @Test
+  void expectIndexToBePersistedWithTheManifest() {
+    var file = tempDir.resolve("index.manifest");
+    var manifest = IngestManifest.empty(file, "pipeline", 3);
+    var segment = faq("What is the best time to plant rice?", ANSWER);
+    manifest.duplicates().canonical("a", "a#0", segment);
+    manifest.duplicates().canonical("b", "b#0", segment);
+    manifest.persist();
+
+    var restored = IngestManifest.load(file, "pipeline", 3).duplicates();
+    assertEquals(1, restored.size());
+    assertEquals(Set.of("b"), restored.duplicatesOf("a#0"));
+    assertEquals("a#0", restored.canonical("c", "c#0", segment));
+  }
+
+  private static TextSegment faq(String question, String answer) {
+    return TextSegment.from(question, new Metadata(Map.of("answer", answer)));
+  }
+
+  private static int distance(TextSegment left, TextSegment right) {
+    return Long.bitCount(
+        NearDuplicateIndex.fingerprint(left) ^ NearDuplicateIndex.fingerprint(right));
+  }
+}
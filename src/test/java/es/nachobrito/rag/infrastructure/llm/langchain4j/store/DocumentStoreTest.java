@@ -0,0 +1,124 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import dev.langchain4j.data.segment.TextSegment;
+import es.nachobrito.rag.domain.document.StringDocument;
+import java.nio.file.Path;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author nacho
+ */
+class DocumentStoreTest {
+  private static final String ANSWER =
+      "The best time to plant rice depends on your region, but generally it is during the monsoon"
+          + " season between June and July.";
+
+  @TempDir Path tempDir;
+
+  @Test
+  void expectLongMetadataToBeResolvedThroughTheStore() {
+    expectLongMetadataToBeResolvedThroughTheStore(false);
+    expectLongMetadataToBeResolvedThroughTheStore(true);
+  }
+
+  @Test
+  void expectDocumentsToSurviveARestart() {
+    expectDocumentsToSurviveARestart(false);
+    expectDocumentsToSurviveARestart(true);
+  }
+
+  @Test
+  void expectInternedStringsToBeDroppedWithTheirLastDocument() {
+    var store = new DocumentStore(tempDir.resolve("index.documents"), false, 64);
+    store.add(new StringDocument("rice", "When to plant rice?", Map.of("answer", ANSWER)));
+    store.add(new StringDocument("paddy", "When to plant paddy?", Map.of("answer", ANSWER)));
+    assertEquals(2, store.internedStrings());
+
+    store.add(new StringDocument("rice", "When to plant rice?", Map.of("answer", "In June.")));
+    store.publish();
+    assertEquals(3, store.internedStrings());
+
+    store.remove("paddy");
+    store.publish();
+    assertEquals(2, store.internedStrings());
+
+    for (int reload = 0; reload < 100; reload++) {
+      store.add(new StringDocument("rice", "When to plant rice?", Map.of("answer", "v" + reload)));
+      store.publish();
+    }
+    store.remove("rice");
+    store.publish();
+    assertEquals(0, store.internedStrings());
+  }
+
+  private void expectLongMetadataToBeResolvedThroughTheStore(boolean offHeap) {
+    var store = new DocumentStore(tempDir.resolve("index.documents"), offHeap, 64);
+    var metadata =
+        store.add(
+            new StringDocument(
+                "rice", "When to plant rice?", Map.of("answer", ANSWER, "crop", "rice")));
+    var segment = TextSegment.from("When to plant rice?", metadata);
+
+    assertNull(segment.metadata().getString("answer"));
+    assertEquals("rice", segment.metadata().getString("crop"));
+    assertEquals(ANSWER, store.metadata(segment, "answer"));
+    assertEquals("When to plant rice?", store.text(segment));
+
+    var replaced =
+        TextSegment.from(
+            "When to plant rice?",
+            store.add(
+                new StringDocument("rice", "When to plant rice?", Map.of("answer", "In June."))));
+    assertEquals(ANSWER, store.metadata(segment, "answer"), "until published");
+    assertEquals("In June.", store.metadata(replaced, "answer"));
+    assertEquals(1, store.size());
+    store.publish();
+    assertNull(store.text(segment));
+    assertEquals("In June.", store.metadata(replaced, "answer"));
+
+    store.remove("rice");
+    assertEquals("When to plant rice?", store.text(replaced), "until published");
+    store.publish();
+    assertNull(store.text(replaced));
+    assertEquals(Map.of("crop", "rice"), store.metadata(segment));
+  }
+
+  private void expectDocumentsToSurviveARestart(boolean offHeap) {
+    var file = tempDir.resolve("index.documents");
+    var store = new DocumentStore(file, offHeap, 64);
+    store.add(new StringDocument("wheat", "Wheat fertilizer?", Map.of("answer", "NPK.")));
+    var segment =
+        TextSegment.from(
+            "When to plant rice?",
+            store.add(new StringDocument("rice", "When to plant rice?", Map.of("answer", ANSWER))));
+    store.remove("wheat");
+    store.persist();
+
+    var restored = new DocumentStore(file, !offHeap, 64);
+    assertFalse(restored.isLoaded());
+    restored.load();
+    assertTrue(restored.isLoaded());
+    assertEquals(1, restored.size());
+    assertEquals(ANSWER, restored.metadata(segment, "answer"));
+  }
+}
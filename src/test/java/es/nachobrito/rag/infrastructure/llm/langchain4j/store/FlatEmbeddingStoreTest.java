@@ -0,0 +1,221 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import static dev.langchain4j.store.embedding.filter.Filter.not;
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+import static org.junit.jupiter.api.Assertions.*;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.filter.Filter;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author nacho
+ */
+class FlatEmbeddingStoreTest {
+  private static final int DIMENSION = 16;
+  private static final int SIZE = 500;
+  private static final String[] CROPS = {"wheat", "rice", "maize", "barley", "soy"};
+
+  @TempDir Path tempDir;
+
+  @Test
+  void expectTheExactMatches() {
+    var random = new Random(1);
+    var store = new FlatEmbeddingStore(tempDir.resolve("index"));
+    var reference = new InMemoryEmbeddingStore<TextSegment>();
+    fill(random, store, reference, 0);
+
+    for (int i = 0; i < 20; i++) {
+      var request = request(randomEmbedding(random));
+      var expected = reference.search(request).matches();
+      var actual = store.search(request).matches();
+      assertEquals(ids(expected), ids(actual));
+      assertEquals(expected.get(0).score(), actual.get(0).score(), 1e-5);
+    }
+  }
+
+  @Test
+  void expectSegmentsAndMetadataToSurviveReload() {
+    var random = new Random(2);
+    var file = tempDir.resolve("index");
+    var store = new FlatEmbeddingStore(file);
+    var embedding = randomEmbedding(random);
+    var uuid = UUID.randomUUID();
+    var metadata =
+        new Metadata()
+            .put("answer", "Rotate the crops")
+            .put("row", 7)
+            .put("offset", 12L)
+            .put("weight", 0.5f)
+            .put("ratio", 0.25)
+            .put("uuid", uuid);
+    store.add(embedding, TextSegment.from("How do I keep the soil healthy?", metadata));
+    store.add("no-segment", randomEmbedding(random));
+    store.serialize();
+
+    var reloaded = FlatEmbeddingStore.load(file);
+    assertEquals(2, reloaded.size());
+    var match = reloaded.search(request(embedding)).matches().get(0);
+    assertEquals("How do I keep the soil healthy?", match.embedded().text());
+    assertEquals(metadata, match.embedded().metadata());
+    assertEquals(1.0, match.score(), 1e-5);
+  }
+
+  @Test
+  void expectWritesOnTopOfAMappedFile() {
+    var random = new Random(3);
+    var file = tempDir.resolve("index");
+    var store = new FlatEmbeddingStore(file);
+    var reference = new InMemoryEmbeddingStore<TextSegment>();
+    fill(random, store, reference, 0);
+    store.serialize();
+
+    var reloaded = FlatEmbeddingStore.load(file);
+    fill(random, reloaded, reference, SIZE);
+    var removed = List.of("id-3", "id-" + (SIZE + 3));
+    reloaded.removeAll(removed);
+    reference.removeAll(removed);
+    assertEquals(2 * SIZE - 2, reloaded.size());
+
+    for (int i = 0; i < 20; i++) {
+      var request = request(randomEmbedding(random));
+      assertEquals(
+          ids(reference.search(request).matches()), ids(reloaded.search(request).matches()));
+    }
+
+    reloaded.serialize();
+    var again = FlatEmbeddingStore.load(file);
+    var request = request(randomEmbedding(random));
+    assertEquals(ids(reference.search(request).matches()), ids(again.search(request).matches()));
+  }
+
+  @Test
+  void expectFilteredSearchesToMatchTheReference() {
+    var random = new Random(5);
+    var file = tempDir.resolve("index");
+    var store = new FlatEmbeddingStore(file);
+    var reference = new InMemoryEmbeddingStore<TextSegment>();
+    var ids = new ArrayList<String>();
+    var embeddings = new ArrayList<Embedding>();
+    var segments = new ArrayList<TextSegment>();
+    for (int i = 0; i < SIZE; i++) {
+      ids.add("id-" + i);
+      embeddings.add(randomEmbedding(random));
+      var metadata = new Metadata().put("crop", CROPS[i % CROPS.length]).put("row", i);
+      segments.add(TextSegment.from("segment " + i, metadata));
+    }
+    store.addAll(ids, embeddings, segments);
+    reference.addAll(ids, embeddings, segments);
+    store.removeAll(List.of("id-0", "id-5"));
+    reference.removeAll(List.of("id-0", "id-5"));
+
+    var filters =
+        List.of(
+            metadataKey("crop").isEqualTo("wheat"),
+            metadataKey("crop").isIn("rice", "maize"),
+            metadataKey("crop").isEqualTo("wheat").and(metadataKey("row").isLessThan(100)),
+            metadataKey("crop").isEqualTo("wheat").or(metadataKey("row").isEqualTo(3L)),
+            not(metadataKey("crop").isEqualTo("wheat")),
+            metadataKey("row").isGreaterThan(490));
+    assertFilteredMatches(random, store, reference, filters);
+
+    store.serialize();
+    assertFilteredMatches(random, FlatEmbeddingStore.load(file), reference, filters);
+  }
+
+  private static void assertFilteredMatches(
+      Random random,
+      FlatEmbeddingStore store,
+      InMemoryEmbeddingStore<TextSegment> reference,
+      List<Filter> filters) {
+    for (var filter : filters) {
+      var request =
+          EmbeddingSearchRequest.builder()
+              .queryEmbedding(randomEmbedding(random))
+              .maxResults(5)
+              .minScore(0.0)
+              .filter(filter)
+              .build();
+      assertEquals(
+          ids(reference.search(request).matches()),
+          ids(store.search(request).matches()),
+          filter.toString());
+    }
+  }
+
+  @Test
+  void expectAFileWithAnotherKindToBeRejected() throws Exception {
+    var file = tempDir.resolve("index");
+    var hnsw = new HnswEmbeddingStore(file, 8, 50, 20);
+    hnsw.add(randomEmbedding(new Random(4)));
+    hnsw.serialize();
+    assertTrue(Files.size(file) > 0);
+
+    assertThrows(RuntimeException.class, () -> FlatEmbeddingStore.load(file));
+  }
+
+  private static void fill(
+      Random random,
+      FlatEmbeddingStore store,
+      InMemoryEmbeddingStore<TextSegment> reference,
+      int first) {
+    var ids = new ArrayList<String>();
+    var embeddings = new ArrayList<Embedding>();
+    var segments = new ArrayList<TextSegment>();
+    for (int i = first; i < first + SIZE; i++) {
+      ids.add("id-" + i);
+      embeddings.add(randomEmbedding(random));
+      segments.add(TextSegment.from("segment " + i, Metadata.from("answer", "answer " + i)));
+    }
+    store.addAll(ids, embeddings, segments);
+    reference.addAll(ids, embeddings, segments);
+  }
+
+  private static Embedding randomEmbedding(Random random) {
+    var vector = new float[DIMENSION];
+    for (int i = 0; i < DIMENSION; i++) {
+      vector[i] = (float) random.nextGaussian();
+    }
+    return Embedding.from(vector);
+  }
+
+  private static EmbeddingSearchRequest request(Embedding query) {
+    return EmbeddingSearchRequest.builder()
+        .queryEmbedding(query)
+        .maxResults(5)
+        .minScore(0.0)
+        .build();
+  }
+
+  private static List<String> ids(List<EmbeddingMatch<TextSegment>> matches) {
+    return new ArrayList<>(matches.stream().map(EmbeddingMatch::embeddingId).toList());
+  }
+}
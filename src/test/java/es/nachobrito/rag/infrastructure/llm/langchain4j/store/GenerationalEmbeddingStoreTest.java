@@ -0,0 +1,237 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author nacho
+ */
+class GenerationalEmbeddingStoreTest {
+  private static final int DIMENSION = 16;
+
+  @TempDir Path tempDir;
+
+  @Test
+  void expectWritesToBeVisibleOnlyOncePublished() {
+    var store = store(tempDir.resolve("index.flat"), 4);
+    var embedding = Embedding.from(new float[] {1, 0, 0});
+    store.add("a", embedding);
+    assertEquals(List.of(), ids(store.search(request(embedding, 1)).matches()));
+
+    store.publish();
+    assertEquals(List.of("a"), ids(store.search(request(embedding, 1)).matches()));
+
+    store.removeAll(List.of("a"));
+    assertEquals(List.of("a"), ids(store.search(request(embedding, 1)).matches()));
+    store.publish();
+    assertEquals(List.of(), ids(store.search(request(embedding, 1)).matches()));
+  }
+
+  @Test
+  void expectTheSameMatchesAsASingleStoreAcrossGenerations() {
+    var random = new Random(5);
+    var store = store(tempDir.resolve("index.flat"), 8);
+    var reference = new InMemoryEmbeddingStore<TextSegment>();
+    for (int round = 0; round < 6; round++) {
+      for (int i = 0; i < 200; i++) {
+        put(store, reference, "id-" + round + "-" + i, randomEmbedding(random));
+      }
+      if (round > 0) {
+        for (int i = 0; i < 10; i++) {
+          put(store, reference, "id-" + (round - 1) + "-" + i, randomEmbedding(random));
+        }
+        var removed = List.of("id-0-" + (100 + round), "id-" + (round - 1) + "-150");
+        store.removeAll(removed);
+        reference.removeAll(removed);
+      }
+      store.publish();
+
+      assertEquals(
+          reference.search(request(randomEmbedding(random), 10_000)).matches().size(),
+          store.size());
+      for (int i = 0; i < 10; i++) {
+        var request = request(randomEmbedding(random), 10);
+        assertEquals(
+            ids(reference.search(request).matches()), ids(store.search(request).matches()));
+      }
+    }
+  }
+
+  @Test
+  void expectPinnedSnapshotToKeepItsViewUntilReleased() {
+    var store = store(tempDir.resolve("index.flat"), 4);
+    var embedding = Embedding.from(new float[] {1, 0, 0});
+    store.add("old", embedding);
+    store.publish();
+
+    var snapshot = store.acquire();
+    store.removeAll(List.of("old"));
+    store.add("new", embedding);
+    store.publish();
+
+    assertEquals(List.of("old"), ids(snapshot.search(request(embedding, 2)).matches()));
+    assertEquals(List.of("new"), ids(store.search(request(embedding, 2)).matches()));
+    snapshot.release();
+    assertEquals(List.of("new"), ids(store.search(request(embedding, 2)).matches()));
+  }
+
+  @Test
+  void expectReleasedGenerationsToBeClosed() {
+    var file = tempDir.resolve("index.flat");
+    var initial = new FlatEmbeddingStore(file);
+    var embedding = Embedding.from(new float[] {1, 0, 0});
+    initial.add("a", embedding);
+    initial.serialize();
+    var loaded = FlatEmbeddingStore.load(file);
+    var store = new GenerationalEmbeddingStore(loaded, () -> new FlatEmbeddingStore(file), 4);
+
+    var snapshot = store.acquire();
+    store.removeAll(List.of("a"));
+    store.publish();
+    assertEquals(1, loaded.size());
+    snapshot.release();
+    assertEquals(0, loaded.size());
+  }
+
+  @Test
+  void expectSerializeToPersistGenerationsWithoutMergingThem() {
+    var random = new Random(7);
+    var file = tempDir.resolve("index.flat");
+    var store = store(file, 2);
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 100; i++) {
+        store.add("id-" + round + "-" + i, randomEmbedding(random));
+      }
+      store.removeAll(List.of("id-0-" + round));
+      store.publish();
+      var generation = store.generation();
+      store.serialize();
+      assertEquals(generation, store.generation());
+
+      var reloaded = store(file, 2);
+      assertEquals(store.size(), reloaded.size());
+      for (int i = 0; i < 10; i++) {
+        var request = request(randomEmbedding(random), 5);
+        assertEquals(ids(store.search(request).matches()), ids(reloaded.search(request).matches()));
+      }
+    }
+    assertEquals(297, store.size());
+  }
+
+  @Test
+  void expectGenerationsOfAnotherBaseFileToBeIgnored() {
+    var file = tempDir.resolve("index.flat");
+    var store = store(file, 4);
+    var embedding = Embedding.from(new float[] {1, 0, 0});
+    store.add("base", embedding);
+    store.publish();
+    store.serialize();
+    store.add("delta", embedding);
+    store.publish();
+    store.serialize();
+    assertEquals(2, store(file, 4).size());
+
+    var other = new FlatEmbeddingStore(file);
+    other.add("other", embedding);
+    other.serialize();
+    assertEquals(List.of("other"), ids(store(file, 4).search(request(embedding, 2)).matches()));
+  }
+
+  @Test
+  void expectTheFirstIngestToBuildAStoreOfTheConfiguredKind() {
+    var random = new Random(11);
+    var file = tempDir.resolve("index.hnsw");
+    var store = hnswStore(file);
+    for (int i = 0; i < 100; i++) {
+      store.add("id-" + i, randomEmbedding(random));
+    }
+    store.publish();
+    assertEquals(1, store.generations().size());
+    assertInstanceOf(HnswEmbeddingStore.class, store.generations().getFirst());
+
+    store.serialize();
+    assertFalse(Files.exists(file.resolveSibling("index.hnsw.generations")));
+    var reloaded = hnswStore(file);
+    assertEquals(1, reloaded.generations().size());
+    assertInstanceOf(HnswEmbeddingStore.class, reloaded.generations().getFirst());
+    assertEquals(100, reloaded.size());
+
+    reloaded.removeAll();
+    reloaded.add("again", randomEmbedding(random));
+    reloaded.publish();
+    assertEquals(1, reloaded.generations().size());
+    assertInstanceOf(HnswEmbeddingStore.class, reloaded.generations().getFirst());
+    assertEquals(1, reloaded.size());
+  }
+
+  private static GenerationalEmbeddingStore hnswStore(Path file) {
+    return new GenerationalEmbeddingStore(
+        HnswEmbeddingStore.load(file, 16, 200, 64),
+        () -> new HnswEmbeddingStore(file, 16, 200, 64),
+        4);
+  }
+
+  private static GenerationalEmbeddingStore store(Path file, int maxGenerations) {
+    return new GenerationalEmbeddingStore(
+        FlatEmbeddingStore.load(file), () -> new FlatEmbeddingStore(file), maxGenerations);
+  }
+
+  private static void put(
+      GenerationalEmbeddingStore store,
+      InMemoryEmbeddingStore<TextSegment> reference,
+      String id,
+      Embedding embedding) {
+    var segment = TextSegment.from(id, Metadata.from("id", id));
+    store.addAll(List.of(id), List.of(embedding), List.of(segment));
+    reference.removeAll(List.of(id));
+    reference.addAll(List.of(id), List.of(embedding), List.of(segment));
+  }
+
+  private static Embedding randomEmbedding(Random random) {
+    var vector = new float[DIMENSION];
+    for (int i = 0; i < DIMENSION; i++) {
+      vector[i] = (float) random.nextGaussian();
+    }
+    return Embedding.from(vector);
+  }
+
+  private static EmbeddingSearchRequest request(Embedding query, int maxResults) {
+    return EmbeddingSearchRequest.builder()
+        .queryEmbedding(query)
+        .maxResults(maxResults)
+        .minScore(0.0)
+        .build();
+  }
+
+  private static List<String> ids(List<EmbeddingMatch<TextSegment>> matches) {
+    return matches.stream().map(EmbeddingMatch::embeddingId).toList();
+  }
+}
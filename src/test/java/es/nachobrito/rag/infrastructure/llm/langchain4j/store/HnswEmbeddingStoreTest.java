@@ -0,0 +1,171 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author nacho
+ */
+class HnswEmbeddingStoreTest {
+  private static final int DIMENSION = 32;
+  private static final int SIZE = 2_000;
+
+  @TempDir Path tempDir;
+
+  @Test
+  void expectHighRecallComparedToExactSearch() {
+    var random = new Random(7);
+    var hnsw = new HnswEmbeddingStore(tempDir.resolve("index.hnsw"), 16, 200, 64);
+    var exact = new InMemoryEmbeddingStore<TextSegment>();
+    fill(random, hnsw, exact);
+
+    var found = 0;
+    var queries = 50;
+    for (int i = 0; i < queries; i++) {
+      var request = request(randomEmbedding(random), 10, 0);
+      var expected = ids(exact.search(request).matches());
+      var actual = ids(hnsw.search(request).matches());
+      expected.retainAll(actual);
+      found += expected.size();
+    }
+    var recall = found / (queries * 10.0);
+    assertTrue(recall > 0.9, "recall was %f".formatted(recall));
+  }
+
+  @Test
+  void expectMinScoreAndMaxResultsToBeHonoured() {
+    var random = new Random(11);
+    var store = new HnswEmbeddingStore(tempDir.resolve("index.hnsw"), 8, 100, 32);
+    fill(random, store, new InMemoryEmbeddingStore<>());
+    var query = randomEmbedding(random);
+
+    var matches = store.search(request(query, 5, 0)).matches();
+    assertEquals(5, matches.size());
+    for (int i = 1; i < matches.size(); i++) {
+      assertTrue(matches.get(i - 1).score() >= matches.get(i).score());
+    }
+
+    var threshold = matches.get(2).score();
+    var filtered = store.search(request(query, 5, threshold)).matches();
+    assertEquals(3, filtered.size());
+    filtered.forEach(match -> assertTrue(match.score() >= threshold));
+  }
+
+  @Test
+  void expectRemovedEntriesToBeSkipped() {
+    var store = new HnswEmbeddingStore(tempDir.resolve("index.hnsw"), 8, 100, 32);
+    var embedding = Embedding.from(new float[] {1, 0, 0});
+    store.add("a", embedding);
+    store.add("b", Embedding.from(new float[] {0.9f, 0.1f, 0}));
+    store.remove("a");
+
+    var matches = store.search(request(embedding, 2, 0)).matches();
+    assertEquals(List.of("b"), ids(matches));
+  }
+
+  @Test
+  void expectSameResultsAfterReload() {
+    var random = new Random(13);
+    var file = tempDir.resolve("index.hnsw");
+    var store = new HnswEmbeddingStore(file, 16, 200, 64);
+    fill(random, store, new InMemoryEmbeddingStore<>());
+    store.serialize();
+
+    var reloaded = HnswEmbeddingStore.load(file, 16, 200, 64);
+    assertEquals(store.size(), reloaded.size());
+    for (int i = 0; i < 10; i++) {
+      var request = request(randomEmbedding(random), 3, 0);
+      var expected = store.search(request).matches();
+      var actual = reloaded.search(request).matches();
+      assertEquals(ids(expected), ids(actual));
+      assertEquals(expected.get(0).embedded(), actual.get(0).embedded());
+    }
+  }
+
+  @Test
+  void expectInsertsIntoAReloadedGraphToBeFound() {
+    var random = new Random(17);
+    var file = tempDir.resolve("index.hnsw");
+    var store = new HnswEmbeddingStore(file, 16, 200, 64);
+    fill(random, store, new InMemoryEmbeddingStore<>());
+    store.serialize();
+
+    var reloaded = HnswEmbeddingStore.load(file, 16, 200, 64);
+    var added = new ArrayList<Embedding>();
+    for (int i = 0; i < 100; i++) {
+      var embedding = randomEmbedding(random);
+      reloaded.add("new-" + i, embedding);
+      added.add(embedding);
+    }
+    reloaded.serialize();
+
+    var again = HnswEmbeddingStore.load(file, 16, 200, 64);
+    for (int i = 0; i < added.size(); i++) {
+      var matches = again.search(request(added.get(i), 1, 0)).matches();
+      assertEquals("new-" + i, matches.get(0).embeddingId());
+    }
+  }
+
+  private static void fill(
+      Random random, HnswEmbeddingStore store, InMemoryEmbeddingStore<TextSegment> reference) {
+    var ids = new ArrayList<String>();
+    var embeddings = new ArrayList<Embedding>();
+    var segments = new ArrayList<TextSegment>();
+    for (int i = 0; i < SIZE; i++) {
+      ids.add("id-" + i);
+      embeddings.add(randomEmbedding(random));
+      segments.add(TextSegment.from("segment " + i, Metadata.from("answer", "answer " + i)));
+    }
+    store.addAll(ids, embeddings, segments);
+    reference.addAll(ids, embeddings, segments);
+  }
+
+  private static Embedding randomEmbedding(Random random) {
+    var vector = new float[DIMENSION];
+    for (int i = 0; i < DIMENSION; i++) {
+      vector[i] = (float) random.nextGaussian();
+    }
+    return Embedding.from(vector);
+  }
+
+  private static EmbeddingSearchRequest request(Embedding query, int maxResults, double minScore) {
+    return EmbeddingSearchRequest.builder()
+        .queryEmbedding(query)
+        .maxResults(maxResults)
+        .minScore(minScore)
+        .build();
+  }
+
+  private static List<String> ids(List<EmbeddingMatch<TextSegment>> matches) {
+    return matches.stream().map(EmbeddingMatch::embeddingId).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author nacho
+ */
+class OffHeapVectorStorageTest {
+  // not a multiple of any vector species length, so the scalar tail of the kernels runs too
+  private static final int DIMENSION = 37;
+
+  @Test
+  void expectVectorsToSurviveGrowth() {
+    var random = new Random(1);
+    var storage = new OffHeapVectorStorage();
+    var vectors = new ArrayList<float[]>();
+    for (int i = 0; i < 3_000; i++) {
+      var vector = randomVector(random);
+      assertEquals(i, storage.append(vector));
+      vectors.add(vector);
+    }
+
+    assertEquals(3_000, storage.size());
+    assertEquals(DIMENSION, storage.dimension());
+    for (int i = 0; i < vectors.size(); i += 97) {
+      assertArrayEquals(vectors.get(i), storage.get(i));
+    }
+  }
+
+  @Test
+  void expectDotProductsToMatchAScalarLoop() {
+    var random = new Random(2);
+    var storage = new OffHeapVectorStorage();
+    var vectors = new ArrayList<float[]>();
+    for (int i = 0; i < 10; i++) {
+      var vector = randomVector(random);
+      storage.append(vector);
+      vectors.add(vector);
+    }
+
+    var query = randomVector(random);
+    for (int a = 0; a < vectors.size(); a++) {
+      assertEquals(dot(vectors.get(a), query), storage.dot(a, query), 1e-4);
+      for (int b = 0; b < vectors.size(); b++) {
+        assertEquals(dot(vectors.get(a), vectors.get(b)), storage.dot(a, b), 1e-4);
+      }
+    }
+  }
+
+  @Test
+  void expectMismatchedDimensionsToBeRejected() {
+    var storage = new OffHeapVectorStorage();
+    storage.append(new float[DIMENSION]);
+    assertThrows(IllegalArgumentException.class, () -> storage.append(new float[DIMENSION + 1]));
+  }
+
+  private static float dot(float[] a, float[] b) {
+    var sum = 0f;
+    for (int i = 0; i < a.length; i++) {
+      sum += a[i] * b[i];
+    }
+    return sum;
+  }
+
+  private static float[] randomVector(Random random) {
+    var vector = new float[DIMENSION];
+    for (int i = 0; i < DIMENSION; i++) {
+      vector[i] = (float) random.nextGaussian();
+    }
+    return vector;
+  }
+}
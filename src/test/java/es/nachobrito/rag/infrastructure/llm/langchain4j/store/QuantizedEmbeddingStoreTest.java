@@ -0,0 +1,183 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import es.nachobrito.rag.infrastructure.llm.langchain4j.store.QuantizedEmbeddingStore.Encoding;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author nacho
+ */
+class QuantizedEmbeddingStoreTest {
+  private static final int DIMENSION = 64;
+  private static final int SIZE = 2_000;
+  private static final int QUERIES = 50;
+
+  @TempDir Path tempDir;
+
+  @Test
+  void expectInt8ToReturnTheExactMatches() {
+    var random = new Random(3);
+    var store = new QuantizedEmbeddingStore(tempDir.resolve("index"), Encoding.INT8, 10);
+    var reference = new InMemoryEmbeddingStore<TextSegment>();
+    fill(random, store, reference);
+
+    for (int i = 0; i < QUERIES; i++) {
+      var request = request(randomEmbedding(random));
+      var expected = reference.search(request).matches();
+      var actual = store.search(request).matches();
+      assertEquals(ids(expected), ids(actual));
+      assertEquals(expected.get(0).score(), actual.get(0).score(), 1e-5);
+      assertEquals(expected.get(0).embedded(), actual.get(0).embedded());
+    }
+  }
+
+  @Test
+  void expectBinaryToFindTheBestMatchAfterReranking() {
+    var random = new Random(5);
+    var store = new QuantizedEmbeddingStore(tempDir.resolve("index"), Encoding.BINARY, 20);
+    var reference = new InMemoryEmbeddingStore<TextSegment>();
+    var embeddings = fill(random, store, reference);
+
+    var found = 0;
+    for (int i = 0; i < QUERIES; i++) {
+      // a paraphrase of a stored question lands close to it, but not on it
+      var request = request(nearby(random, embeddings.get(random.nextInt(SIZE))));
+      var expected = reference.search(request).matches().get(0).embeddingId();
+      if (ids(store.search(request).matches()).contains(expected)) {
+        found++;
+      }
+    }
+    var recall = found / (double) QUERIES;
+    assertTrue(recall > 0.9, "recall was %f".formatted(recall));
+  }
+
+  @Test
+  void expectSameResultsAfterReload() {
+    var random = new Random(9);
+    var file = tempDir.resolve("index");
+    var store = new QuantizedEmbeddingStore(file, Encoding.INT8, 10);
+    fill(random, store, new InMemoryEmbeddingStore<>());
+    store.serialize();
+
+    var reloaded = QuantizedEmbeddingStore.load(file, Encoding.INT8, 10);
+    var request = request(randomEmbedding(random));
+    assertEquals(ids(store.search(request).matches()), ids(reloaded.search(request).matches()));
+  }
+
+  @Test
+  void expectEntriesAddedAfterReloadToBeSearchable() {
+    var random = new Random(11);
+    var file = tempDir.resolve("index");
+    var reference = new InMemoryEmbeddingStore<TextSegment>();
+    var store = new QuantizedEmbeddingStore(file, Encoding.INT8, 10);
+    fill(random, store, reference);
+    store.serialize();
+
+    // the first codes come from the mapping, the new ones from memory; both are written back
+    var reloaded = QuantizedEmbeddingStore.load(file, Encoding.INT8, 10);
+    fill(random, reloaded, reference, SIZE);
+    reloaded.serialize();
+    var again = QuantizedEmbeddingStore.load(file, Encoding.INT8, 10);
+
+    for (int i = 0; i < QUERIES; i++) {
+      var request = request(randomEmbedding(random));
+      var expected = ids(reference.search(request).matches());
+      assertEquals(expected, ids(reloaded.search(request).matches()));
+      assertEquals(expected, ids(again.search(request).matches()));
+    }
+  }
+
+  @Test
+  void expectBinaryCodesToSurviveAReload() {
+    var random = new Random(13);
+    var file = tempDir.resolve("index");
+    var store = new QuantizedEmbeddingStore(file, Encoding.BINARY, 20);
+    fill(random, store, new InMemoryEmbeddingStore<>());
+    store.serialize();
+
+    var reloaded = QuantizedEmbeddingStore.load(file, Encoding.BINARY, 20);
+    for (int i = 0; i < QUERIES; i++) {
+      var request = request(randomEmbedding(random));
+      assertEquals(ids(store.search(request).matches()), ids(reloaded.search(request).matches()));
+    }
+  }
+
+  private static List<Embedding> fill(
+      Random random, QuantizedEmbeddingStore store, InMemoryEmbeddingStore<TextSegment> reference) {
+    return fill(random, store, reference, 0);
+  }
+
+  private static List<Embedding> fill(
+      Random random,
+      QuantizedEmbeddingStore store,
+      InMemoryEmbeddingStore<TextSegment> reference,
+      int first) {
+    var ids = new ArrayList<String>();
+    var embeddings = new ArrayList<Embedding>();
+    var segments = new ArrayList<TextSegment>();
+    for (int i = first; i < first + SIZE; i++) {
+      ids.add("id-" + i);
+      embeddings.add(randomEmbedding(random));
+      segments.add(TextSegment.from("segment " + i, Metadata.from("answer", "answer " + i)));
+    }
+    store.addAll(ids, embeddings, segments);
+    reference.addAll(ids, embeddings, segments);
+    return embeddings;
+  }
+
+  private static Embedding nearby(Random random, Embedding embedding) {
+    var vector = embedding.vector().clone();
+    for (int i = 0; i < DIMENSION; i++) {
+      vector[i] += (float) (random.nextGaussian() * 0.5);
+    }
+    return Embedding.from(vector);
+  }
+
+  private static Embedding randomEmbedding(Random random) {
+    var vector = new float[DIMENSION];
+    for (int i = 0; i < DIMENSION; i++) {
+      vector[i] = (float) random.nextGaussian();
+    }
+    return Embedding.from(vector);
+  }
+
+  private static EmbeddingSearchRequest request(Embedding query) {
+    return EmbeddingSearchRequest.builder()
+        .queryEmbedding(query)
+        .maxResults(2)
+        .minScore(0.0)
+        .build();
+  }
+
+  private static List<String> ids(List<EmbeddingMatch<TextSegment>> matches) {
+    return new ArrayList<>(matches.stream().map(EmbeddingMatch::embeddingId).toList());
+  }
+}
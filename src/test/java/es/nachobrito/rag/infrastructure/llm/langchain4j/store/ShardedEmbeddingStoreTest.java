@@ -0,0 +1,142 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.llm.langchain4j.store;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author nacho
+ */
+class ShardedEmbeddingStoreTest {
+  private static final int DIMENSION = 16;
+  private static final int SIZE = 1_000;
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+  @TempDir Path tempDir;
+
+  @AfterEach
+  void shutDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void expectTheSameMatchesAsASingleStore() {
+    var random = new Random(1);
+    var store = ShardedEmbeddingStore.load(tempDir.resolve("index"), 4, this::shard, executor);
+    var reference = new InMemoryEmbeddingStore<TextSegment>();
+    fill(random, store, reference);
+
+    assertEquals(SIZE, store.size());
+    for (int i = 0; i < 20; i++) {
+      var request = request(randomEmbedding(random));
+      var expected = reference.search(request).matches();
+      var actual = store.search(request).matches();
+      assertEquals(ids(expected), ids(actual));
+      assertEquals(expected.get(0).embedded(), actual.get(0).embedded());
+    }
+  }
+
+  @Test
+  void expectIdsToBeReplacedAndRemovedInTheirShard() {
+    var random = new Random(2);
+    var store = ShardedEmbeddingStore.load(tempDir.resolve("index"), 3, this::shard, executor);
+    var reference = new InMemoryEmbeddingStore<TextSegment>();
+    fill(random, store, reference);
+
+    var replacement = randomEmbedding(random);
+    store.add("id-7", replacement);
+    store.removeAll(List.of("id-8", "id-9"));
+
+    assertEquals(SIZE - 2, store.size());
+    assertEquals("id-7", store.search(request(replacement)).matches().get(0).embeddingId());
+  }
+
+  @Test
+  void expectAllShardsToSurviveReloadInOneFile() {
+    var random = new Random(3);
+    var file = tempDir.resolve("index");
+    var store = ShardedEmbeddingStore.load(file, 4, this::shard, executor);
+    var reference = new InMemoryEmbeddingStore<TextSegment>();
+    fill(random, store, reference);
+    store.serialize();
+
+    // the file decides the number of shards
+    var reloaded = ShardedEmbeddingStore.load(file, 2, this::shard, executor);
+    assertEquals(4, reloaded.shardCount());
+    assertEquals(SIZE, reloaded.size());
+    for (int i = 0; i < 10; i++) {
+      var request = request(randomEmbedding(random));
+      assertEquals(
+          ids(reference.search(request).matches()), ids(reloaded.search(request).matches()));
+    }
+  }
+
+  private OrdinalEmbeddingStore shard() {
+    return new FlatEmbeddingStore(null);
+  }
+
+  private static void fill(
+      Random random, ShardedEmbeddingStore store, InMemoryEmbeddingStore<TextSegment> reference) {
+    var ids = new ArrayList<String>();
+    var embeddings = new ArrayList<Embedding>();
+    var segments = new ArrayList<TextSegment>();
+    for (int i = 0; i < SIZE; i++) {
+      ids.add("id-" + i);
+      embeddings.add(randomEmbedding(random));
+      segments.add(TextSegment.from("segment " + i, Metadata.from("answer", "answer " + i)));
+    }
+    store.addAll(ids, embeddings, segments);
+    reference.addAll(ids, embeddings, segments);
+  }
+
+  private static Embedding randomEmbedding(Random random) {
+    var vector = new float[DIMENSION];
+    for (int i = 0; i < DIMENSION; i++) {
+      vector[i] = (float) random.nextGaussian();
+    }
+    return Embedding.from(vector);
+  }
+
+  private static EmbeddingSearchRequest request(Embedding query) {
+    return EmbeddingSearchRequest.builder()
+        .queryEmbedding(query)
+        .maxResults(5)
+        .minScore(0.0)
+        .build();
+  }
+
+  private static List<String> ids(List<EmbeddingMatch<TextSegment>> matches) {
+    return new ArrayList<>(matches.stream().map(EmbeddingMatch::embeddingId).toList());
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ *    Copyright 2025 Nacho Brito
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package es.nachobrito.rag.infrastructure.micronaut;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author nacho
+ */
+class DataFileWatcherTest {
+
+  @TempDir Path tempDir;
+
+  @Test
+  void expectOneReloadPerBurstOfWrites() throws IOException, InterruptedException {
+    var file = tempDir.resolve("data.csv");
+    var other = tempDir.resolve("other.csv");
+    Files.writeString(file, "Question,Answer\n");
+    var reloads = new Semaphore(0);
+
+    try (var ignored = new DataFileWatcher(file, Duration.ofMillis(500), reloads::release)) {
+      for (int i = 0; i < 5; i++) {
+        Files.writeString(file, "Question,Answer\nq%d,a%d\n".formatted(i, i));
+        Thread.sleep(20);
+      }
+      assertTrue(reloads.tryAcquire(10, TimeUnit.SECONDS));
+      Thread.sleep(1_000);
+      assertEquals(0, reloads.availablePermits());
+
+      Files.writeString(other, "ignored");
+      Thread.sleep(1_000);
+      assertEquals(0, reloads.availablePermits());
+    }
+  }
+}